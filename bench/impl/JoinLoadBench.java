@@ -0,0 +1,215 @@
+package impl;
+
+import inter.IRemoteClient;
+import inter.IRemoteServer;
+import inter.ISyncData;
+import inter.JoinResult;
+import utils.Config;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Join throughput and latency with 500 clients joining at once over RMI on the loopback interface, each
+ * looking the server up in the registry first as a real client does. The board holds some strokes and chat
+ * beforehand, so the join reply carries a real thumbnail and chat history. Before the load, pairs of clients
+ * claim the same name at once to check that only one of each pair gets in. After it, every client's chat is
+ * checked for duplicates and for its own join announcement.
+ * The number of joiners can be given as an argument. Run as a program, see the README.
+ */
+public class JoinLoadBench {
+    private static final int JOINERS = 500;
+    private static final int PORT = 41098;
+    private static final String REGISTRY_NAME = "JoinLoadBench";
+    private static final int STROKES = 2000;
+    private static final int CHAT_MESSAGES = 30;
+    private static final int SAME_NAME_PAIRS = 50;
+    // Time for the batched user list and join announcements to reach every client
+    private static final long SETTLE_MILLIS = 3000;
+
+    private static final AtomicLong USER_LISTS = new AtomicLong();
+    private static final AtomicLong MESSAGES = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int joiners = args.length > 0 ? Integer.parseInt(args[0]) : JOINERS;
+        RemoteServer server = new RemoteServer();
+        Registry registry = LocateRegistry.createRegistry(PORT);
+        registry.bind(REGISTRY_NAME, server);
+        IRemoteServer stub = lookup();
+        int sessionId = stub.join("manager", new LoadClient("manager"), true).getSessionId();
+        Random random = new Random(1);
+        for (int i = 0; i < STROKES; i++) {
+            int x = random.nextInt(Config.CANVAS_WIDTH - 80);
+            int y = random.nextInt(Config.CANVAS_HEIGHT - 60);
+            stub.broadcastCanvas(new SyncData(Config.LINE, Color.BLACK, new Point(x, y), new Point(x + 80, y + 60),
+                    sessionId, null, 0, 0));
+        }
+        for (int i = 0; i < CHAT_MESSAGES; i++) {
+            stub.broadcastMessage("manager: message " + i);
+        }
+
+        int bothAdmitted = 0;
+        for (int i = 0; i < SAME_NAME_PAIRS; i++) {
+            String name = "twin" + i;
+            CompletableFuture<JoinResult> first = CompletableFuture.supplyAsync(() -> join(stub, name));
+            CompletableFuture<JoinResult> second = CompletableFuture.supplyAsync(() -> join(stub, name));
+            if (first.get().isJoined() && second.get().isJoined()) {
+                bothAdmitted++;
+            }
+        }
+        System.out.printf("same-name pairs both admitted: %d/%d%n", bothAdmitted, SAME_NAME_PAIRS);
+
+        CyclicBarrier start = new CyclicBarrier(joiners);
+        ExecutorService pool = Executors.newFixedThreadPool(joiners);
+        LoadClient[] clients = new LoadClient[joiners];
+        JoinResult[] results = new JoinResult[joiners];
+        long[] latencies = new long[joiners];
+        AtomicInteger joined = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < joiners; i++) {
+            int index = i;
+            futures.add(pool.submit(() -> {
+                clients[index] = new LoadClient("user" + index);
+                start.await();
+                long begin = System.nanoTime();
+                results[index] = lookup().join(clients[index].name, clients[index], false);
+                latencies[index] = System.nanoTime() - begin;
+                if (results[index].isJoined()) {
+                    joined.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long wall = System.nanoTime() - begin;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%d/%d joined in %.0f ms, %.0f joins/s, latency p50 %.0f ms p99 %.0f ms max %.0f ms, "
+                        + "reply %d bytes%n", joined.get(), joiners, wall / 1e6, joined.get() / (wall / 1e9),
+                latencies[joiners / 2] / 1e6, latencies[joiners * 99 / 100] / 1e6, latencies[joiners - 1] / 1e6,
+                serializedSize(results[joiners - 1]));
+
+        Thread.sleep(SETTLE_MILLIS);
+        System.out.printf("callbacks after %d s: %d user lists, %d chat messages%n", SETTLE_MILLIS / 1000,
+                USER_LISTS.get(), MESSAGES.get());
+        int duplicated = 0;
+        int missingOwn = 0;
+        for (int i = 0; i < joiners; i++) {
+            List<String> chat = new ArrayList<>();
+            for (String message : results[i].getRecentChat()) {
+                chat.addAll(Arrays.asList(message.split("\n")));
+            }
+            synchronized (clients[i].chat) {
+                for (String message : clients[i].chat) {
+                    chat.addAll(Arrays.asList(message.split("\n")));
+                }
+            }
+            if (new HashSet<>(chat).size() != chat.size()) {
+                duplicated++;
+            }
+            if (!chat.contains("System: user" + i + " has joined")) {
+                missingOwn++;
+            }
+        }
+        System.out.printf("clients with duplicate chat: %d, missing their own join message: %d%n", duplicated,
+                missingOwn);
+        // The RMI runtime keeps the JVM alive otherwise
+        System.exit(0);
+    }
+
+    private static IRemoteServer lookup() throws IOException {
+        try {
+            return (IRemoteServer) LocateRegistry.getRegistry("localhost", PORT).lookup(REGISTRY_NAME);
+        } catch (NotBoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static JoinResult join(IRemoteServer server, String name) {
+        try {
+            return server.join(name, new LoadClient(name), false);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static int serializedSize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Client that keeps the chat it is sent and counts the user lists, ignoring drawing
+     */
+    private static final class LoadClient extends UnicastRemoteObject implements IRemoteClient {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final List<String> chat = Collections.synchronizedList(new ArrayList<>());
+
+        LoadClient(String name) throws RemoteException {
+            this.name = name;
+        }
+
+        @Override
+        public String getUsername() {
+            return name;
+        }
+
+        @Override
+        public void syncCanvas(ISyncData data, long previousSequence) {
+        }
+
+        @Override
+        public void syncMessage(String message) {
+            MESSAGES.incrementAndGet();
+            chat.add(message);
+        }
+
+        @Override
+        public void requestExit(String managerName) {
+        }
+
+        @Override
+        public void syncUserList(DefaultListModel<String> tempModel) {
+            USER_LISTS.incrementAndGet();
+        }
+
+        @Override
+        public void resyncCanvas() {
+        }
+
+        @Override
+        public void requestCanvasClose() {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package impl;
+
+import utils.Config;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Time to write a board of 1M mixed operations to the journal, to read it back, and to reopen a server on
+ * it, which also redraws every operation onto the server canvas. Then the same board published through a
+ * server, which takes checkpoints as it goes, and the time to reopen it from its newest checkpoint.
+ * Journals are written to temporary directories and deleted afterwards.
+ * Run as a program, see the README.
+ */
+public class JournalRecoveryBench {
+    private static final int OPERATIONS = 1_000_000;
+    private static final int CHUNK_POINTS = 8;
+
+    public static void main(String[] args) throws IOException {
+        replayEverything();
+        replayFromCheckpoint();
+    }
+
+    /**
+     * Journal the operations directly, so there is no checkpoint and a reopen replays all of them
+     */
+    private static void replayEverything() throws IOException {
+        Path directory = Files.createTempDirectory("journal-bench");
+        try {
+            Random random = new Random(1);
+            long start = System.nanoTime();
+            try (OperationJournal journal = new OperationJournal(directory, Config.JOURNAL_SEGMENT_BYTES,
+                    Config.JOURNAL_SYNC_INTERVAL_MS)) {
+                journal.recover(0, (operation, imageData) -> {
+                });
+                for (int sequence = 1; sequence <= OPERATIONS; sequence++) {
+                    journal.append(operation(random).withSequence(sequence), null);
+                }
+            }
+            double append = (System.nanoTime() - start) / 1e9;
+            long bytes;
+            try (Stream<Path> segments = Files.list(directory)) {
+                bytes = segments.mapToLong(path -> path.toFile().length()).sum();
+            }
+
+            long[] read = new long[1];
+            start = System.nanoTime();
+            try (OperationJournal journal = new OperationJournal(directory, Config.JOURNAL_SEGMENT_BYTES,
+                    Config.JOURNAL_SYNC_INTERVAL_MS)) {
+                journal.recover(0, (operation, imageData) -> read[0]++);
+            }
+            double readBack = (System.nanoTime() - start) / 1e9;
+            if (read[0] != OPERATIONS) {
+                throw new IllegalStateException("Read back " + read[0] + " of " + OPERATIONS + " operations");
+            }
+
+            start = System.nanoTime();
+            RemoteServer server = new RemoteServer(directory);
+            double reopen = (System.nanoTime() - start) / 1e9;
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+
+            System.out.printf("%d operations, %.0f MB of segments%n", OPERATIONS, bytes / 1e6);
+            System.out.printf("append %.2f s (%.2f us each), read back %.2f s, reopen server %.2f s%n", append,
+                    append * 1e6 / OPERATIONS, readBack, reopen);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Publish the operations through a server, then reopen it from the checkpoint it took last
+     */
+    private static void replayFromCheckpoint() throws IOException {
+        Path directory = Files.createTempDirectory("journal-bench");
+        try {
+            Random random = new Random(1);
+            RemoteServer server = new RemoteServer(directory);
+            long start = System.nanoTime();
+            for (int i = 0; i < OPERATIONS; i++) {
+                server.broadcastCanvas(operation(random));
+            }
+            double publish = (System.nanoTime() - start) / 1e9;
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+
+            start = System.nanoTime();
+            server = new RemoteServer(directory);
+            double reopen = (System.nanoTime() - start) / 1e9;
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+
+            long files;
+            try (Stream<Path> entries = Files.list(directory)) {
+                files = entries.count();
+            }
+            System.out.printf("publish with checkpoints %.2f s, reopen server from checkpoint %.2f s, %d files left%n",
+                    publish, reopen, files);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A freehand chunk, line, rectangle or now and then a text, spread over the canvas
+     */
+    private static SyncData operation(Random random) {
+        int x = random.nextInt(Config.CANVAS_WIDTH);
+        int y = random.nextInt(Config.CANVAS_HEIGHT);
+        Color color = new Color(random.nextInt(0xFFFFFF));
+        int kind = random.nextInt(100);
+        if (kind < 60) {
+            int[] xPoints = new int[CHUNK_POINTS];
+            int[] yPoints = new int[CHUNK_POINTS];
+            for (int i = 0; i < CHUNK_POINTS; i++) {
+                xPoints[i] = x + i * 2;
+                yPoints[i] = y + random.nextInt(5) - 2;
+            }
+            return new SyncData(Config.DRAW, color, xPoints, yPoints, CHUNK_POINTS, 1, 0);
+        } else if (kind < 80) {
+            return new SyncData(Config.LINE, color, new Point(x, y), new Point(x + 40, y + 30), 1, null, 0, 0);
+        } else if (kind < 99) {
+            return new SyncData(Config.RECTANGLE, color, new Point(x, y), new Point(x + 60, y + 40), 1, null, 0, 0);
+        }
+        return new SyncData(Config.TEXT, color, new Point(x, y), new Point(x, y), 1, "note " + x, 14, 0);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
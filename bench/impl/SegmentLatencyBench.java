@@ -0,0 +1,225 @@
+package impl;
+
+import inter.IRemoteClient;
+import inter.IRemoteServer;
+import inter.ISyncData;
+import utils.Config;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Round trips per drag segment and time from a segment's send until every receiver has read it, with the
+ * segment passed by value and with the receivers calling back to the sender for its fields as they did
+ * when operations were remote objects. Everything runs over RMI on the loopback interface, so the figures
+ * are a floor, each round trip adds the link latency on a real network. The old server also asked every
+ * peer for its name per segment, which is not reproduced here, so the callback figures are a floor too.
+ * Segments are sent one at a time, each after the previous one reached every receiver.
+ * Run as a program, see the README.
+ */
+public class SegmentLatencyBench {
+    private static final int[] RECEIVERS = {1, 4};
+    private static final int SEGMENTS = 5000;
+    private static final int RUNS = 3;
+
+    // Counters of remote calls, per kind
+    private static final AtomicLong SERVER_CALLS = new AtomicLong();
+    private static final AtomicLong DELIVERIES = new AtomicLong();
+    private static final AtomicLong CALLBACKS = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("receivers  fields      round trips/segment  median us  p99 us");
+        for (int receivers : RECEIVERS) {
+            for (boolean callbacks : new boolean[]{false, true}) {
+                String line = null;
+                for (int run = 0; run < RUNS; run++) {
+                    line = measure(receivers, callbacks);
+                }
+                System.out.println(line);
+            }
+        }
+        // The RMI runtime keeps the JVM alive otherwise
+        System.exit(0);
+    }
+
+    private static String measure(int receiverCount, boolean callbacks) throws IOException, InterruptedException {
+        RemoteServer server = new RemoteServer();
+        IRemoteServer serverStub = (IRemoteServer) RemoteObject.toStub(server);
+        Semaphore received = new Semaphore(0);
+        Receiver[] receivers = new Receiver[receiverCount];
+        for (int i = 0; i < receiverCount; i++) {
+            receivers[i] = new Receiver("receiver" + i, received, callbacks);
+            // Joined through the stub, so the server holds the receiver's stub and calls it over RMI
+            serverStub.join(receivers[i].name, (IRemoteClient) UnicastRemoteObject.exportObject(receivers[i], 0),
+                    false);
+        }
+        Receiver sender = new Receiver("sender", received, false);
+        int sessionId = serverStub.join(sender.name, (IRemoteClient) UnicastRemoteObject.exportObject(sender, 0),
+                true).getSessionId();
+
+        long[] latencies = new long[SEGMENTS];
+        SERVER_CALLS.set(0);
+        DELIVERIES.set(0);
+        CALLBACKS.set(0);
+        for (int i = 0; i < SEGMENTS; i++) {
+            Point start = new Point(100 + i % 1000, 100 + i / 1000 * 20);
+            Point end = new Point(start.x + 1, start.y + 1);
+            SyncData segment = new SyncData(Config.ERASER, Color.WHITE, start, end, sessionId, null, 0, 10);
+            LegacySegment legacy = null;
+            if (callbacks) {
+                legacy = new LegacySegment(segment);
+                Remote stub = UnicastRemoteObject.exportObject(legacy, 0);
+                for (Receiver receiver : receivers) {
+                    receiver.sender = (RemoteSegment) stub;
+                }
+            }
+            long begin = System.nanoTime();
+            serverStub.broadcastCanvas(segment);
+            SERVER_CALLS.incrementAndGet();
+            received.acquire(receiverCount);
+            latencies[i] = System.nanoTime() - begin;
+            if (legacy != null) {
+                UnicastRemoteObject.unexportObject(legacy, true);
+            }
+        }
+
+        UnicastRemoteObject.unexportObject(server, true);
+        UnicastRemoteObject.unexportObject(sender, true);
+        for (Receiver receiver : receivers) {
+            UnicastRemoteObject.unexportObject(receiver, true);
+        }
+
+        double roundTrips = (double) (SERVER_CALLS.get() + DELIVERIES.get() + CALLBACKS.get()) / SEGMENTS;
+        Arrays.sort(latencies);
+        return String.format("%-9d  %-10s  %19.1f  %9.1f  %6.1f", receiverCount,
+                callbacks ? "callbacks" : "by value", roundTrips, latencies[SEGMENTS / 2] / 1e3,
+                latencies[SEGMENTS * 99 / 100] / 1e3);
+    }
+
+    /**
+     * Fields of a segment the receivers read back from the sender, the ones the old presenter read for an
+     * eraser segment
+     */
+    public interface RemoteSegment extends Remote {
+        String getDrawingMode() throws RemoteException;
+
+        Color getColor() throws RemoteException;
+
+        Point getStartPosition() throws RemoteException;
+
+        Point getEndPosition() throws RemoteException;
+
+        float getEraserSize() throws RemoteException;
+    }
+
+    /**
+     * Sender's segment as a remote object, as operations were before they were passed by value
+     */
+    private static final class LegacySegment implements RemoteSegment {
+        private final SyncData segment;
+
+        LegacySegment(SyncData segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public String getDrawingMode() {
+            CALLBACKS.incrementAndGet();
+            return segment.getDrawingMode();
+        }
+
+        @Override
+        public Color getColor() {
+            CALLBACKS.incrementAndGet();
+            return segment.getColor();
+        }
+
+        @Override
+        public Point getStartPosition() {
+            CALLBACKS.incrementAndGet();
+            return segment.getStartPosition();
+        }
+
+        @Override
+        public Point getEndPosition() {
+            CALLBACKS.incrementAndGet();
+            return segment.getEndPosition();
+        }
+
+        @Override
+        public float getEraserSize() {
+            CALLBACKS.incrementAndGet();
+            return segment.getEraserSize();
+        }
+    }
+
+    /**
+     * Client that reads each segment it is sent and counts it as received
+     */
+    private static final class Receiver implements IRemoteClient {
+        private final String name;
+        private final Semaphore received;
+        private final boolean callbacks;
+        // Sender's segment being sent, read back field by field when measuring callbacks
+        private volatile RemoteSegment sender;
+
+        Receiver(String name, Semaphore received, boolean callbacks) {
+            this.name = name;
+            this.received = received;
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public String getUsername() {
+            return name;
+        }
+
+        @Override
+        public void syncCanvas(ISyncData data, long previousSequence) throws RemoteException {
+            DELIVERIES.incrementAndGet();
+            if (callbacks) {
+                RemoteSegment segment = sender;
+                segment.getDrawingMode();
+                segment.getColor();
+                segment.getStartPosition();
+                segment.getEndPosition();
+                segment.getEraserSize();
+            } else {
+                data.getDrawingMode();
+                data.getColor();
+                data.getStartPosition();
+                data.getEndPosition();
+                data.getEraserSize();
+            }
+            received.release();
+        }
+
+        @Override
+        public void syncMessage(String message) {
+        }
+
+        @Override
+        public void requestExit(String managerName) {
+        }
+
+        @Override
+        public void syncUserList(DefaultListModel<String> tempModel) {
+        }
+
+        @Override
+        public void resyncCanvas() {
+        }
+
+        @Override
+        public void requestCanvasClose() {
+        }
+    }
+}
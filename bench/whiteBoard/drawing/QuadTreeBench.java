@@ -0,0 +1,107 @@
+package whiteBoard.drawing;
+
+import impl.SyncData;
+import utils.Config;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Insert, delete and range query times of the scene's quadtree at 10k, 100k and 1M shapes, with a linear
+ * scan of the same shapes for comparison. Each size is run a few times, the first run warms up the JIT and
+ * is not reported. Run as a program, see the README.
+ */
+public class QuadTreeBench {
+    private static final int[] SIZES = {10_000, 100_000, 1_000_000};
+    private static final int RUNS = 3;
+    private static final int AREA = 4000;
+    private static final int SHAPE = 40;
+    private static final int REGION = 200;
+    private static final int QUERIES = 1000;
+    // The scan is slow at 1M shapes, so only some of the queries are repeated with it
+    private static final int SCANS = 100;
+
+    public static void main(String[] args) {
+        System.out.println("shapes     insert us  delete us  query us  scan us  hits/query");
+        for (int size : SIZES) {
+            List<SceneObject> shapes = shapes(size, new Random(size));
+            Rectangle[] regions = regions(new Random(-size));
+            for (int run = 0; run < RUNS; run++) {
+                String line = measure(shapes, regions);
+                if (run == RUNS - 1) {
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+
+    private static String measure(List<SceneObject> shapes, Rectangle[] regions) {
+        QuadTree tree = new QuadTree(new Rectangle(0, 0, AREA, AREA));
+        long start = System.nanoTime();
+        for (SceneObject shape : shapes) {
+            tree.insert(shape);
+        }
+        double insertMicros = (System.nanoTime() - start) / 1e3 / shapes.size();
+
+        int[] hits = new int[regions.length];
+        start = System.nanoTime();
+        for (int i = 0; i < regions.length; i++) {
+            int query = i;
+            tree.query(regions[i], shape -> hits[query]++);
+        }
+        double queryMicros = (System.nanoTime() - start) / 1e3 / regions.length;
+
+        start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            int scanned = 0;
+            for (SceneObject shape : shapes) {
+                if (shape.bounds().intersects(regions[i])) {
+                    scanned++;
+                }
+            }
+            if (scanned != hits[i]) {
+                throw new AssertionError("Quadtree found " + hits[i] + " shapes, a scan " + scanned);
+            }
+        }
+        double scanMicros = (System.nanoTime() - start) / 1e3 / SCANS;
+
+        start = System.nanoTime();
+        for (SceneObject shape : shapes) {
+            tree.remove(shape);
+        }
+        double deleteMicros = (System.nanoTime() - start) / 1e3 / shapes.size();
+        if (tree.size() != 0) {
+            throw new AssertionError(tree.size() + " shapes left after deleting them all");
+        }
+
+        return String.format("%-9d  %9.2f  %9.2f  %8.1f  %7.0f  %10.1f", shapes.size(), insertMicros,
+                deleteMicros, queryMicros, scanMicros, Arrays.stream(hits).average().orElse(0));
+    }
+
+    /**
+     * Random lines up to {@link #SHAPE} pixels across, spread over the area
+     */
+    private static List<SceneObject> shapes(int count, Random random) {
+        List<SceneObject> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(AREA - SHAPE);
+            int y = random.nextInt(AREA - SHAPE);
+            SyncData line = new SyncData(Config.LINE, Color.BLACK, new Point(x, y),
+                    new Point(x + random.nextInt(SHAPE), y + random.nextInt(SHAPE)), 1, null, 0, 0)
+                    .withEditId(i + 1);
+            shapes.add(new SceneObject(line, i));
+        }
+        return shapes;
+    }
+
+    private static Rectangle[] regions(Random random) {
+        Rectangle[] regions = new Rectangle[QUERIES];
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] = new Rectangle(random.nextInt(AREA - REGION), random.nextInt(AREA - REGION), REGION, REGION);
+        }
+        return regions;
+    }
+}
@@ -0,0 +1,114 @@
+package whiteBoard.drawing;
+
+import utils.Config;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Time to paint a window's worth of a large board at 50%, 25% and 10% zoom, from the mipmap pyramid and from
+ * the full-resolution tiles scaled down, and the time to take a join thumbnail. The window is painted at
+ * shifting positions, so tiles go in and out of the resident set as they do while scrolling.
+ * Run as a program, see the README.
+ */
+public class ZoomPaintBench {
+    private static final int STROKES = 4000;
+    private static final int VIEW_WIDTH = 590;
+    private static final int VIEW_HEIGHT = 465;
+    private static final int POSITIONS = 12;
+    private static final int RUNS = 3;
+    private static final int THUMBNAIL_SIZE = 256;
+
+    public static void main(String[] args) {
+        TiledRaster canvas = new TiledRaster(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.CANVAS_TILE_SIZE,
+                Config.CANVAS_RESIDENT_TILES);
+        Random random = new Random(1);
+        for (int i = 0; i < STROKES; i++) {
+            stroke(canvas, random);
+        }
+        BufferedImage view = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+        System.out.println("zoom   full-res ms   pyramid ms");
+        for (double zoom : Config.ZOOM_LEVELS) {
+            if (zoom >= 1) {
+                continue;
+            }
+            double fullRes = 0;
+            double pyramid = 0;
+            for (int run = 0; run < RUNS; run++) {
+                fullRes = paint(canvas, view, zoom, false);
+                pyramid = paint(canvas, view, zoom, true);
+            }
+            System.out.printf("%3.0f%%   %11.2f   %10.2f%n", zoom * 100, fullRes, pyramid);
+        }
+
+        double[] thumbnails = new double[RUNS];
+        double[] afterStroke = new double[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            canvas.getThumbnail(THUMBNAIL_SIZE);
+            thumbnails[run] = (System.nanoTime() - start) / 1e6;
+            stroke(canvas, random);
+            start = System.nanoTime();
+            canvas.getThumbnail(THUMBNAIL_SIZE);
+            afterStroke[run] = (System.nanoTime() - start) / 1e6;
+        }
+        System.out.printf("%d px thumbnail: %.2f ms with the pyramid current, %.2f ms after one stroke%n",
+                THUMBNAIL_SIZE, median(thumbnails), median(afterStroke));
+    }
+
+    /**
+     * Paint the window at each position
+     *
+     * @return Median time of one paint in milliseconds
+     */
+    private static double paint(TiledRaster canvas, BufferedImage view, double zoom, boolean pyramid) {
+        int areaWidth = (int) Math.ceil(VIEW_WIDTH / zoom);
+        int areaHeight = (int) Math.ceil(VIEW_HEIGHT / zoom);
+        double[] times = new double[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            // Step diagonally across the board
+            int x = (int) ((long) (canvas.getWidth() - areaWidth) * i / (POSITIONS - 1));
+            int y = (int) ((long) (canvas.getHeight() - areaHeight) * i / (POSITIONS - 1));
+            Rectangle area = new Rectangle(Math.max(0, x), Math.max(0, y), areaWidth, areaHeight);
+            Graphics2D g2d = view.createGraphics();
+            long start = System.nanoTime();
+            if (pyramid) {
+                // View coordinates, as the view paints
+                g2d.translate(-area.x * zoom, -area.y * zoom);
+                canvas.drawScaled(g2d, area, zoom);
+            } else {
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.scale(zoom, zoom);
+                g2d.translate(-area.x, -area.y);
+                canvas.drawTo(g2d, area);
+            }
+            times[i] = (System.nanoTime() - start) / 1e6;
+            g2d.dispose();
+        }
+        return median(times);
+    }
+
+    private static void stroke(TiledRaster canvas, Random random) {
+        int x = random.nextInt(canvas.getWidth());
+        int y = random.nextInt(canvas.getHeight());
+        int toX = x + random.nextInt(400) - 200;
+        int toY = y + random.nextInt(400) - 200;
+        Color color = new Color(random.nextInt(0xFFFFFF));
+        Rectangle bounds = new Rectangle(Math.min(x, toX) - 4, Math.min(y, toY) - 4,
+                Math.abs(toX - x) + 8, Math.abs(toY - y) + 8);
+        canvas.paint(bounds, g2d -> {
+            g2d.setColor(color);
+            g2d.setStroke(new BasicStroke(6));
+            g2d.drawLine(x, y, toX, toY);
+        });
+    }
+
+    private static double median(double[] times) {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
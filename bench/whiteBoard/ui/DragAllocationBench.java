@@ -0,0 +1,186 @@
+package whiteBoard.ui;
+
+import impl.RemoteServer;
+import impl.ServerChannel;
+import inter.IRemoteClient;
+import inter.ISyncData;
+import inter.JoinResult;
+import utils.Config;
+
+import javax.swing.*;
+import java.awt.event.MouseEvent;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bytes allocated per drag event on the event thread and the render thread while a scripted drag runs, for
+ * each drawing tool. The drag events are created up front and a first pass over them warms up the JIT, so
+ * only the steady-state drawing path is counted. What the JIT manages to keep off the heap in Java2D varies
+ * between passes, so the median pass is reported. Each tool runs in a JVM of its own, since a tool measured
+ * after another inherits the JIT's profile of it. The view is joined to an in-memory server in the same
+ * process, which runs on the sender thread and is not counted.
+ * Run as a program, see the README.
+ */
+public class DragAllocationBench {
+    private static final String[] TOOLS = {Config.LINE, Config.RECTANGLE, Config.DRAW, Config.ERASER};
+    private static final int EVENTS = 100_000;
+    // Passes over the drag after the one warming up, the median is reported
+    private static final int PASSES = 5;
+    // Pause every so many events, so the render thread keeps up as it does with a real mouse
+    private static final int EVENTS_PER_PAUSE = 50;
+
+    /**
+     * Measure every tool, each in a new JVM, or the one tool named
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            measure(args[0]);
+            System.exit(0);
+        }
+        System.out.println("tool        event thread B/event   render thread B/event");
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (String tool : TOOLS) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                    DragAllocationBench.class.getName(), tool));
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException("Measuring " + tool + " failed");
+            }
+        }
+    }
+
+    private static void measure(String tool) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RemoteServer server = new RemoteServer((Path) null);
+        JoinResult joined = server.join(tool, new IdleClient(), true);
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                measure(threads, server, joined, tool);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private static void measure(com.sun.management.ThreadMXBean threads, RemoteServer server, JoinResult joined,
+                                String tool) throws InterruptedException {
+        ToolBar toolBar = new ToolBar() {
+            @Override
+            public String getToolType() {
+                return tool;
+            }
+        };
+        ServerChannel outbound = new ServerChannel(server, Config.SEND_BATCH_MAX_OPERATIONS, 0, 1,
+                Config.SEND_QUEUE_CAPACITY, (operation, e) -> {
+                });
+        DrawPanelView view = new DrawPanelView(toolBar, server, outbound, true, tool);
+        view.setSize(1200, 800);
+        view.setSessionId(joined.getSessionId());
+        view.start(joined.getPreview());
+        long renderThread = renderThreadId();
+        // The join fetches the canvas tile by tile on the render thread
+        awaitIdle(threads, renderThread);
+
+        MouseEvent[] drag = new MouseEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            drag[i] = new MouseEvent(view, MouseEvent.MOUSE_DRAGGED, 0, 0, 100 + i % 800, 100 + i / 800 % 500, 0,
+                    false);
+        }
+        view.handleMousePressed(new MouseEvent(view, MouseEvent.MOUSE_PRESSED, 0, 0, 100, 100, 1, false));
+        for (MouseEvent event : drag) {
+            view.handleMouseDragged(event);
+        }
+        awaitIdle(threads, renderThread);
+
+        double[] eventBytes = new double[PASSES];
+        double[] renderBytes = new double[PASSES];
+        for (int pass = 0; pass < PASSES; pass++) {
+            long eventBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long renderBefore = threads.getThreadAllocatedBytes(renderThread);
+            for (int i = 0; i < EVENTS; i++) {
+                view.handleMouseDragged(drag[i]);
+                if (i % EVENTS_PER_PAUSE == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            long eventAfter = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            awaitIdle(threads, renderThread);
+            eventBytes[pass] = (double) (eventAfter - eventBefore) / EVENTS;
+            renderBytes[pass] = (double) (threads.getThreadAllocatedBytes(renderThread) - renderBefore) / EVENTS;
+        }
+        view.handleMouseReleased(new MouseEvent(view, MouseEvent.MOUSE_RELEASED, 0, 0, 100, 100, 1, false));
+
+        System.out.printf("%-10s  %22.1f  %22.1f%n", tool, median(eventBytes), median(renderBytes));
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Wait until a thread stops allocating, having run everything queued for it
+     */
+    private static void awaitIdle(com.sun.management.ThreadMXBean threads, long threadId)
+            throws InterruptedException {
+        long allocated = -1;
+        while (allocated != threads.getThreadAllocatedBytes(threadId)) {
+            allocated = threads.getThreadAllocatedBytes(threadId);
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Client of the other views, which ignores what the server sends it
+     */
+    private static final class IdleClient implements IRemoteClient {
+        @Override
+        public String getUsername() {
+            return "bench";
+        }
+
+        @Override
+        public void syncCanvas(ISyncData data, long previousSequence) {
+        }
+
+        @Override
+        public void syncMessage(String message) {
+        }
+
+        @Override
+        public void requestExit(String managerName) {
+        }
+
+        @Override
+        public void syncUserList(DefaultListModel<String> tempModel) {
+        }
+
+        @Override
+        public void resyncCanvas() {
+        }
+
+        @Override
+        public void requestCanvasClose() {
+        }
+    }
+
+    /**
+     * The view's render thread, found by the name {@link CanvasRenderer} gives it
+     */
+    private static long renderThreadId() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("canvas-renderer")) {
+                return thread.getId();
+            }
+        }
+        throw new IllegalStateException("The view has not started rendering");
+    }
+}
@@ -0,0 +1,81 @@
+package whiteBoard.ui;
+
+import utils.Config;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Calls to the server per second for a freehand drag with the stroke batcher, against one call per mouse
+ * event as before, at the mouse event rates common hardware delivers. Also reports how long a point waits
+ * in the batcher before its chunk is sent, the lag the batching adds for the other clients.
+ * Points are fed to the batcher on the event dispatch thread at a steady rate, as a mouse would.
+ * Run as a program, see the README.
+ */
+public class StrokeBatchBench {
+    private static final int[] EVENT_RATES = {125, 500, 1000};
+    private static final long DRAG_NANOS = 2_000_000_000L;
+    private static final int RUNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("events/s  calls/s before  calls/s batched  points/call  median wait ms  max wait ms");
+        for (int rate : EVENT_RATES) {
+            String line = null;
+            for (int run = 0; run < RUNS; run++) {
+                line = measure(rate);
+            }
+            System.out.println(line);
+        }
+        // The event dispatch thread keeps the JVM alive otherwise
+        System.exit(0);
+    }
+
+    private static String measure(int rate) throws Exception {
+        int events = (int) (DRAG_NANOS / 1_000_000_000L * rate);
+        // Time each point was added, and the time it was sent
+        long[] added = new long[events + 1];
+        long[] sent = new long[events + 1];
+        int[] calls = new int[1];
+        int[] nextUnsent = new int[1];
+        StrokeBatcher batcher = new StrokeBatcher(Config.STROKE_BATCH_MAX_POINTS, Config.STROKE_BATCH_INTERVAL_MS,
+                (xPoints, yPoints, nPoints) -> {
+                    calls[0]++;
+                    long now = System.nanoTime();
+                    // The first point of a chunk was already sent with the previous one
+                    for (int i = 0; i < nPoints - 1; i++) {
+                        sent[nextUnsent[0]++] = now;
+                    }
+                });
+
+        SwingUtilities.invokeAndWait(() -> {
+            batcher.begin(0, 0);
+            nextUnsent[0] = 1;
+        });
+        long interval = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        for (int i = 1; i <= events; i++) {
+            long due = start + i * interval;
+            while (System.nanoTime() < due) {
+                LockSupport.parkNanos(due - System.nanoTime());
+            }
+            int point = i;
+            SwingUtilities.invokeLater(() -> {
+                added[point] = System.nanoTime();
+                batcher.addPoint(point % 800, point / 800);
+            });
+        }
+        // Let the last chunk go out on its timer rather than on release, as it would mid-drag
+        Thread.sleep(Config.STROKE_BATCH_INTERVAL_MS * 4L);
+        SwingUtilities.invokeAndWait(batcher::end);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        double[] waits = new double[events];
+        for (int i = 1; i <= events; i++) {
+            waits[i - 1] = (sent[i] - added[i]) / 1e6;
+        }
+        Arrays.sort(waits);
+        return String.format("%8d  %14.0f  %15.0f  %11.1f  %14.1f  %11.1f", rate, events / seconds,
+                calls[0] / seconds, (double) events / calls[0], waits[events / 2], waits[events - 1]);
+    }
+}
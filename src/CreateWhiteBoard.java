@@ -6,7 +6,9 @@
 
 import impl.RemoteClient;
 import impl.RemoteServer;
+import utils.Config;
 
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.ExportException;
@@ -38,7 +40,8 @@ public class CreateWhiteBoard extends WhiteBoardBase {
      */
     private boolean startServer() {
         try {
-            server = new RemoteServer();
+            // Each port hosts its own board, restored from its journal after a crash
+            server = new RemoteServer(Paths.get(Config.JOURNAL_DIRECTORY, String.valueOf(serverPort)));
             Registry registry = LocateRegistry.createRegistry(serverPort);
             registry.bind(REGISTRY_NAME, server);
             System.out.println("RMI service ready");
@@ -59,13 +62,14 @@ public class CreateWhiteBoard extends WhiteBoardBase {
      */
     private void startManagerWhiteboard() {
         try {
-            client = new RemoteClient(username, true, server);
-            server.assignManagerName(username);
-            server.registerClient(client);
+            RemoteClient remoteClient = new RemoteClient(username, true, server);
+            client = remoteClient;
+            if (!remoteClient.join().isJoined()) {
+                showErrorMessage("Unable to open the whiteboard", "Warning");
+                return;
+            }
 
             System.out.println("Client connected to server");
-            client.triggerListRefresh();
-            client.notifySystemJoin();
             System.out.println("Manager whiteboard ready");
         } catch (Exception e) {
             System.err.println("Error: " + e);
@@ -5,6 +5,7 @@
  */
 
 import impl.RemoteClient;
+import inter.JoinResult;
 
 import javax.swing.*;
 import java.io.IOException;
@@ -35,22 +36,42 @@ public class JoinWhiteBoard extends WhiteBoardBase {
     }
 
     /**
-     * Check username and canvas status
+     * Join the board, the name check, the canvas status check and the registration happen in one call
      *
-     * @return Whether check passed
+     * @return Whether the client joined
      */
     private boolean checkUserAndCanvas() {
         try {
-            // Check if username already exists
-            if (server.hasUser(username)) {
-                showErrorMessage("Username already exists: " + username + "\nPlease try another name.", "Warning");
+            System.out.println("Waiting for manager authorization...");
+
+            int answer = JOptionPane.showConfirmDialog(null,
+                    username + " wants to share your whiteboard", "Share Request", JOptionPane.YES_NO_OPTION);
+            boolean result = (answer == JOptionPane.YES_OPTION);
+
+            if (!result) {
+                showErrorMessage("Access denied, please contact the manager", "Warning");
                 return false;
             }
 
-            // Check if manager has closed the canvas
-            while (server.isWhiteboardClosed()) {
+            RemoteClient remoteClient = new RemoteClient(username, false, server);
+            client = remoteClient;
+
+            while (true) {
+                JoinResult joinResult = remoteClient.join();
+                if (joinResult.isJoined()) {
+                    return true;
+                }
+
+                // Check if username already exists
+                if (joinResult.getStatus() == JoinResult.Status.NAME_TAKEN) {
+                    remoteClient.discard();
+                    showErrorMessage("Username already exists: " + username + "\nPlease try another name.", "Warning");
+                    return false;
+                }
+
+                // Manager has closed the canvas
                 Object[] options = {"Retry", "Close"};
-                int answer = JOptionPane.showOptionDialog(null,
+                answer = JOptionPane.showOptionDialog(null,
                         "Manager has not opened a new file yet.",
                         "From Manager",
                         JOptionPane.YES_NO_OPTION,
@@ -59,27 +80,10 @@ public class JoinWhiteBoard extends WhiteBoardBase {
                         options,
                         options[0]);
                 if (answer == JOptionPane.NO_OPTION) {
+                    remoteClient.discard();
                     return false;
                 }
             }
-
-            System.out.println("Waiting for manager authorization...");
-
-            int answer = JOptionPane.showConfirmDialog(null,
-                    username + " wants to share your whiteboard", "Share Request", JOptionPane.YES_NO_OPTION);
-            boolean result = (answer == JOptionPane.YES_OPTION);
-
-            if (!result) {
-                showErrorMessage("Access denied, please contact the manager", "Warning");
-                return false;
-            }
-
-
-            client = new RemoteClient(username, false, server);
-
-
-            server.registerClient(client);
-            return true;
         } catch (Exception e) {
             System.err.println("Error checking user and canvas status: " + e.getMessage());
             showErrorMessage("An error occurred", "Warning");
@@ -95,8 +99,6 @@ public class JoinWhiteBoard extends WhiteBoardBase {
             // Create whiteboard and open GUI
 
             System.out.println("Client connected to server");
-            client.triggerListRefresh();
-            client.notifySystemJoin();
             System.out.println("Whiteboard ready");
 
             // Used to catch user quit, user may normally close the app, or force quit the app
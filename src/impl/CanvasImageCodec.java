@@ -0,0 +1,143 @@
+package impl;
+
+import inter.CanvasTile;
+import whiteBoard.drawing.TiledRaster;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * Encoding of a whole canvas for snapshots and checkpoints. Only the tiles something was drawn on are
+ * written, each deflated, so the size follows the area drawn rather than the canvas size.
+ * <p>
+ * Layout: magic, canvas width, height and tile size as varints, then the tiles as in a patch.
+ * Decoding also accepts a PNG, which is how an opened image arrives.
+ */
+public final class CanvasImageCodec {
+    // "WBTC"
+    private static final int MAGIC = 0x57425443;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G'};
+
+    private CanvasImageCodec() {
+    }
+
+    /**
+     * Encode a canvas
+     *
+     * @param canvas Canvas, usually a copy taken under its owner's lock, its changed tiles are deflated here
+     * @return Encoded canvas
+     * @throws IOException If writing fails
+     */
+    public static byte[] encode(TiledRaster canvas) throws IOException {
+        List<CanvasTile> tiles = canvas.getTiles();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            SyncDataCodec.writeVarInt(out, canvas.getWidth());
+            SyncDataCodec.writeVarInt(out, canvas.getHeight());
+            SyncDataCodec.writeVarInt(out, canvas.getTileSize());
+            SyncDataCodec.writeTiles(out, tiles.toArray(new CanvasTile[0]));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replace a canvas's contents with an encoded canvas or a PNG drawn at the origin.
+     * Tiles on the canvas's grid stay deflated until they are used.
+     *
+     * @param data   Encoded canvas or PNG bytes
+     * @param canvas Canvas to replace
+     * @throws IOException If the data cannot be decoded
+     */
+    public static void decode(byte[] data, TiledRaster canvas) throws IOException {
+        if (isPng(data)) {
+            BufferedImage image = readPng(data);
+            canvas.clear();
+            canvas.paint(new Rectangle(0, 0, image.getWidth(), image.getHeight()),
+                    g2d -> g2d.drawImage(image, 0, 0, null));
+            return;
+        }
+        CanvasTile[] tiles = readTiles(data);
+        canvas.clear();
+        try {
+            for (CanvasTile tile : tiles) {
+                canvas.putTile(tile);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt canvas tile", e);
+        }
+    }
+
+    /**
+     * Decode only the part of an encoded canvas or PNG that covers a region
+     *
+     * @param data   Encoded canvas or PNG bytes
+     * @param region Area in canvas coordinates
+     * @return Image of the region, white where nothing was drawn
+     * @throws IOException If the data cannot be decoded
+     */
+    public static BufferedImage decodeRegion(byte[] data, Rectangle region) throws IOException {
+        BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setPaint(Color.WHITE);
+            g2d.fillRect(0, 0, region.width, region.height);
+            if (isPng(data)) {
+                g2d.drawImage(readPng(data), -region.x, -region.y, null);
+                return image;
+            }
+            for (CanvasTile tile : readTiles(data)) {
+                if (region.intersects(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight())) {
+                    g2d.drawImage(tile.toImage(), tile.getX() - region.x, tile.getY() - region.y, null);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt canvas tile", e);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    private static boolean isPng(byte[] data) {
+        if (data.length < PNG_SIGNATURE.length) {
+            return false;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (data[i] != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static BufferedImage readPng(byte[] data) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("Image cannot be decoded");
+        }
+        return image;
+    }
+
+    private static CanvasTile[] readTiles(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException("Not an encoded canvas: " + Integer.toHexString(magic));
+        }
+        // Canvas size and tile size, tiles carry their own position and size
+        SyncDataCodec.readVarInt(in);
+        SyncDataCodec.readVarInt(in);
+        SyncDataCodec.readVarInt(in);
+        return SyncDataCodec.readTiles(in);
+    }
+}
@@ -0,0 +1,256 @@
+package impl;
+
+import inter.CanvasSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes checkpoints of the server canvas in the background and compacts the operation log up to them.
+ * A checkpoint is due after a number of operations or a number of logged bytes since the last one.
+ * Joining clients load the newest checkpoint and then replay the log tail after it.
+ * <p>
+ * A few older checkpoints are retained, and the log is only compacted up to the oldest of them, so an
+ * undone edit's region can be rebuilt from a checkpoint taken before the edit. Retained checkpoints are
+ * encoded canvases, deflated tile by tile, and those that do not fit the memory budget besides the newest
+ * are moved to temporary files until they are dropped.
+ */
+class CanvasSnapshotter {
+    private static final Logger LOGGER = Logger.getLogger(CanvasSnapshotter.class.getName());
+
+    private final ServerCanvas canvas;
+    private final OperationLog operationLog;
+    private final OperationJournal journal;
+    private final int everyOperations;
+    private final long everyBytes;
+    private final int retainedCheckpoints;
+    private final long memoryBytes;
+    private final ExecutorService worker;
+
+    // Progress towards the next checkpoint, only touched by the publishing thread
+    private int operationsSinceCheckpoint;
+    private long bytesSinceCheckpoint;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile CanvasSnapshot latest;
+    // Retained checkpoints, newest first, guarded by this
+    private final Deque<Retained> retained = new ArrayDeque<>();
+
+    /**
+     * Retained checkpoint, held in memory or in a temporary file
+     */
+    private static final class Retained {
+        final long sequence;
+        byte[] imageData;
+        Path spillFile;
+
+        Retained(CanvasSnapshot snapshot) {
+            this.sequence = snapshot.getSequence();
+            this.imageData = snapshot.getImageData();
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param canvas          Server canvas
+     * @param operationLog    Log to compact
+     * @param journal         Journal to write checkpoints to, or null if the board is kept in memory only
+     * @param latest          Checkpoint the board was recovered from, or null
+     * @param everyOperations Number of operations after which a checkpoint is due
+     * @param everyBytes      Number of logged bytes after which a checkpoint is due
+     * @param retainedCheckpoints Number of checkpoints kept for rebuilding undone edits
+     * @param memoryBytes     Bytes of retained checkpoints besides the newest kept in memory
+     */
+    CanvasSnapshotter(ServerCanvas canvas, OperationLog operationLog, OperationJournal journal, CanvasSnapshot latest,
+                      int everyOperations, long everyBytes, int retainedCheckpoints, long memoryBytes) {
+        this.canvas = canvas;
+        this.operationLog = operationLog;
+        this.journal = journal;
+        this.latest = latest;
+        if (latest != null) {
+            retained.add(new Retained(latest));
+        }
+        this.everyOperations = everyOperations;
+        this.everyBytes = everyBytes;
+        this.retainedCheckpoints = Math.max(1, retainedCheckpoints);
+        this.memoryBytes = memoryBytes;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "canvas-snapshotter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Count a published operation and start a checkpoint in the background if one is due.
+     * Never waits, if a checkpoint is still being taken the next one starts after it finishes.
+     *
+     * @param bytes Bytes the operation added to the log
+     */
+    void onPublished(int bytes) {
+        operationsSinceCheckpoint++;
+        bytesSinceCheckpoint += bytes;
+        if (operationsSinceCheckpoint < everyOperations && bytesSinceCheckpoint < everyBytes) {
+            return;
+        }
+        if (running.compareAndSet(false, true)) {
+            operationsSinceCheckpoint = 0;
+            bytesSinceCheckpoint = 0;
+            worker.execute(this::checkpoint);
+        }
+    }
+
+    /**
+     * Encode the canvas, write it out and drop the operations it includes from the log
+     */
+    private void checkpoint() {
+        try {
+            CanvasSnapshot snapshot = canvas.getSnapshot();
+            CanvasSnapshot previous = latest;
+            if (snapshot == null || (previous != null && snapshot.getSequence() <= previous.getSequence())) {
+                return;
+            }
+            if (journal != null) {
+                journal.writeCheckpoint(snapshot);
+            }
+            retain(snapshot);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error taking canvas checkpoint", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Use an image the manager opened as a checkpoint, it is the whole canvas as of its load operation
+     *
+     * @param loaded Image with the sequence number of its load operation
+     */
+    void onLoaded(CanvasSnapshot loaded) {
+        retain(loaded);
+    }
+
+    private synchronized void retain(CanvasSnapshot snapshot) {
+        Retained newest = retained.peekFirst();
+        if (newest != null && snapshot.getSequence() <= newest.sequence) {
+            return;
+        }
+        retained.addFirst(new Retained(snapshot));
+        while (retained.size() > retainedCheckpoints) {
+            discard(retained.removeLast());
+        }
+        spillOverBudget();
+        // Publish the checkpoint before truncating, so a client that finds its tail gone reloads this one
+        latest = snapshot;
+        operationLog.truncate(retained.peekLast().sequence);
+    }
+
+    /**
+     * Move the oldest checkpoints held in memory to temporary files until the others besides the newest
+     * fit the budget. A checkpoint that cannot be written stays in memory.
+     */
+    private void spillOverBudget() {
+        long inMemory = 0;
+        Iterator<Retained> newestFirst = retained.iterator();
+        newestFirst.next();
+        while (newestFirst.hasNext()) {
+            Retained checkpoint = newestFirst.next();
+            if (checkpoint.imageData != null) {
+                inMemory += checkpoint.imageData.length;
+            }
+        }
+        Iterator<Retained> oldestFirst = retained.descendingIterator();
+        while (inMemory > memoryBytes && oldestFirst.hasNext()) {
+            Retained checkpoint = oldestFirst.next();
+            if (checkpoint == retained.peekFirst()) {
+                break;
+            }
+            if (checkpoint.imageData == null) {
+                continue;
+            }
+            try {
+                Path file = Files.createTempFile("whiteboard-checkpoint", ".canvas");
+                Files.write(file, checkpoint.imageData);
+                inMemory -= checkpoint.imageData.length;
+                checkpoint.spillFile = file;
+                checkpoint.imageData = null;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Cannot move checkpoint " + checkpoint.sequence + " out of memory", e);
+                return;
+            }
+        }
+    }
+
+    private static void discard(Retained checkpoint) {
+        if (checkpoint.spillFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(checkpoint.spillFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot delete " + checkpoint.spillFile, e);
+        }
+    }
+
+    /**
+     * Get the newest retained checkpoint taken before a sequence number, read back from its temporary
+     * file if it was moved out of memory
+     *
+     * @param sequence Sequence number the checkpoint has to be older than
+     * @return Checkpoint, or null if none is retained
+     * @throws IOException If a checkpoint moved out of memory cannot be read
+     */
+    synchronized CanvasSnapshot getRetainedBefore(long sequence) throws IOException {
+        for (Retained checkpoint : retained) {
+            if (checkpoint.sequence < sequence) {
+                byte[] imageData = checkpoint.spillFile != null ? Files.readAllBytes(checkpoint.spillFile)
+                        : checkpoint.imageData;
+                return new CanvasSnapshot(checkpoint.sequence, imageData);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Sequence number of the oldest retained checkpoint, 0 if none
+     */
+    synchronized long getOldestRetainedSequence() {
+        return retained.isEmpty() ? 0 : retained.peekLast().sequence;
+    }
+
+    /**
+     * @return Number of retained checkpoints held in temporary files
+     */
+    synchronized int getSpilledCount() {
+        return (int) retained.stream().filter(checkpoint -> checkpoint.spillFile != null).count();
+    }
+
+    /**
+     * @return Newest checkpoint, or null if none has been taken
+     */
+    CanvasSnapshot getLatest() {
+        return latest;
+    }
+
+    /**
+     * Stop taking checkpoints and delete the temporary files
+     */
+    void close() {
+        worker.shutdownNow();
+        synchronized (this) {
+            retained.forEach(CanvasSnapshotter::discard);
+            retained.clear();
+        }
+    }
+}
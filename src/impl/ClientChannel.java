@@ -0,0 +1,232 @@
+package impl;
+
+import inter.IRemoteClient;
+
+import java.awt.*;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Outbound queue for a single client. Calls are queued by the broadcasting thread and
+ * delivered in order by the channel's own sender thread, so a slow client only delays itself.
+ */
+class ClientChannel {
+    private static final Logger LOGGER = Logger.getLogger(ClientChannel.class.getName());
+
+    /**
+     * What to do when a call is queued while the channel is full
+     */
+    enum OverflowPolicy {
+        // Discard the oldest queued call to make room
+        DROP_OLDEST,
+        // Discard the call being queued
+        DROP_NEWEST,
+        // Treat the client as stuck and disconnect it
+        DISCONNECT
+    }
+
+    /**
+     * Remote call to run against the client
+     */
+    interface ClientCall {
+        void invoke(IRemoteClient client) throws IOException;
+    }
+
+    /**
+     * Callback for a channel that overflowed or stalled and should be dropped
+     */
+    interface FailureListener {
+        void onChannelFailure(ClientChannel channel, String reason);
+    }
+
+    private final String username;
+    private final int sessionId;
+    private final IRemoteClient client;
+    private final long callTimeoutNanos;
+    private final FailureListener failureListener;
+    private final ThreadPoolExecutor sender;
+
+    // Start time of the call in progress, or 0 when idle
+    private volatile long callStartedAt;
+    private volatile boolean failed;
+    // Sequence number of the last operation queued for this client, guarded by the server's publish lock
+    private long lastQueuedSequence;
+    // Canvas area the client shows, null until it registers one and then receives everything
+    private volatile Rectangle viewport;
+
+    /**
+     * Constructor
+     *
+     * @param username          Username of the client
+     * @param sessionId         Session id assigned to the client
+     * @param client            Remote client
+     * @param capacity          Maximum number of queued calls
+     * @param callTimeoutMillis Time a single call may take before the client is considered stuck
+     * @param overflowPolicy    Policy applied when the queue is full
+     * @param failureListener   Notified when the client should be disconnected
+     */
+    ClientChannel(String username, int sessionId, IRemoteClient client, int capacity, long callTimeoutMillis,
+                  OverflowPolicy overflowPolicy, FailureListener failureListener) {
+        this.username = username;
+        this.sessionId = sessionId;
+        this.client = client;
+        this.callTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(callTimeoutMillis);
+        this.failureListener = failureListener;
+        this.sender = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "client-sender-" + username);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                createOverflowHandler(overflowPolicy));
+    }
+
+    /**
+     * Map the overflow policy to an executor rejection handler
+     *
+     * @param overflowPolicy Overflow policy
+     * @return Rejection handler
+     */
+    private RejectedExecutionHandler createOverflowHandler(OverflowPolicy overflowPolicy) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                return new ThreadPoolExecutor.DiscardOldestPolicy();
+            case DROP_NEWEST:
+                return new ThreadPoolExecutor.DiscardPolicy();
+            case DISCONNECT:
+            default:
+                return (runnable, executor) -> {
+                    if (!executor.isShutdown()) {
+                        fail("outbound queue overflow");
+                    }
+                };
+        }
+    }
+
+    /**
+     * Queue a call for delivery, returns immediately
+     *
+     * @param call        Call to deliver
+     * @param description Description used when logging a failed call
+     */
+    void send(ClientCall call, String description) {
+        if (failed) {
+            return;
+        }
+        try {
+            sender.execute(() -> deliver(call, description));
+        } catch (RejectedExecutionException ignored) {
+            // Channel already closed
+        }
+    }
+
+    /**
+     * Run a call on the sender thread
+     */
+    private void deliver(ClientCall call, String description) {
+        if (failed) {
+            return;
+        }
+        callStartedAt = System.nanoTime();
+        try {
+            call.invoke(client);
+        } catch (RemoteException e) {
+            LOGGER.log(Level.SEVERE, description + ": " + username, e);
+            System.err.println(description + ": " + username + ": " + e.getMessage());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, description + ": " + username, e);
+        } finally {
+            callStartedAt = 0;
+        }
+    }
+
+    /**
+     * Check whether the call in progress has run past the timeout, and fail the channel if so
+     *
+     * @param now Current {@link System#nanoTime()}
+     */
+    void checkStalled(long now) {
+        long startedAt = callStartedAt;
+        if (startedAt != 0 && now - startedAt > callTimeoutNanos) {
+            fail("call timed out");
+        }
+    }
+
+    /**
+     * Mark the channel as failed and notify the listener once
+     */
+    private void fail(String reason) {
+        synchronized (this) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+        }
+        sender.shutdownNow();
+        failureListener.onChannelFailure(this, reason);
+    }
+
+    /**
+     * Stop accepting calls, calls already queued are still delivered
+     */
+    void close() {
+        sender.shutdown();
+    }
+
+    /**
+     * Wait for queued calls to be delivered after {@link #close()}, discarding them on timeout
+     *
+     * @param waitMillis Maximum time to wait
+     */
+    void awaitClosed(long waitMillis) {
+        try {
+            if (!sender.awaitTermination(Math.max(0, waitMillis), TimeUnit.MILLISECONDS)) {
+                sender.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            sender.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    int getSessionId() {
+        return sessionId;
+    }
+
+    IRemoteClient getClient() {
+        return client;
+    }
+
+    long getLastQueuedSequence() {
+        return lastQueuedSequence;
+    }
+
+    void setLastQueuedSequence(long lastQueuedSequence) {
+        this.lastQueuedSequence = lastQueuedSequence;
+    }
+
+    void setViewport(Rectangle viewport) {
+        this.viewport = viewport;
+    }
+
+    /**
+     * @param bounds Area an operation touches, or null for operations that affect the whole board
+     * @return Whether the client should receive the operation live
+     */
+    boolean isInterestedIn(Rectangle bounds) {
+        Rectangle current = viewport;
+        return current == null || bounds == null || current.intersects(bounds);
+    }
+}
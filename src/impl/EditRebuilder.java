@@ -0,0 +1,644 @@
+package impl;
+
+import inter.CanvasSnapshot;
+import inter.CanvasTile;
+import utils.Config;
+import whiteBoard.drawing.SceneObject;
+import whiteBoard.drawing.SyncDataRenderer;
+import whiteBoard.drawing.TiledRaster;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Undoes and redoes edits on the server by rebuilding the tiles an edit touched from the operation history.
+ * <p>
+ * Clients tag the operations of one user action with an edit id and later send an undo or redo marker
+ * naming it. An edit is identified by its author's session id and its edit id, so a user can only undo
+ * their own edits, regardless of what others drew since. The re-sync tiles the edit's operations touched
+ * are redrawn one at a time on a worker, each from the newest retained checkpoint taken before the edit,
+ * replaying only the surviving operations that touch the tile, and the tiles are published as a patch
+ * every client applies.
+ * <p>
+ * An object erase is an edit of its own that removes other edits, of any author, while it is in effect.
+ * Undoing it brings them back. An erase naming a shape that is not tracked, because it is older than the
+ * retained checkpoints, is refused as a whole, since that shape cannot be rebuilt away.
+ * <p>
+ * Edits older than the retained checkpoints, or drawn before the manager opened an image, cannot be undone.
+ * An edit is forgotten once every retained checkpoint holds its last operation and the patch of its last
+ * undo, redo or erase, and no object erase still known names it.
+ */
+class EditRebuilder {
+    private static final Logger LOGGER = Logger.getLogger(EditRebuilder.class.getName());
+    // Tiles of the base kept inflated while rebuilding, the base is read one canvas tile at a time
+    private static final int BASE_RESIDENT_TILES = 1;
+
+    /**
+     * Publishes the rebuilt tiles, called while holding the publish lock
+     */
+    interface PatchPublisher {
+        void publish(SyncData patch) throws IOException;
+    }
+
+    /**
+     * What is known about one edit, guarded by the rebuilder
+     */
+    private static final class EditState {
+        final long firstSequence;
+        // Re-sync tiles the edit's operations touched
+        final BitSet tiles;
+        boolean removed;
+        // Number of object erases in effect that removed the edit
+        int erasedBy;
+        // Whether the edit was ever undone or erased, from then on checkpoints may hold either state of it
+        boolean toggled;
+        // Edits an object erase removes, null for a drawing edit
+        long[] erases;
+        // Number of known object erases that name the edit
+        int erasedByKnown;
+        // Sequence number of the edit's last operation, or of a patch published after its last toggle
+        long lastSequence;
+        // Rebuilds scheduled for a toggle of the edit and not finished yet
+        int pendingRebuilds;
+
+        EditState(long firstSequence, BitSet tiles) {
+            this.firstSequence = firstSequence;
+            this.lastSequence = firstSequence;
+            this.tiles = tiles;
+        }
+
+        boolean isRemoved() {
+            return removed || erasedBy > 0;
+        }
+    }
+
+    /**
+     * Edits and removed edits as of one moment, for a rebuild to work from without holding the lock
+     */
+    private static final class Plan {
+        final BitSet tiles;
+        // Smallest area covering the tiles
+        final Rectangle region;
+        final long lowerBound;
+        final Set<Long> removed;
+        final int version;
+
+        Plan(BitSet tiles, Rectangle region, long lowerBound, Set<Long> removed, int version) {
+            this.tiles = tiles;
+            this.region = region;
+            this.lowerBound = lowerBound;
+            this.removed = removed;
+            this.version = version;
+        }
+    }
+
+    private final OperationLog operationLog;
+    private final CanvasSnapshotter snapshotter;
+    private final Object publishLock;
+    private final PatchPublisher publisher;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final ExecutorService workers;
+
+    private final Map<Long, EditState> edits = new HashMap<>();
+    // Changes whenever an edit is undone or redone, a rebuild planned before the change is redone
+    private int removedVersion;
+    // Oldest retained checkpoint as of the last prune
+    private long prunedThrough;
+
+    /**
+     * Constructor
+     *
+     * @param operationLog Log holding the operations after the oldest retained checkpoint
+     * @param snapshotter  Snapshotter retaining the checkpoints to rebuild from
+     * @param publishLock  Lock held while operations are sequenced
+     * @param publisher    Publishes rebuilt tiles
+     * @param width        Canvas width
+     * @param height       Canvas height
+     * @param tileSize     Edge length of the tiles patches are made of
+     * @param threads      Number of rebuild workers
+     */
+    EditRebuilder(OperationLog operationLog, CanvasSnapshotter snapshotter, Object publishLock,
+                  PatchPublisher publisher, int width, int height, int tileSize, int threads) {
+        this.operationLog = operationLog;
+        this.snapshotter = snapshotter;
+        this.publishLock = publishLock;
+        this.publisher = publisher;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "edit-rebuilder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Record a sequenced operation, called in sequence order while holding the publish lock
+     *
+     * @param sequenced Sequenced operation
+     * @return Whether the operation undoes, redoes or erases edits, which then needs a rebuild
+     */
+    synchronized boolean track(SyncData sequenced) {
+        prune();
+        if (Config.LOAD.equals(sequenced.getDrawingMode())) {
+            // Nothing drawn before a load can be rebuilt, it is all replaced
+            edits.clear();
+            removedVersion++;
+            return false;
+        }
+        int editId = sequenced.getEditId();
+        if (editId == 0) {
+            return false;
+        }
+        long key = SceneObject.idOf(sequenced.getSessionId(), editId);
+        String drawingMode = sequenced.getDrawingMode();
+        EditState edit = edits.get(key);
+        if (Config.UNDO.equals(drawingMode) || Config.REDO.equals(drawingMode)) {
+            boolean remove = Config.UNDO.equals(drawingMode);
+            if (edit == null || edit.removed == remove) {
+                return false;
+            }
+            edit.removed = remove;
+            edit.toggled = true;
+            markToggled(edit, sequenced.getSequence());
+            if (edit.erases != null) {
+                // Undoing an object erase brings back what it erased
+                for (long erased : edit.erases) {
+                    EditState target = edits.get(erased);
+                    target.erasedBy += remove ? -1 : 1;
+                    markToggled(target, sequenced.getSequence());
+                }
+            }
+            removedVersion++;
+            return true;
+        }
+        if (Config.DELETE.equals(drawingMode)) {
+            return trackErase(key, sequenced);
+        }
+
+        if (edit == null) {
+            edit = new EditState(sequenced.getSequence(), new BitSet());
+            edits.put(key, edit);
+        } else {
+            edit.lastSequence = sequenced.getSequence();
+        }
+        markTiles(edit.tiles, SyncDataRenderer.bounds(sequenced));
+        return false;
+    }
+
+    /**
+     * Keep an edit until the patch rebuilt for its toggle is published
+     */
+    private static void markToggled(EditState edit, long sequence) {
+        edit.lastSequence = sequence;
+        edit.pendingRebuilds++;
+    }
+
+    /**
+     * Record that the rebuild scheduled for a toggle finished, published or given up
+     *
+     * @param key Edit that was toggled
+     */
+    private synchronized void settle(long key) {
+        EditState edit = edits.get(key);
+        if (edit == null) {
+            return;
+        }
+        // Published before this, so a checkpoint at or after it holds the rebuilt pixels
+        long published = operationLog.getLastSequence();
+        edit.pendingRebuilds--;
+        edit.lastSequence = Math.max(edit.lastSequence, published);
+        if (edit.erases != null) {
+            for (long erased : edit.erases) {
+                EditState target = edits.get(erased);
+                target.pendingRebuilds--;
+                target.lastSequence = Math.max(target.lastSequence, published);
+            }
+        }
+    }
+
+    /**
+     * Check an undo or redo marker before it is sequenced, called while holding the publish lock
+     *
+     * @param marker Undo or redo marker, not sequenced yet
+     * @return Whether the edit is tracked, not already undone or redone, and its tiles can be rebuilt from
+     * a retained checkpoint
+     */
+    synchronized boolean canToggle(SyncData marker) {
+        prune();
+        if (marker.getEditId() == 0) {
+            return false;
+        }
+        EditState edit = edits.get(SceneObject.idOf(marker.getSessionId(), marker.getEditId()));
+        if (edit == null || edit.removed == Config.UNDO.equals(marker.getDrawingMode())) {
+            return false;
+        }
+        long oldest = snapshotter.getOldestRetainedSequence();
+        return oldest != 0 && oldest < lowerBound(edit) || operationLog.getFirstSequence() == 1;
+    }
+
+    /**
+     * Check an object erase before it is sequenced, called while holding the publish lock
+     *
+     * @param erase Object erase, not sequenced yet
+     * @return Whether every shape it names is a tracked drawing edit, so the erase can be rebuilt
+     */
+    synchronized boolean canErase(SyncData erase) {
+        if (erase.getEditId() == 0 || edits.containsKey(SceneObject.idOf(erase.getSessionId(), erase.getEditId()))) {
+            return false;
+        }
+        for (long objectId : erase.getObjectIds()) {
+            EditState target = edits.get(objectId);
+            if (target == null || target.erases != null) {
+                return false;
+            }
+        }
+        return erase.getObjectIds().length > 0;
+    }
+
+    /**
+     * Record an object erase as an edit covering the edits it removes
+     */
+    private boolean trackErase(long key, SyncData erase) {
+        if (edits.containsKey(key)) {
+            return false;
+        }
+        BitSet tiles = new BitSet();
+        List<Long> erased = new ArrayList<>();
+        for (long objectId : erase.getObjectIds()) {
+            EditState target = edits.get(objectId);
+            // Checked by canErase, only a shape named twice is skipped here
+            if (target == null || target.erases != null || erased.contains(objectId)) {
+                continue;
+            }
+            target.erasedBy++;
+            target.erasedByKnown++;
+            target.toggled = true;
+            markToggled(target, erase.getSequence());
+            erased.add(objectId);
+            tiles.or(target.tiles);
+        }
+        if (erased.isEmpty()) {
+            return false;
+        }
+        EditState edit = new EditState(erase.getSequence(), tiles);
+        edit.erases = erased.stream().mapToLong(Long::longValue).toArray();
+        edit.pendingRebuilds = 1;
+        edits.put(key, edit);
+        removedVersion++;
+        return true;
+    }
+
+    /**
+     * Rebuild the tiles of an undone, redone or erasing edit in the background
+     *
+     * @param marker Sequenced undo or redo marker, or object erase
+     */
+    void schedule(SyncData marker) {
+        long key = SceneObject.idOf(marker.getSessionId(), marker.getEditId());
+        workers.execute(() -> rebuild(key));
+    }
+
+    private void rebuild(long key) {
+        try {
+            if (!tryRebuild(key)) {
+                // Another edit was undone or redone meanwhile, or the log moved on, plan again
+                workers.execute(() -> rebuild(key));
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error rebuilding edit " + (int) key + " of session " + (key >>> 32), e);
+        }
+        settle(key);
+    }
+
+    /**
+     * Rebuild and publish the tiles of an edit, or give up if they cannot be rebuilt.
+     * The canvas tiles holding them are redrawn one at a time into a scratch image of one canvas tile,
+     * whatever the size of the edit.
+     *
+     * @return False if the plan went out of date and the rebuild has to start over
+     */
+    private boolean tryRebuild(long key) throws IOException {
+        Plan plan = plan(key);
+        if (plan == null) {
+            return true;
+        }
+        CanvasSnapshot base = chooseBase(plan.lowerBound);
+        List<SyncData> operations = base != null ? operationLog.since(base.getSequence()) : null;
+        if (operations == null) {
+            LOGGER.warning("Cannot undo edit " + (int) key + " of session " + (key >>> 32)
+                    + ", it is older than the retained checkpoints");
+            return true;
+        }
+        List<SyncData> redrawn = select(operations, plan);
+        if (redrawn == null) {
+            return true;
+        }
+        long replayed = operations.isEmpty() ? base.getSequence()
+                : operations.get(operations.size() - 1).getSequence();
+
+        TiledRaster baseCanvas = decodeBase(base);
+        // Touched tiles grouped by the canvas tile holding them, each group is redrawn as the server's
+        // canvas draws it, one canvas tile at a time
+        long[] keys = byCanvasTile(plan.tiles);
+        CanvasTile[] tiles = new CanvasTile[keys.length];
+        BufferedImage scratch = new BufferedImage(Config.CANVAS_TILE_SIZE, Config.CANVAS_TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[Config.CANVAS_TILE_SIZE * Config.CANVAS_TILE_SIZE];
+        Graphics2D g2d = scratch.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            for (int first = 0, end; first < keys.length; first = end) {
+                end = groupEnd(keys, first);
+                Rectangle area = canvasTileArea((int) (keys[first] >>> 32));
+                baseCanvas.getRGB(area.x, area.y, area.width, area.height, pixels);
+                scratch.setRGB(0, 0, area.width, area.height, pixels, 0, area.width);
+                redraw(g2d, redrawn, area);
+                for (int i = first; i < end; i++) {
+                    tiles[i] = CanvasTile.capture(scratch, area.x, area.y, width, height, (int) keys[i], tileSize);
+                }
+            }
+
+            synchronized (publishLock) {
+                synchronized (this) {
+                    if (removedVersion != plan.version) {
+                        return false;
+                    }
+                }
+                // Catch up with what was published while replaying, nothing new is sequenced meanwhile
+                List<SyncData> tail = operationLog.since(replayed);
+                if (tail == null) {
+                    return false;
+                }
+                List<SyncData> redrawnTail = select(tail, plan);
+                if (redrawnTail == null) {
+                    return true;
+                }
+                for (int first = 0, end; first < keys.length && !redrawnTail.isEmpty(); first = end) {
+                    end = groupEnd(keys, first);
+                    Rectangle area = canvasTileArea((int) (keys[first] >>> 32));
+                    if (!touches(redrawnTail, area)) {
+                        continue;
+                    }
+                    // Drawing reads no pixel but the one it draws, so only the rebuilt tiles need restoring
+                    for (int i = first; i < end; i++) {
+                        CanvasTile tile = tiles[i];
+                        scratch.setRGB(tile.getX() - area.x, tile.getY() - area.y, tile.getWidth(), tile.getHeight(),
+                                tile.toRGB(), 0, tile.getWidth());
+                    }
+                    redraw(g2d, redrawnTail, area);
+                    for (int i = first; i < end; i++) {
+                        tiles[i] = CanvasTile.capture(scratch, area.x, area.y, width, height, (int) keys[i], tileSize);
+                    }
+                }
+                publisher.publish(new SyncData(tiles, RemoteServer.SERVER_SESSION_ID));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Rebuilt tile cannot be read back", e);
+        } finally {
+            g2d.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * Work out the tiles to rebuild and how far back the rebuild has to start
+     *
+     * @return Plan, or null if there is nothing to rebuild
+     */
+    private synchronized Plan plan(long key) {
+        EditState target = edits.get(key);
+        if (target == null || target.tiles.isEmpty()) {
+            return null;
+        }
+        BitSet tiles = (BitSet) target.tiles.clone();
+        Rectangle region = null;
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            if (region == null) {
+                region = tileArea(index);
+            } else {
+                region.add(tileArea(index));
+            }
+        }
+
+        Set<Long> removed = new HashSet<>();
+        for (Map.Entry<Long, EditState> entry : edits.entrySet()) {
+            if (entry.getValue().isRemoved()) {
+                removed.add(entry.getKey());
+            }
+        }
+        return new Plan(tiles, region, lowerBound(target), removed, removedVersion);
+    }
+
+    /**
+     * The base must not include any edit on the tiles whose state may differ from how it was drawn
+     *
+     * @return Sequence number the base of a rebuild of the edit has to be older than
+     */
+    private long lowerBound(EditState target) {
+        long lowerBound = target.firstSequence;
+        for (EditState edit : edits.values()) {
+            if (edit.toggled && edit.tiles.intersects(target.tiles)) {
+                lowerBound = Math.min(lowerBound, edit.firstSequence);
+            }
+        }
+        return lowerBound;
+    }
+
+    /**
+     * Forget the edits every retained checkpoint holds in their final state, once the oldest retained
+     * checkpoint moved on. They cannot be undone any more, and a rebuild never starts from before them.
+     * Object erases go first, so the edits they name are forgotten in the same pass.
+     */
+    private void prune() {
+        long oldest = snapshotter.getOldestRetainedSequence();
+        if (oldest <= prunedThrough) {
+            return;
+        }
+        prunedThrough = oldest;
+        edits.values().removeIf(edit -> {
+            if (edit.erases == null || !isSettled(edit, oldest)) {
+                return false;
+            }
+            for (long erased : edit.erases) {
+                edits.get(erased).erasedByKnown--;
+            }
+            return true;
+        });
+        edits.values().removeIf(edit -> edit.erasedByKnown == 0 && isSettled(edit, oldest));
+    }
+
+    private static boolean isSettled(EditState edit, long oldest) {
+        return edit.pendingRebuilds == 0 && edit.lastSequence <= oldest;
+    }
+
+    /**
+     * @param lowerBound Sequence number the base has to be older than
+     * @return Newest retained checkpoint before the bound, a blank canvas at sequence 0 if the log still
+     * starts from the beginning, or null if there is none
+     * @throws IOException If the checkpoint was moved out of memory and cannot be read back
+     */
+    private CanvasSnapshot chooseBase(long lowerBound) throws IOException {
+        CanvasSnapshot checkpoint = snapshotter.getRetainedBefore(lowerBound);
+        if (checkpoint != null) {
+            return checkpoint;
+        }
+        return operationLog.getFirstSequence() == 1 ? new CanvasSnapshot(0, null) : null;
+    }
+
+    /**
+     * Read the base into a canvas that keeps its tiles deflated until a rebuilt tile reads them
+     */
+    private TiledRaster decodeBase(CanvasSnapshot base) throws IOException {
+        TiledRaster canvas = new TiledRaster(width, height, Config.CANVAS_TILE_SIZE, BASE_RESIDENT_TILES);
+        if (base.getImageData() != null) {
+            CanvasImageCodec.decode(base.getImageData(), canvas);
+        }
+        return canvas;
+    }
+
+    /**
+     * Key each tile by the canvas tile holding it, so sorted keys group a canvas tile's tiles together
+     *
+     * @return Sorted keys, the canvas tile index in the high half and the tile index in the low half
+     */
+    private long[] byCanvasTile(BitSet tiles) {
+        int columns = CanvasTile.columns(width, tileSize);
+        int canvasColumns = CanvasTile.columns(width, Config.CANVAS_TILE_SIZE);
+        long[] keys = new long[tiles.cardinality()];
+        int count = 0;
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            int canvasIndex = index / columns * tileSize / Config.CANVAS_TILE_SIZE * canvasColumns
+                    + index % columns * tileSize / Config.CANVAS_TILE_SIZE;
+            keys[count++] = (long) canvasIndex << 32 | index;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static int groupEnd(long[] keys, int first) {
+        int end = first + 1;
+        while (end < keys.length && keys[end] >>> 32 == keys[first] >>> 32) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Pick the surviving operations that touch the tiles
+     *
+     * @return Operations to redraw, or null if an image was loaded over the tiles and they cannot be rebuilt
+     */
+    private List<SyncData> select(List<SyncData> operations, Plan plan) {
+        List<SyncData> selected = new ArrayList<>();
+        for (SyncData operation : operations) {
+            String drawingMode = operation.getDrawingMode();
+            if (Config.LOAD.equals(drawingMode)) {
+                LOGGER.warning("Cannot undo an edit made before the canvas was loaded at " + operation.getSequence());
+                return null;
+            }
+            if (Config.CLEAR.equals(drawingMode)) {
+                selected.add(operation);
+                continue;
+            }
+            // Patches are earlier rebuilds, the operations they were made from are replayed instead, and
+            // markers and object erases draw nothing
+            if (Config.PATCH.equals(drawingMode) || Config.UNDO.equals(drawingMode) || Config.REDO.equals(drawingMode)
+                    || Config.DELETE.equals(drawingMode) || operation.getEditId() != 0
+                    && plan.removed.contains(SceneObject.idOf(operation.getSessionId(), operation.getEditId()))) {
+                continue;
+            }
+            if (SyncDataRenderer.bounds(operation).intersects(plan.region)) {
+                selected.add(operation);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Draw the operations that touch one canvas tile into the scratch image holding it
+     *
+     * @param g2d  Graphics of the scratch image
+     * @param area Canvas tile area in canvas coordinates
+     */
+    private static void redraw(Graphics2D g2d, List<SyncData> operations, Rectangle area) {
+        g2d.setTransform(AffineTransform.getTranslateInstance(-area.x, -area.y));
+        for (SyncData operation : operations) {
+            if (Config.CLEAR.equals(operation.getDrawingMode())) {
+                g2d.setPaint(Color.WHITE);
+                g2d.fill(area);
+            } else if (SyncDataRenderer.bounds(operation).intersects(area)) {
+                SyncDataRenderer.render(g2d, operation);
+            }
+        }
+    }
+
+    private static boolean touches(List<SyncData> operations, Rectangle area) {
+        for (SyncData operation : operations) {
+            if (Config.CLEAR.equals(operation.getDrawingMode()) || SyncDataRenderer.bounds(operation).intersects(area)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the tiles an area touches, clipped to the canvas
+     */
+    private void markTiles(BitSet tiles, Rectangle area) {
+        Rectangle clipped = area.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            return;
+        }
+        int columns = CanvasTile.columns(width, tileSize);
+        for (int row = clipped.y / tileSize; row * tileSize < clipped.y + clipped.height; row++) {
+            for (int column = clipped.x / tileSize; column * tileSize < clipped.x + clipped.width; column++) {
+                tiles.set(row * columns + column);
+            }
+        }
+    }
+
+    private Rectangle tileArea(int index) {
+        return area(index, tileSize);
+    }
+
+    private Rectangle canvasTileArea(int index) {
+        return area(index, Config.CANVAS_TILE_SIZE);
+    }
+
+    private Rectangle area(int index, int size) {
+        int columns = CanvasTile.columns(width, size);
+        int x = index % columns * size;
+        int y = index / columns * size;
+        return new Rectangle(x, y, Math.min(size, width - x), Math.min(size, height - y));
+    }
+
+    /**
+     * Stop the workers, rebuilds not yet published are dropped
+     */
+    void close() {
+        workers.shutdownNow();
+    }
+}
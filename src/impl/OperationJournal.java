@@ -0,0 +1,448 @@
+package impl;
+
+import inter.CanvasSnapshot;
+import utils.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk journal of sequenced operations, so a board survives a crash of the process hosting the server.
+ * <p>
+ * Records are written into pre-allocated, memory-mapped segment files named after the sequence number
+ * of their first record. Each record is its payload length (4 bytes), the CRC32 of the payload (4 bytes)
+ * and the payload: the operation as written by {@link SyncDataCodec}, followed by the image bytes of a load.
+ * A zero length marks the end of a segment's records.
+ * <p>
+ * A checkpoint file holds the encoded canvas as of a sequence number, followed by its length (4 bytes) and
+ * CRC32 (4 bytes). It is flushed to the device, together with the directory entry it is moved into place
+ * under, before anything is deleted. The previous checkpoint is kept, with the segments after it, so a
+ * checkpoint that turns out unreadable falls back to the one before it. Older checkpoints and the segments
+ * they cover are deleted, and recovery starts from the newest readable checkpoint instead of the first operation.
+ * <p>
+ * Written records survive a crash of the process as soon as they are appended, since they sit in the
+ * operating system's page cache. They are flushed to the device in batches every sync interval,
+ * so a power loss can lose at most that interval. Recovery stops at the first torn or corrupt record
+ * and discards everything after it.
+ */
+class OperationJournal implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(OperationJournal.class.getName());
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+    // Checkpoints written before they carried a checksum, read as they are: encoded canvases, and PNG from
+    // before the canvas was tiled
+    private static final String[] LEGACY_CHECKPOINT_SUFFIXES = {".canvas", ".png"};
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int CHECKPOINT_TRAILER_BYTES = 8;
+    // Checkpoints kept on disk, the newest and the one to fall back to
+    private static final int RETAINED_CHECKPOINTS = 2;
+
+    /**
+     * Receives the operations read back during recovery
+     */
+    interface RecoveryListener {
+        void onRecovered(SyncData operation, byte[] imageData) throws IOException;
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ScheduledExecutorService syncer;
+
+    // Segment being appended to, null until recovery has run
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private boolean dirty;
+    private boolean closed;
+
+    /**
+     * Constructor, {@link #recover(long, RecoveryListener)} must be called before appending
+     *
+     * @param directory          Directory holding the board's segment files, created if missing
+     * @param segmentBytes       Size segment files are pre-allocated to
+     * @param syncIntervalMillis Interval between flushes of appended records to the device
+     * @throws IOException If the directory cannot be created
+     */
+    OperationJournal(Path directory, int segmentBytes, long syncIntervalMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read the newest intact checkpoint, falling back to an older one if a newer one is torn or corrupt
+     *
+     * @return Checkpoint, or null if none has been written or none is intact
+     * @throws IOException If the directory cannot be read
+     */
+    synchronized CanvasSnapshot readCheckpoint() throws IOException {
+        List<Path> checkpoints = listCheckpoints();
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            Path path = checkpoints.get(i);
+            byte[] data;
+            try {
+                data = Files.readAllBytes(path);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Skipping unreadable checkpoint " + path.getFileName(), e);
+                continue;
+            }
+            if (path.getFileName().toString().endsWith(CHECKPOINT_SUFFIX)) {
+                data = checkedPayload(data);
+                if (data == null) {
+                    LOGGER.warning("Skipping torn or corrupt checkpoint " + path.getFileName());
+                    continue;
+                }
+            }
+            return new CanvasSnapshot(sequenceOf(path), data);
+        }
+        return null;
+    }
+
+    /**
+     * Strip and verify a checkpoint's length and checksum
+     *
+     * @return Encoded canvas, or null if the trailer does not match
+     */
+    private static byte[] checkedPayload(byte[] data) {
+        if (data.length < CHECKPOINT_TRAILER_BYTES) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(data, data.length - CHECKPOINT_TRAILER_BYTES, CHECKPOINT_TRAILER_BYTES);
+        int length = trailer.getInt();
+        int checksum = trailer.getInt();
+        if (length != data.length - CHECKPOINT_TRAILER_BYTES) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue() == checksum ? Arrays.copyOf(data, length) : null;
+    }
+
+    /**
+     * Write a checkpoint, then delete the checkpoints before the previous one and every segment whose
+     * records the previous one covers. Called from the snapshotter thread, the file is written without
+     * holding the journal's lock.
+     *
+     * @param checkpoint Encoded canvas and the sequence number of the last operation it includes
+     * @throws IOException If the checkpoint cannot be written
+     */
+    void writeCheckpoint(CanvasSnapshot checkpoint) throws IOException {
+        // Written under a temporary name and moved into place, the data and the move are both on the device
+        // before anything the checkpoint replaces is deleted
+        Path target = directory.resolve(String.format("%020d%s", checkpoint.getSequence(), CHECKPOINT_SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        byte[] data = checkpoint.getImageData();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer trailer = ByteBuffer.allocate(CHECKPOINT_TRAILER_BYTES);
+        trailer.putInt(data.length).putInt((int) crc.getValue()).flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer payload = ByteBuffer.wrap(data);
+            while (payload.hasRemaining()) {
+                channel.write(payload);
+            }
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            List<Path> checkpoints = listCheckpoints();
+            if (checkpoints.size() < RETAINED_CHECKPOINTS) {
+                return;
+            }
+            int oldestRetained = checkpoints.size() - RETAINED_CHECKPOINTS;
+            for (Path older : checkpoints.subList(0, oldestRetained)) {
+                Files.delete(older);
+            }
+            // A segment is covered once the segment after it starts no later than the next operation
+            // after the oldest retained checkpoint
+            long covered = sequenceOf(checkpoints.get(oldestRetained));
+            List<Path> segments = list(SEGMENT_SUFFIX);
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                if (segments.get(i).equals(segmentPath) || sequenceOf(segments.get(i + 1)) > covered + 1) {
+                    break;
+                }
+                Files.delete(segments.get(i));
+            }
+        }
+    }
+
+    /**
+     * Flush the directory's entries to the device, so a checkpoint moved into place survives a power loss
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory, their file systems order the move after the data
+            LOGGER.log(Level.FINE, "Cannot flush journal directory", e);
+        }
+    }
+
+    /**
+     * Read back every intact record after a checkpoint in sequence order and position the journal after
+     * the last one. A torn or corrupt record, and everything after it, is discarded. So is a record that does
+     * not follow on from the one before it, or from the checkpoint, since a lost segment leaves such a gap.
+     *
+     * @param afterSequence Sequence number of the checkpoint recovery starts from, 0 if none
+     * @param listener      Receives each recovered operation
+     * @return Number of recovered operations
+     * @throws IOException If the segments cannot be read, or the listener fails
+     */
+    synchronized long recover(long afterSequence, RecoveryListener listener) throws IOException {
+        List<Path> segments = list(SEGMENT_SUFFIX);
+        long recovered = 0;
+        // Sequence number of the last record read, records up to the checkpoint only have to be in order
+        long lastSequence = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            MappedByteBuffer buffer = map(segments.get(i), 0);
+            boolean intact = true;
+            boolean gap = false;
+            while (true) {
+                int position = buffer.position();
+                SyncData operation = null;
+                byte[] imageData = null;
+                int length = buffer.remaining() >= RECORD_HEADER_BYTES ? buffer.getInt(position) : 0;
+                if (length == 0) {
+                    break;
+                }
+                if (length < 0 || length > buffer.remaining() - RECORD_HEADER_BYTES) {
+                    intact = false;
+                } else {
+                    byte[] payload = new byte[length];
+                    buffer.position(position + RECORD_HEADER_BYTES);
+                    buffer.get(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                        intact = false;
+                    } else {
+                        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                        try {
+                            operation = SyncDataCodec.read(in);
+                            imageData = Config.LOAD.equals(operation.getDrawingMode()) ? in.readAllBytes() : null;
+                        } catch (IOException e) {
+                            intact = false;
+                        }
+                        if (operation != null && (operation.getSequence() > afterSequence
+                                ? operation.getSequence() != Math.max(lastSequence, afterSequence) + 1
+                                : operation.getSequence() <= lastSequence)) {
+                            intact = false;
+                            gap = true;
+                        }
+                    }
+                }
+
+                if (!intact) {
+                    buffer.position(position);
+                    break;
+                }
+                lastSequence = operation.getSequence();
+                if (operation.getSequence() > afterSequence) {
+                    listener.onRecovered(operation, imageData);
+                    recovered++;
+                }
+            }
+
+            if (!intact) {
+                if (gap) {
+                    LOGGER.severe("Discarding journal from " + segments.get(i).getFileName() + " at offset "
+                            + buffer.position() + ", operations after " + Math.max(lastSequence, afterSequence)
+                            + " are missing or out of order");
+                } else {
+                    LOGGER.warning("Discarding journal from " + segments.get(i).getFileName() + " at offset "
+                            + buffer.position() + " after a torn or corrupt record");
+                }
+                truncate(buffer);
+                for (Path later : segments.subList(i + 1, segments.size())) {
+                    Files.delete(later);
+                }
+                segment = buffer;
+                segmentPath = segments.get(i);
+                return recovered;
+            }
+            segment = buffer;
+            segmentPath = segments.get(i);
+        }
+        return recovered;
+    }
+
+    /**
+     * Append a sequenced operation
+     *
+     * @param operation Operation with its sequence number assigned
+     * @param imageData Image bytes of a load operation, null otherwise
+     * @return Number of bytes written
+     * @throws IOException If the record cannot be encoded or a new segment cannot be created
+     */
+    synchronized int append(SyncData operation, byte[] imageData) throws IOException {
+        if (closed) {
+            return 0;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SyncDataCodec.write(operation, out);
+        if (imageData != null) {
+            out.write(imageData);
+        }
+        byte[] payload = bytes.toByteArray();
+
+        // Keep room for the zero length that ends the segment
+        int needed = RECORD_HEADER_BYTES + payload.length + Integer.BYTES;
+        if (segment == null || segment.remaining() < needed) {
+            if (segment != null) {
+                // Flush the finished segment on the sync thread, off the publishing path
+                MappedByteBuffer finished = segment;
+                syncer.execute(finished::force);
+            }
+            segmentPath = directory.resolve(String.format("%020d%s", operation.getSequence(), SEGMENT_SUFFIX));
+            segment = map(segmentPath, Math.max(segmentBytes, needed));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int position = segment.position();
+        // Length goes in last, so a record is never visible before its payload and checksum
+        segment.position(position + RECORD_HEADER_BYTES);
+        segment.put(payload);
+        segment.putInt(position + 4, (int) crc.getValue());
+        segment.putInt(position, payload.length);
+        dirty = true;
+        return RECORD_HEADER_BYTES + payload.length;
+    }
+
+    /**
+     * Flush appended records to the device
+     */
+    private void sync() {
+        MappedByteBuffer toSync;
+        synchronized (this) {
+            if (!dirty || segment == null) {
+                return;
+            }
+            toSync = segment;
+            dirty = false;
+        }
+        try {
+            toSync.force();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Error flushing journal", e);
+        }
+    }
+
+    /**
+     * Flush and stop, later appends are ignored
+     */
+    @Override
+    public void close() {
+        syncer.shutdownNow();
+        synchronized (this) {
+            if (segment != null) {
+                segment.force();
+            }
+            closed = true;
+        }
+    }
+
+    /**
+     * List segment or checkpoint files in sequence order
+     */
+    private List<Path> list(String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        // Names are zero-padded sequence numbers, so name order is sequence order
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * List checkpoint files of every format in sequence order, a checksummed one after a legacy one
+     * of the same sequence number
+     */
+    private List<Path> listCheckpoints() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String suffix : LEGACY_CHECKPOINT_SUFFIXES) {
+            files.addAll(list(suffix));
+        }
+        files.addAll(list(CHECKPOINT_SUFFIX));
+        // Stable, so the order above breaks ties
+        files.sort(Comparator.comparingLong(OperationJournal::sequenceOf));
+        return files;
+    }
+
+    /**
+     * Sequence number a segment or checkpoint file is named after
+     */
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+
+    /**
+     * Map a segment file, pre-allocating it to a size if it is smaller
+     */
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            if (file.length() < size) {
+                file.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        }
+    }
+
+    /**
+     * Zero everything from the buffer's position on, so discarded records are not read back again
+     */
+    private static void truncate(MappedByteBuffer buffer) {
+        int position = buffer.position();
+        byte[] zeros = new byte[Math.min(64 * 1024, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+        }
+        buffer.force();
+        buffer.position(position);
+    }
+}
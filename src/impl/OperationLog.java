@@ -0,0 +1,80 @@
+package impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory, append-only log of the operations applied to the shared canvas since the latest checkpoint.
+ * Each appended operation is assigned the next global sequence number, starting from 1.
+ */
+class OperationLog {
+    private final List<SyncData> operations = new ArrayList<>();
+    // Sequence number of operations.get(0)
+    private long firstSequence = 1;
+    private long lastSequence = 0;
+
+    /**
+     * Assign the next sequence number to an operation and append it
+     *
+     * @param operation Operation without a sequence number
+     * @return The sequenced operation as stored in the log
+     */
+    synchronized SyncData append(SyncData operation) {
+        SyncData sequenced = operation.withSequence(++lastSequence);
+        operations.add(sequenced);
+        return sequenced;
+    }
+
+    /**
+     * Append an operation that already has a sequence number, such as one recovered from the journal
+     *
+     * @param sequenced Operation following the current last one
+     */
+    synchronized void restore(SyncData sequenced) {
+        if (operations.isEmpty()) {
+            firstSequence = sequenced.getSequence();
+        }
+        operations.add(sequenced);
+        lastSequence = sequenced.getSequence();
+    }
+
+    /**
+     * Drop the operations up to a sequence number, once a checkpoint includes them
+     *
+     * @param sequence Sequence number of the last operation to drop
+     */
+    synchronized void truncate(long sequence) {
+        int count = (int) Math.max(0, Math.min(operations.size(), sequence - firstSequence + 1));
+        operations.subList(0, count).clear();
+        firstSequence = Math.max(firstSequence, sequence + 1);
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+
+    /**
+     * Get the operations after a sequence number, in order
+     *
+     * @param sequence Last sequence number the caller has
+     * @return Operations with a higher sequence number, or null if some of them are no longer in the log
+     */
+    synchronized List<SyncData> since(long sequence) {
+        if (sequence < firstSequence - 1) {
+            return null;
+        }
+        int from = (int) Math.min(operations.size(), sequence - firstSequence + 1);
+        return new ArrayList<>(operations.subList(from, operations.size()));
+    }
+
+    /**
+     * @return Sequence number of the oldest operation still in the log, 1 if none were ever dropped
+     */
+    synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * @return Sequence number of the latest operation, 0 if none
+     */
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+}
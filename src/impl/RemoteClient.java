@@ -1,8 +1,9 @@
 package impl;
 
-import inter.ISyncData;
 import inter.IRemoteClient;
 import inter.IRemoteServer;
+import inter.ISyncData;
+import inter.JoinResult;
 import utils.Config;
 import whiteBoard.ui.DrawPanelView;
 import whiteBoard.ui.ToolBar;
@@ -14,6 +15,7 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.logging.Level;
@@ -43,6 +45,8 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     
     // Server connection
     private final IRemoteServer remoteServer;
+    // Calls made from the event thread are queued here instead of waiting on the server
+    private final ServerChannel outbound;
     
     // File related
     private String filePath;
@@ -52,7 +56,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     private static final String SYSTEM_MESSAGE_PREFIX = "System: ";
 
     /**
-     * Constructor
+     * Constructor, builds the window, which opens once {@link #join()} succeeds
      * 
      * @param userID User ID
      * @param isManager Whether is manager
@@ -63,6 +67,9 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
         this.username = userID;
         this.isManager = isManager;
         this.remoteServer = remoteServer;
+        this.outbound = new ServerChannel(remoteServer, Config.SEND_BATCH_MAX_OPERATIONS, Config.SEND_RETRY_ATTEMPTS,
+                Config.SEND_RETRY_BACKOFF_MS, Config.SEND_QUEUE_CAPACITY,
+                (description, e) -> SwingUtilities.invokeLater(() -> handleIOException(e, description)));
 
         // Initialize UI components
         frame = initializeMainFrame(userID);
@@ -107,25 +114,24 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
      * @throws IOException If IO error occurs
      */
     private DrawPanelView initializeDrawPanel(ToolBar toolBar) throws IOException {
-        return new DrawPanelView(toolBar, remoteServer, isManager, username);
+        return new DrawPanelView(toolBar, remoteServer, outbound, isManager, username);
     }
     
     /**
-     * Setup UI layout
-     * 
-     * @throws RemoteException If RMI error occurs
+     * Setup UI layout, the window is shown once the client joined
      */
-    private void setupUILayout() throws RemoteException {
+    private void setupUILayout() {
         // Setup chat components
         setupChatBox();
         
         // Add components to frame
-        frame.add(drawPanel, BorderLayout.CENTER);
+        // The canvas is larger than the window and scrolls within it
+        JScrollPane canvasScroll = new JScrollPane(drawPanel);
+        canvasScroll.getVerticalScrollBar().setUnitIncrement(Config.TILE_SIZE / 4);
+        canvasScroll.getHorizontalScrollBar().setUnitIncrement(Config.TILE_SIZE / 4);
+        frame.add(canvasScroll, BorderLayout.CENTER);
         frame.add(toolBar, BorderLayout.SOUTH);
         frame.add(chatBox, BorderLayout.EAST);
-        
-        // Make frame visible
-        frame.setVisible(true);
     }
 
     /**
@@ -163,6 +169,8 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
         );
 
         if (result == JOptionPane.YES_OPTION) {
+            // Deliver queued strokes and messages before leaving
+            outbound.close(Config.CLIENT_CALL_TIMEOUT_MS);
             if (isManager) {
                 try {
                     remoteServer.handleManagerExit();
@@ -179,7 +187,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     /**
      * Set up chat box
      */
-    private void setupChatBox() throws RemoteException {
+    private void setupChatBox() {
         chatBox.setLayout(new BorderLayout());
 
         // Initialize user list panel
@@ -311,10 +319,10 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     }
 
     /**
-     * Set up chat area
+     * Set up chat area, the messages sent before joining arrive with the join
      */
-    private void setupChatArea() throws RemoteException {
-        chatArea = remoteServer.getChatArea();
+    private void setupChatArea() {
+        chatArea = new JTextArea();
         chatArea.setEditable(false);
     }
 
@@ -358,12 +366,9 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
             return;
         }
         
-        try {
-            remoteServer.broadcastMessage(username + ": " + message);
-            chatInputField.setText("");
-        } catch (IOException ex) {
-            handleIOException(ex, "IO error occurred when sending message");
-        }
+        String chatMessage = username + ": " + message;
+        outbound.send(server -> server.broadcastMessage(chatMessage), "IO error occurred when sending message");
+        chatInputField.setText("");
     }
 
     /**
@@ -380,13 +385,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
             
             // New file option
             JMenuItem newItem = new JMenuItem("New");
-            newItem.addActionListener(e -> {
-                try {
-                    newFile();
-                } catch (IOException ex) {
-                    handleIOException(ex, "Error occurred when creating new file");
-                }
-            });
+            newItem.addActionListener(e -> newFile());
             
             // Open file option
             JMenuItem openItem = new JMenuItem("Open");
@@ -402,13 +401,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
             
             // Close file option
             JMenuItem closeItem = new JMenuItem("Close");
-            closeItem.addActionListener(e -> {
-                try {
-                    close();
-                } catch (IOException ex) {
-                    handleIOException(ex, "Error occurred when closing file");
-                }
-            });
+            closeItem.addActionListener(e -> close());
             
             // Add menu items to file menu
             fileMenu.add(newItem);
@@ -427,7 +420,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     /**
      * New file method
      */
-    private void newFile() throws IOException {
+    private void newFile() {
         if (drawPanel.isClosedState()) {
             initNewCanvas();
         } else {
@@ -444,8 +437,8 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     /**
      * Create new canvas
      */
-    private void initNewCanvas() throws IOException {
-        remoteServer.newCanvas();
+    private void initNewCanvas() {
+        outbound.send(IRemoteServer::newCanvas, "Error occurred when creating new file");
         filePath = null;
         drawPanel.changeIsClosedState(false);
         JOptionPane.showMessageDialog(frame, "Canvas has been created! 🎉", "Canvas",
@@ -475,8 +468,8 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
             BufferedImage image = ImageIO.read(new File(filePath));
             drawPanel.renderFrame(image);
             drawPanel.sendSavedImage(image);
-            remoteServer.refreshCanvas();
-            remoteServer.broadcastMessage(SYSTEM_MESSAGE_PREFIX + "An existing canvas has been opened by the manager.");
+            outbound.send(server -> server.broadcastMessage(SYSTEM_MESSAGE_PREFIX + "An existing canvas has been opened by the manager."),
+                    "Error occurred when opening file");
             
             if (drawPanel.isClosedState()) {
                 drawPanel.changeIsClosedState(false);
@@ -540,7 +533,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     /**
      * Close current canvas method
      */
-    private void close() throws IOException {
+    private void close() {
         if (drawPanel.isClosedState()) {
             JOptionPane.showMessageDialog(frame, "Canvas is already closed",
                     "Canvas", JOptionPane.WARNING_MESSAGE);
@@ -566,7 +559,7 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
 
         drawPanel.newCanvas();
         drawPanel.changeIsClosedState(true);
-        remoteServer.terminateCanvas();
+        outbound.send(IRemoteServer::terminateCanvas, "Error occurred when closing file");
     }
 
     /**
@@ -585,6 +578,53 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
         Config.PaneRMIError();
     }
 
+    /**
+     * Join the board with a single call to the server, then open the window
+     *
+     * @return Outcome of the join, the window only opens if joined
+     * @throws IOException If the server cannot be reached
+     */
+    public JoinResult join() throws IOException {
+        JoinResult result = remoteServer.join(username, this, isManager);
+        if (result.isJoined()) {
+            drawPanel.setSessionId(result.getSessionId());
+            drawPanel.start(result.getPreview());
+            SwingUtilities.invokeLater(() -> open(result));
+        }
+        return result;
+    }
+
+    /**
+     * Show the users and the chat sent before joining, then the window
+     *
+     * @param result Reply to the join
+     */
+    private void open(JoinResult result) {
+        // Messages and user lists delivered while joining are already shown, and are newer
+        StringBuilder history = new StringBuilder();
+        for (String message : result.getRecentChat()) {
+            history.append(message).append('\n');
+        }
+        chatArea.insert(history.toString(), 0);
+        if (userModel.isEmpty()) {
+            for (String user : result.getUsers()) {
+                userModel.addElement(user);
+            }
+        }
+        frame.setVisible(true);
+    }
+
+    /**
+     * Release a client the server turned away
+     */
+    public void discard() {
+        frame.dispose();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException ignored) {
+        }
+    }
+
     // IRemoteClient interface implementation
 
     @Override
@@ -593,8 +633,8 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     }
 
     @Override
-    public void syncCanvas(ISyncData data) throws RemoteException {
-        drawPanel.syncCanvas(data);
+    public void syncCanvas(ISyncData data, long previousSequence) throws RemoteException {
+        drawPanel.syncCanvas(data, previousSequence);
     }
 
     @Override
@@ -627,36 +667,24 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
     }
 
     @Override
-    public void triggerListRefresh() throws RemoteException {
-        remoteServer.refreshUserList();
-    }
-
-    @Override
-    public void notifySystemJoin() throws IOException {
-        remoteServer.broadcastMessage(SYSTEM_MESSAGE_PREFIX + username + " has joined");
-    }
-
-    @Override
-    public void clearCanvasRequest() throws RemoteException {
-        drawPanel.newCanvas();
-    }
-
-    @Override
-    public void loadCanvasImage(byte[] imageData) throws IOException {
-        drawPanel.getCanvasFromServer(imageData);
+    public void resyncCanvas() throws IOException {
+        drawPanel.resyncCanvas();
     }
 
     @Override
     public void requestCanvasClose() throws RemoteException {
-        int answer = JOptionPane.showConfirmDialog(frame,
-                "Canvas closed by manager. Reconnect?", "Warning",
-                JOptionPane.YES_NO_OPTION);
-                
-        if (answer == JOptionPane.YES_OPTION) {
-            handleReconnectAttempt();
-        } else {
-            closeApplication();
-        }
+        // Ask on the event thread so the server's call returns without waiting for the user
+        SwingUtilities.invokeLater(() -> {
+            int answer = JOptionPane.showConfirmDialog(frame,
+                    "Canvas closed by manager. Reconnect?", "Warning",
+                    JOptionPane.YES_NO_OPTION);
+
+            if (answer == JOptionPane.YES_OPTION) {
+                handleReconnectAttempt();
+            } else {
+                closeApplication();
+            }
+        });
     }
     
     /**
@@ -707,9 +735,4 @@ public class RemoteClient extends UnicastRemoteObject implements IRemoteClient {
             System.exit(0);
         });
     }
-
-    @Override
-    public boolean isRoomClosed() throws RemoteException {
-        return drawPanel.isClosedState();
-    }
 }
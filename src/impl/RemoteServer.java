@@ -1,19 +1,31 @@
 package impl;
 
-import inter.ISyncData;
+import inter.BatchReceipt;
+import inter.CanvasSnapshot;
 import inter.IRemoteClient;
 import inter.IRemoteServer;
+import inter.ISyncData;
+import inter.JoinResult;
+import utils.Config;
+import whiteBoard.drawing.DrawingToolFactory;
+import whiteBoard.drawing.SyncDataRenderer;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.*;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,14 +35,42 @@ import java.util.logging.Logger;
 public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
     private static final Logger LOGGER = Logger.getLogger(RemoteServer.class.getName());
     
-    // Canvas image
-    private static BufferedImage image;
+    // Canvas, with its encoding cached per version
+    private final ServerCanvas canvas = new ServerCanvas(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.TILE_SIZE,
+            Config.CANVAS_TILE_SIZE, Config.CANVAS_RESIDENT_TILES, Config.JOIN_PREVIEW_SIZE);
+    // Every operation applied to the canvas, in sequence order
+    private final OperationLog operationLog = new OperationLog();
+    // Held while an operation is sequenced, applied and queued, so every client receives operations in order
+    private final Object publishLock = new Object();
+    // On-disk copy of the operation log, null if the board is not persisted
+    private final OperationJournal journal;
+    // Takes checkpoints of the canvas and compacts the log behind them
+    private final CanvasSnapshotter snapshotter;
+    private final EditRebuilder editRebuilder;
+    // Session id of operations issued by the server itself, never assigned to a client
+    static final int SERVER_SESSION_ID = 0;
     
-    // Client management
-    private final Map<String, IRemoteClient> clientMap = new ConcurrentHashMap<>();
+    // Client management, each client is reached through its own outbound queue
+    private final Map<String, ClientChannel> clientMap = new ConcurrentHashMap<>();
     private final DefaultListModel<String> managerModel = new DefaultListModel<>();
-    private final JTextArea chatArea = new JTextArea();
-    private String managerName;
+    private volatile String managerName;
+    private final AtomicInteger nextSessionId = new AtomicInteger(1);
+    // Last chat messages, replayed to joining clients, also held while a client is added so it
+    // receives every message exactly once, either in the replay or live
+    private final ArrayDeque<String> recentChat = new ArrayDeque<>();
+    // Whether the manager closed the canvas and has not opened a new one
+    private volatile boolean roomClosed;
+    // Join announcements for the next update, guarded by recentChat, and whether an update is scheduled.
+    // The joins within the interval share one user list and one chat message per client.
+    private final List<String> pendingAnnouncements = new ArrayList<>();
+    private final AtomicBoolean joinUpdatePending = new AtomicBoolean();
+
+    // Outbound queue settings
+    private final int clientQueueCapacity;
+    private final long clientCallTimeoutMillis;
+    private final ClientChannel.OverflowPolicy overflowPolicy;
+    // Checks for stalled clients and sends the gathered join updates
+    private final ScheduledExecutorService scheduler;
     
     // System messages
     private static final String SYSTEM_PREFIX = "System: ";
@@ -40,94 +80,358 @@ public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
     private static final String USER_JOINED = SYSTEM_PREFIX + "%s has joined";
 
     /**
-     * Constructor
+     * Constructor for a board that is kept in memory only
      * 
-     * @throws RemoteException If RMI error occurs during initialization
+     * @throws IOException If RMI error occurs during initialization
+     */
+    public RemoteServer() throws IOException {
+        this(null);
+    }
+
+    /**
+     * Constructor for a board persisted to a journal, restoring the board if the journal already holds one
+     *
+     * @param journalDirectory Directory of the board's journal, or null to keep the board in memory only
+     * @throws IOException If RMI error occurs during initialization, or the journal cannot be read
+     */
+    public RemoteServer(Path journalDirectory) throws IOException {
+        this(Config.CLIENT_QUEUE_CAPACITY, Config.CLIENT_CALL_TIMEOUT_MS, ClientChannel.OverflowPolicy.DISCONNECT,
+                journalDirectory);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param clientQueueCapacity     Maximum number of calls queued for a single client
+     * @param clientCallTimeoutMillis Time a single call to a client may take before it is disconnected
+     * @param overflowPolicy          Policy applied when a client's queue is full
+     * @param journalDirectory        Directory of the board's journal, or null to keep the board in memory only
+     * @throws IOException If RMI error occurs during initialization, or the journal cannot be read
      */
-    public RemoteServer() throws RemoteException {
+    RemoteServer(int clientQueueCapacity, long clientCallTimeoutMillis,
+                 ClientChannel.OverflowPolicy overflowPolicy, Path journalDirectory) throws IOException {
         super();
+        this.clientQueueCapacity = clientQueueCapacity;
+        this.clientCallTimeoutMillis = clientCallTimeoutMillis;
+        this.overflowPolicy = overflowPolicy;
+        CanvasSnapshot checkpoint = null;
+        if (journalDirectory != null) {
+            this.journal = new OperationJournal(journalDirectory, Config.JOURNAL_SEGMENT_BYTES,
+                    Config.JOURNAL_SYNC_INTERVAL_MS);
+            checkpoint = recover(journal);
+        } else {
+            this.journal = null;
+        }
+        this.snapshotter = new CanvasSnapshotter(canvas, operationLog, journal, checkpoint,
+                Config.SNAPSHOT_EVERY_OPERATIONS, Config.SNAPSHOT_EVERY_BYTES, Config.UNDO_RETAINED_CHECKPOINTS,
+                Config.UNDO_MEMORY_BYTES);
+        this.editRebuilder = new EditRebuilder(operationLog, snapshotter, publishLock,
+                patch -> publishOperation(patch, null), Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.TILE_SIZE,
+                Config.UNDO_REBUILD_THREADS);
+        // Recovered edits can be undone as long as the log still holds them
+        List<SyncData> recovered = operationLog.since(operationLog.getFirstSequence() - 1);
+        if (recovered != null) {
+            recovered.forEach(editRebuilder::track);
+        }
+
+        long checkInterval = Math.max(100, clientCallTimeoutMillis / 4);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::checkStalledClients, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Get current canvas image as byte array
-     * 
-     * @return Byte array of the image, or null if no image exists
-     * @throws IOException If IO error occurs during image processing
+     * Restore the board from the journal's newest checkpoint and the operations logged after it
+     *
+     * @param journal Board's journal
+     * @return Checkpoint the board was restored from, or null if there is none
+     * @throws IOException If the journal cannot be read
      */
-    @Override
-    public byte[] updateImage() throws IOException {
-        if (image != null) {
-            return imageToByteArray(image);
+    private CanvasSnapshot recover(OperationJournal journal) throws IOException {
+        CanvasSnapshot checkpoint = journal.readCheckpoint();
+        long checkpointSequence = 0;
+        if (checkpoint != null) {
+            checkpointSequence = checkpoint.getSequence();
+            canvas.replace(checkpoint.getImageData(), checkpointSequence);
+            operationLog.truncate(checkpointSequence);
+        }
+
+        long recovered = journal.recover(checkpointSequence, (operation, imageData) -> {
+            operationLog.restore(operation);
+            applyToCanvas(operation, imageData);
+            // Keep new session ids clear of the recovered ones, so no old operation looks like a new client's own
+            if (operation.getSessionId() >= nextSessionId.get()) {
+                nextSessionId.set(operation.getSessionId() + 1);
+            }
+        });
+        if (checkpoint != null || recovered > 0) {
+            LOGGER.info("Recovered board at checkpoint " + checkpointSequence + " and " + recovered + " later operations");
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Disconnect clients whose current call has exceeded the call timeout
+     */
+    private void checkStalledClients() {
+        long now = System.nanoTime();
+        for (ClientChannel channel : clientMap.values()) {
+            channel.checkStalled(now);
+        }
+    }
+
+    /**
+     * Drop a client whose channel overflowed or stalled
+     *
+     * @param channel Failed channel
+     * @param reason  Failure reason
+     */
+    private void disconnectClient(ClientChannel channel, String reason) {
+        if (!clientMap.remove(channel.getUsername(), channel)) {
+            return;
+        }
+        LOGGER.warning("Disconnecting client " + channel.getUsername() + ": " + reason);
+        try {
+            refreshUserList();
+            broadcastMessage(String.format(USER_LEFT, channel.getUsername()));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error notifying clients of disconnect: " + channel.getUsername(), e);
         }
-        return null;
     }
 
     /**
-     * Convert image to byte array
+     * Get the newest canvas checkpoint, the caller replays the operations after it from {@link #getOperationsSince}.
+     * Before the first checkpoint, the current canvas is served from its cached encoding.
      * 
-     * @param img Image to convert
-     * @return Byte array of the image
+     * @return Canvas image with the sequence number it reflects, or null if no image exists
      * @throws IOException If IO error occurs during image processing
      */
-    private byte[] imageToByteArray(BufferedImage img) throws IOException {
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
-        ImageIO.write(img, "png", data);
-        return data.toByteArray();
+    @Override
+    public CanvasSnapshot updateImage() throws IOException {
+        CanvasSnapshot checkpoint = snapshotter.getLatest();
+        return checkpoint != null ? checkpoint : canvas.getSnapshot();
     }
 
     /**
-     * Update server's canvas image from byte array
+     * Replace server's canvas image with one opened by the manager, and have the other clients re-sync to it
      * 
      * @param imageData Byte array of the image
      * @throws IOException If IO error occurs during image processing
      */
     @Override
     public void receiveImage(byte[] imageData) throws IOException {
-        ByteArrayInputStream data = new ByteArrayInputStream(imageData);
-        image = ImageIO.read(data);
+        ClientChannel manager = managerName != null ? clientMap.get(managerName) : null;
+        int managerSessionId = manager != null ? manager.getSessionId() : SERVER_SESSION_ID;
+        publishOperation(new SyncData(Config.LOAD, managerSessionId), imageData);
+        roomClosed = false;
     }
 
     /**
-     * Broadcast canvas to all clients except the sender
+     * Apply a drawing operation to the server canvas and broadcast it to all clients except the sender
      * 
-     * @param remoteCanvas Canvas to broadcast
+     * @param remoteCanvas Drawing operation to broadcast, passed by value
      * @throws IOException If IO error occurs during broadcasting
      */
     @Override
     public void broadcastCanvas(ISyncData remoteCanvas) throws IOException {
-        String senderUsername = remoteCanvas.getUsername();
-        for (IRemoteClient client : clientMap.values()) {
-            if (!client.getUsername().equals(senderUsername)) {
+        if (!(remoteCanvas instanceof SyncData)) {
+            throw new IOException("Unsupported operation type: " + remoteCanvas.getClass().getName());
+        }
+        publishOperation((SyncData) remoteCanvas, null);
+    }
+
+    /**
+     * Apply drawing operations sent together by one client, in order, and broadcast them to all other clients
+     *
+     * @param operations Drawing operations to broadcast, passed by value
+     * @return Sequence numbers given to the operations, 0 for a refused object erase, for the sender to tell
+     * which of its own operations pixels it fetches later already include
+     * @throws IOException If IO error occurs during broadcasting
+     */
+    @Override
+    public BatchReceipt broadcastCanvasBatch(ISyncData[] operations) throws IOException {
+        long[] sequences = new long[operations.length];
+        synchronized (publishLock) {
+            long lastQueued = 0;
+            if (operations.length > 0) {
+                for (ClientChannel channel : clientMap.values()) {
+                    if (channel.getSessionId() == operations[0].getSessionId()) {
+                        lastQueued = channel.getLastQueuedSequence();
+                    }
+                }
+            }
+            for (int i = 0; i < operations.length; i++) {
+                if (!(operations[i] instanceof SyncData)) {
+                    throw new IOException("Unsupported operation type: " + operations[i].getClass().getName());
+                }
+                sequences[i] = publishOperation((SyncData) operations[i], null);
+            }
+            return new BatchReceipt(sequences, lastQueued);
+        }
+    }
+
+    /**
+     * Sequence an operation, apply it to the server canvas and queue it for every client except its sender
+     * whose viewport it touches. Each delivery carries the sequence number previously queued to that client,
+     * so a client that sees a different number than the last one it applied knows it missed operations.
+     * Operations outside a client's viewport are not missed in that sense, the client fetches the tiles
+     * they changed once it scrolls there.
+     *
+     * @param operation Operation without a sequence number
+     * @param imageData Image bytes of a load operation, null otherwise
+     * @return Sequence number given to the operation, 0 if it was refused
+     * @throws IOException If the canvas has to be decoded first and decoding fails
+     */
+    private long publishOperation(SyncData operation, byte[] imageData) throws IOException {
+        synchronized (publishLock) {
+            if (Config.DELETE.equals(operation.getDrawingMode()) && !editRebuilder.canErase(operation)) {
+                // Nobody else removes the shapes, and the sender restores them from the server's tiles
+                LOGGER.info("Refusing an object erase of session " + operation.getSessionId()
+                        + " naming shapes that can no longer be rebuilt");
+                return 0;
+            }
+            if ((Config.UNDO.equals(operation.getDrawingMode()) || Config.REDO.equals(operation.getDrawingMode()))
+                    && !editRebuilder.canToggle(operation)) {
+                // The sender puts the edit back in its history and tells the user
+                LOGGER.info("Refusing an undo or redo of session " + operation.getSessionId()
+                        + " for an edit that is unknown, already in that state or too old to rebuild");
+                return 0;
+            }
+            SyncData sequenced = operationLog.append(operation);
+            long sequence = sequenced.getSequence();
+            // Bytes the operation adds to the log, counting towards the next checkpoint
+            int loggedBytes = imageData != null ? imageData.length : 0;
+            if (journal != null) {
                 try {
-                    client.syncCanvas(remoteCanvas);
-                } catch (RemoteException e) {
-                    handleRemoteException(e, "Error broadcasting canvas to client: " + client.getUsername());
+                    loggedBytes = journal.append(sequenced, imageData);
+                } catch (IOException e) {
+                    // Keep the board live, it is only the on-disk copy that falls behind
+                    LOGGER.log(Level.SEVERE, "Error writing operation " + sequence + " to the journal", e);
+                }
+            }
+            applyToCanvas(sequenced, imageData);
+            snapshotter.onPublished(loggedBytes);
+            if (imageData != null) {
+                // A loaded image is the whole canvas as of its load, edits can be rebuilt from it
+                snapshotter.onLoaded(new CanvasSnapshot(sequence, imageData));
+            }
+            if (editRebuilder.track(sequenced)) {
+                editRebuilder.schedule(sequenced);
+            }
+
+            Rectangle bounds = interestBounds(sequenced);
+            for (ClientChannel channel : clientMap.values()) {
+                if (channel.getSessionId() == sequenced.getSessionId() || !channel.isInterestedIn(bounds)) {
+                    continue;
                 }
+                long previousSequence = channel.getLastQueuedSequence();
+                channel.setLastQueuedSequence(sequence);
+                channel.send(client -> client.syncCanvas(sequenced, previousSequence),
+                        "Error broadcasting canvas to client");
             }
+            return sequence;
         }
     }
 
     /**
-     * Add a client to the server
-     * 
-     * @param client Client to add
+     * Get the area an operation draws on, for matching it against client viewports
+     *
+     * @return Bounds, or null if the operation affects the whole board or has no area, such as a clear,
+     * a load, an undo or redo marker or an object erase
+     */
+    private static Rectangle interestBounds(SyncData operation) {
+        String drawingMode = operation.getDrawingMode();
+        if (!Config.PATCH.equals(drawingMode) && DrawingToolFactory.getTool(drawingMode) == null) {
+            return null;
+        }
+        return SyncDataRenderer.bounds(operation);
+    }
+
+    /**
+     * Apply a sequenced operation to the server canvas
+     *
+     * @param sequenced Sequenced operation
+     * @param imageData Image bytes of a load operation, null otherwise
+     * @throws IOException If the canvas has to be decoded first and decoding fails
+     */
+    private void applyToCanvas(SyncData sequenced, byte[] imageData) throws IOException {
+        String drawingMode = sequenced.getDrawingMode();
+        if (Config.CLEAR.equals(drawingMode)) {
+            canvas.clear(sequenced.getSequence());
+        } else if (Config.LOAD.equals(drawingMode)) {
+            canvas.replace(imageData, sequenced.getSequence());
+        } else {
+            canvas.apply(sequenced);
+        }
+    }
+
+    /**
+     * Get the operations a client missed
+     *
+     * @param sequence Sequence number of the last operation the client applied
+     * @return Later operations in order, or null if they are no longer available and the client should re-sync
      * @throws RemoteException If RMI error occurs
      */
     @Override
-    public void registerClient(IRemoteClient client) throws RemoteException {
-        clientMap.put(client.getUsername(), client);
+    public ISyncData[] getOperationsSince(long sequence) throws RemoteException {
+        List<SyncData> operations = operationLog.since(sequence);
+        return operations != null ? operations.toArray(new ISyncData[0]) : null;
     }
 
     /**
-     * Set the manager name
-     * 
-     * @param name Manager name
-     * @throws RemoteException If RMI error occurs
+     * Join the board in one call. The name check, the room state check and adding the client happen
+     * atomically, so two clients cannot take the same name, and the client receives every operation and
+     * chat message after the thumbnail and the chat replay it is sent.
+     * The clients are told of the new user afterwards, together with the others joining within the interval.
+     *
+     * @param username Name of the user joining
+     * @param client   Client to add
+     * @param manager  Whether the user is the manager, who may join while the canvas is closed
+     * @return Session id, thumbnail, users and recent chat, or why the client was turned away
+     * @throws IOException If the thumbnail cannot be encoded
      */
     @Override
-    public void assignManagerName(String name) throws RemoteException {
-        this.managerName = name;
-        updateManagerModel(name);
+    public JoinResult join(String username, IRemoteClient client, boolean manager) throws IOException {
+        int sessionId;
+        String[] users;
+        String[] chat;
+        ServerCanvas.PreviewCopy previewCopy;
+        synchronized (publishLock) {
+            synchronized (recentChat) {
+                if (!manager && roomClosed) {
+                    return JoinResult.rejected(JoinResult.Status.ROOM_CLOSED);
+                }
+                if (username.equals(managerName) || clientMap.containsKey(username)) {
+                    return JoinResult.rejected(JoinResult.Status.NAME_TAKEN);
+                }
+                sessionId = nextSessionId.getAndIncrement();
+                ClientChannel channel = new ClientChannel(username, sessionId, client, clientQueueCapacity,
+                        clientCallTimeoutMillis, overflowPolicy, this::disconnectClient);
+                channel.setLastQueuedSequence(operationLog.getLastSequence());
+                clientMap.put(username, channel);
+                if (manager) {
+                    managerName = username;
+                }
+                users = clientMap.keySet().toArray(new String[0]);
+                chat = recentChat.toArray(new String[0]);
+            }
+            // Taken with the client's queue starting after the same operation, so the client gets every
+            // later operation and none the thumbnail already shows
+            previewCopy = canvas.copyPreview();
+        }
+        if (manager) {
+            updateManagerModel(username);
+        }
+
+        CanvasSnapshot preview = canvas.encodePreview(previewCopy);
+        synchronized (recentChat) {
+            pendingAnnouncements.add(String.format(USER_JOINED, username));
+        }
+        scheduleJoinUpdate();
+        return JoinResult.joined(sessionId, preview, users, chat);
     }
 
     /**
@@ -151,14 +455,23 @@ public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
      */
     @Override
     public void handleManagerExit() throws RemoteException {
-        for (IRemoteClient client : clientMap.values()) {
-            try {
-                client.requestExit(managerName);
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error notifying client of manager leaving: " + client.getUsername());
-            }
+        for (ClientChannel channel : clientMap.values()) {
+            channel.send(client -> client.requestExit(managerName), "Error notifying client of manager leaving");
+            channel.close();
+        }
+
+        // The manager process exits right after this call, give the queues a bounded time to drain
+        long deadline = System.currentTimeMillis() + clientCallTimeoutMillis;
+        for (ClientChannel channel : clientMap.values()) {
+            channel.awaitClosed(deadline - System.currentTimeMillis());
         }
         clientMap.clear();
+        scheduler.shutdownNow();
+        snapshotter.close();
+        editRebuilder.close();
+        if (journal != null) {
+            journal.close();
+        }
     }
 
     /**
@@ -169,43 +482,53 @@ public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
      */
     @Override
     public void broadcastMessage(String message) throws IOException {
-        for (IRemoteClient client : clientMap.values()) {
-            try {
-                client.syncMessage(message);
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error broadcasting message to client: " + client.getUsername());
+        synchronized (recentChat) {
+            recentChat.addLast(message);
+            if (recentChat.size() > Config.CHAT_HISTORY_SIZE) {
+                recentChat.removeFirst();
+            }
+            for (ClientChannel channel : clientMap.values()) {
+                channel.send(client -> client.syncMessage(message), "Error broadcasting message to client");
             }
         }
     }
 
     /**
-     * Update client list for all clients
-     * 
-     * @throws RemoteException If RMI error occurs
+     * Send the join announcements and the user list once the update interval passes, unless an update
+     * is already due
      */
-    @Override
-    public void refreshUserList() throws RemoteException {
-        DefaultListModel<String> tempModel = new DefaultListModel<>();
-        tempModel.addAll(clientMap.keySet());
-        
-        for (IRemoteClient client : clientMap.values()) {
-            try {
-                client.syncUserList(tempModel);
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error updating client list for: " + client.getUsername());
+    private void scheduleJoinUpdate() {
+        if (joinUpdatePending.compareAndSet(false, true)) {
+            scheduler.schedule(this::sendJoinUpdate, Config.JOIN_UPDATE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendJoinUpdate() {
+        // Joins from here on schedule the next update
+        joinUpdatePending.set(false);
+        try {
+            synchronized (recentChat) {
+                if (!pendingAnnouncements.isEmpty()) {
+                    broadcastMessage(String.join("\n", pendingAnnouncements));
+                    pendingAnnouncements.clear();
+                }
             }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error announcing joined users", e);
         }
+        refreshUserList();
     }
 
     /**
-     * Get chat area
-     * 
-     * @return Chat area
-     * @throws RemoteException If RMI error occurs
+     * Update client list for all clients
      */
-    @Override
-    public JTextArea getChatArea() throws RemoteException {
-        return chatArea;
+    private void refreshUserList() {
+        DefaultListModel<String> tempModel = new DefaultListModel<>();
+        tempModel.addAll(clientMap.keySet());
+        
+        for (ClientChannel channel : clientMap.values()) {
+            channel.send(client -> client.syncUserList(tempModel), "Error updating client list for");
+        }
     }
 
     /**
@@ -215,119 +538,99 @@ public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
      */
     @Override
     public void newCanvas() throws IOException {
-        for (IRemoteClient client : clientMap.values()) {
-            try {
-                client.clearCanvasRequest();
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error creating new canvas for client: " + client.getUsername());
-            }
-        }
+        publishOperation(new SyncData(Config.CLEAR, SERVER_SESSION_ID), null);
+        roomClosed = false;
         broadcastMessage(MANAGER_NEW_CANVAS);
     }
 
     /**
-     * Update canvas for all clients except manager
-     * 
-     * @throws IOException If IO error occurs
+     * Get the canvas tiles that differ from a client's copy
+     *
+     * @param width      Width of the client's canvas
+     * @param height     Height of the client's canvas
+     * @param tileHashes Client's tile hashes
+     * @return Patch of the differing tiles with the sequence number of the last operation they reflect,
+     * or null if the sizes differ and the client should fetch the whole image
+     * @throws IOException If IO error occurs during image processing
      */
     @Override
-    public void refreshCanvas() throws IOException {
-        if (image == null) {
-            LOGGER.warning("Attempted to update canvas with null image");
-            return;
-        }
-        
-        byte[] imageBytes = imageToByteArray(image);
-        
-        for (IRemoteClient client : clientMap.values()) {
-            try {
-                if (!client.getUsername().equals(managerName)) {
-                    client.loadCanvasImage(imageBytes);
-                }
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error updating canvas for client: " + client.getUsername());
-            }
-        }
+    public ISyncData getChangedTiles(int width, int height, long[] tileHashes) throws IOException {
+        return canvas.getChangedTiles(width, height, null, tileHashes);
     }
 
     /**
-     * Close canvas and notify all clients except manager
-     * 
-     * @throws IOException If IO error occurs
+     * Get those of some canvas tiles that differ from a client's copy
+     *
+     * @param width       Width of the client's canvas
+     * @param height      Height of the client's canvas
+     * @param tileIndices Indices of the tiles to compare
+     * @param tileHashes  Client's hashes of those tiles
+     * @return Patch of the differing tiles with the sequence number of the last operation they reflect,
+     * or null if the sizes differ and the client should fetch the whole image
+     * @throws IOException If IO error occurs during image processing
      */
     @Override
-    public void terminateCanvas() throws IOException {
-        for (IRemoteClient client : clientMap.values()) {
-            if (!client.getUsername().equals(managerName)) {
-                notifyClientOfCanvasClose(client);
-            }
-        }
-        broadcastMessage(MANAGER_CLOSED_CANVAS);
+    public ISyncData getChangedTiles(int width, int height, int[] tileIndices, long[] tileHashes) throws IOException {
+        return canvas.getChangedTiles(width, height, tileIndices, tileHashes);
     }
-    
+
     /**
-     * Notify client of canvas close in a separate thread
-     * 
-     * @param client Client to notify
+     * Set the canvas area a client shows. From then on the client only receives the operations that
+     * touch the area, and fetches the tiles changed elsewhere when it scrolls there.
+     *
+     * @param sessionId Session id of the client
+     * @param viewport  Area in canvas coordinates, or null to receive everything
+     * @throws RemoteException If RMI error occurs
      */
-    private void notifyClientOfCanvasClose(IRemoteClient client) {
-        Thread t = new Thread(() -> {
-            try {
-                client.requestCanvasClose();
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error closing canvas for client: " + getClientUsername(client));
+    @Override
+    public void updateViewport(int sessionId, Rectangle viewport) throws RemoteException {
+        for (ClientChannel channel : clientMap.values()) {
+            if (channel.getSessionId() == sessionId) {
+                channel.setViewport(viewport);
             }
-        });
-        t.start();
+        }
     }
-    
+
     /**
-     * Get client username safely
+     * Ask all clients except manager to re-sync their canvas with the server's
      * 
-     * @param client Client
-     * @return Username or "unknown" if error occurs
+     * @throws IOException If IO error occurs
      */
-    private String getClientUsername(IRemoteClient client) {
-        try {
-            return client.getUsername();
-        } catch (RemoteException e) {
-            return "unknown";
+    @Override
+    public void refreshCanvas() throws IOException {
+        for (ClientChannel channel : clientMap.values()) {
+            if (!channel.getUsername().equals(managerName)) {
+                channel.send(IRemoteClient::resyncCanvas, "Error updating canvas for client");
+            }
         }
     }
 
     /**
-     * Check if user exists in the server
+     * Close canvas and notify all clients except manager
      * 
-     * @param name Username to check
-     * @return True if user exists, false otherwise
-     * @throws RemoteException If RMI error occurs
+     * @throws IOException If IO error occurs
      */
     @Override
-    public boolean hasUser(String name) throws RemoteException {
-        if (name.equals(managerName)) {
-            return true;
+    public void terminateCanvas() throws IOException {
+        roomClosed = true;
+        publishOperation(new SyncData(Config.CLEAR, SERVER_SESSION_ID), null);
+        for (ClientChannel channel : clientMap.values()) {
+            if (!channel.getUsername().equals(managerName)) {
+                channel.send(IRemoteClient::requestCanvasClose, "Error closing canvas for client");
+            }
         }
-        return clientMap.containsKey(name);
+        broadcastMessage(MANAGER_CLOSED_CANVAS);
     }
 
     /**
-     * Get canvas closed state from manager
+     * Get the canvas closed state, kept by the server as the manager closes and opens canvases
      * 
      * @return True if canvas is closed, false otherwise
      * @throws RemoteException If RMI error occurs
      */
     @Override
     public boolean isWhiteboardClosed() throws RemoteException {
-        IRemoteClient manager = clientMap.get(managerName);
-        if (manager != null) {
-            try {
-                return manager.isRoomClosed();
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error getting canvas state from manager");
-                return false;
-            }
-        }
-        return false;
+        return roomClosed;
     }
 
     /**
@@ -339,15 +642,11 @@ public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
      */
     @Override
     public void removeClientByManager(String userToKick, String managerID) throws RemoteException {
-        IRemoteClient clientToKick = clientMap.get(userToKick);
+        ClientChannel clientToKick = clientMap.remove(userToKick);
         if (clientToKick != null) {
-            try {
-                clientToKick.requestExit(managerID);
-                clientMap.remove(userToKick);
-                refreshUserList();
-            } catch (RemoteException e) {
-                handleRemoteException(e, "Error kicking user: " + userToKick);
-            }
+            clientToKick.send(client -> client.requestExit(managerID), "Error kicking user");
+            clientToKick.close();
+            refreshUserList();
         }
     }
 
@@ -359,19 +658,11 @@ public class RemoteServer extends UnicastRemoteObject implements IRemoteServer {
      */
     @Override
     public void kickOutUser(String name) throws IOException {
-        clientMap.remove(name);
+        ClientChannel channel = clientMap.remove(name);
+        if (channel != null) {
+            channel.close();
+        }
         refreshUserList();
         broadcastMessage(String.format(USER_LEFT, name));
     }
-    
-    /**
-     * Handle remote exception
-     * 
-     * @param e Exception
-     * @param message Error message
-     */
-    private void handleRemoteException(RemoteException e, String message) {
-        LOGGER.log(Level.SEVERE, message, e);
-        System.err.println(message + ": " + e.getMessage());
-    }
 }
@@ -0,0 +1,264 @@
+package impl;
+
+import inter.CanvasSnapshot;
+import inter.CanvasTile;
+import inter.ISyncData;
+import whiteBoard.drawing.SyncDataRenderer;
+import whiteBoard.drawing.TiledRaster;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Server copy of the canvas, kept current by applying the drawing operations the server relays.
+ * The canvas is tiled, so only the area drawn on takes memory, see {@link TiledRaster}.
+ * The version is the sequence number of the last applied operation, and the encoding of the canvas
+ * is cached per version so repeated joins of an unchanged canvas do not re-encode it.
+ * Tile hashes are cached as well and only recomputed for tiles an operation touched, and a thumbnail for
+ * joining clients is drawn along with the canvas.
+ */
+class ServerCanvas {
+    private final int width;
+    private final int height;
+    private final int tileSize;
+
+    private final TiledRaster raster;
+    // Encoded canvas, valid while encodedVersion == version
+    private byte[] encoded;
+    private long version = 0;
+    private long encodedVersion = -1;
+    // Thumbnail for joining clients, drawn into along with the canvas so it never has to be read back
+    // from the tiles, and its PNG, valid while previewVersion == version
+    private final BufferedImage thumbnail;
+    private final Graphics2D thumbnailG2d;
+    private final int previewSize;
+    private byte[] preview;
+    private long previewVersion = -1;
+
+    // Cached tile hashes, entries in dirtyTiles must be recomputed before use
+    private final long[] tileHashes;
+    private final BitSet dirtyTiles = new BitSet();
+    private final int[] tileBuffer;
+
+    /**
+     * Constructor, starts with a blank canvas
+     *
+     * @param width            Canvas width
+     * @param height           Canvas height
+     * @param tileSize         Edge length of the tiles used for re-sync
+     * @param rasterTileSize   Edge length of the tiles the canvas is stored as
+     * @param maxResidentTiles Number of stored tiles kept inflated
+     * @param previewSize      Largest edge of the thumbnail served to joining clients
+     */
+    ServerCanvas(int width, int height, int tileSize, int rasterTileSize, int maxResidentTiles, int previewSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tileBuffer = new int[tileSize * tileSize];
+        this.raster = new TiledRaster(width, height, rasterTileSize, maxResidentTiles);
+        this.previewSize = previewSize;
+        double scale = Math.min(1, (double) previewSize / Math.max(width, height));
+        this.thumbnail = new BufferedImage(Math.max(1, (int) Math.ceil(width * scale)),
+                Math.max(1, (int) Math.ceil(height * scale)), BufferedImage.TYPE_INT_RGB);
+        this.thumbnailG2d = thumbnail.createGraphics();
+        thumbnailG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        thumbnailG2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        // Operations are drawn in canvas coordinates
+        thumbnailG2d.scale(scale, scale);
+        this.tileHashes = new long[CanvasTile.columns(width, tileSize) * CanvasTile.rows(height, tileSize)];
+        clear(0);
+    }
+
+    /**
+     * Reset to a blank canvas
+     *
+     * @param sequence Sequence number of the clear operation
+     */
+    synchronized void clear(long sequence) {
+        raster.clear();
+        thumbnailG2d.setPaint(Color.WHITE);
+        thumbnailG2d.fillRect(0, 0, width, height);
+        dirtyTiles.set(0, tileHashes.length);
+        version = sequence;
+    }
+
+    /**
+     * Replace the whole canvas with an encoded canvas or an opened image. The bytes become the cached
+     * snapshot as they are, and an encoded canvas's tiles stay deflated until an operation draws on them.
+     *
+     * @param imageData Encoded canvas or PNG bytes, see {@link CanvasImageCodec}
+     * @param sequence  Sequence number of the load operation or checkpoint
+     * @throws IOException If the data cannot be decoded
+     */
+    synchronized void replace(byte[] imageData, long sequence) throws IOException {
+        CanvasImageCodec.decode(imageData, raster);
+        thumbnailG2d.setPaint(Color.WHITE);
+        thumbnailG2d.fillRect(0, 0, width, height);
+        thumbnailG2d.drawImage(raster.getThumbnail(previewSize), 0, 0, width, height, null);
+        dirtyTiles.set(0, tileHashes.length);
+        version = sequence;
+        encoded = imageData;
+        encodedVersion = version;
+    }
+
+    /**
+     * Draw a relayed operation onto the canvas
+     *
+     * @param data Sequenced drawing operation
+     */
+    synchronized void apply(ISyncData data) {
+        if (SyncDataRenderer.render(raster, data)) {
+            markDirty(SyncDataRenderer.bounds(data));
+            SyncDataRenderer.render(thumbnailG2d, data);
+        }
+        version = data.getSequence();
+    }
+
+    /**
+     * Get the tiles that differ from a client's copy of the canvas
+     *
+     * @param clientWidth  Width of the client's canvas
+     * @param clientHeight Height of the client's canvas
+     * @param tileIndices  Indices of the tiles to compare, or null for every tile
+     * @param clientHashes Client's hashes of those tiles, see {@link TiledRaster#hashTile}
+     * @return Patch of the differing tiles with the sequence number of the last operation they reflect,
+     * or null if the canvas sizes differ and the whole canvas is needed
+     */
+    synchronized SyncData getChangedTiles(int clientWidth, int clientHeight, int[] tileIndices,
+                                          long[] clientHashes) {
+        int count = tileIndices != null ? tileIndices.length : tileHashes.length;
+        if (clientWidth != width || clientHeight != height || clientHashes == null || clientHashes.length != count) {
+            return null;
+        }
+
+        List<CanvasTile> tiles = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = tileIndices != null ? tileIndices[i] : i;
+            if (index < 0 || index >= tileHashes.length) {
+                return null;
+            }
+            if (dirtyTiles.get(index)) {
+                tileHashes[index] = raster.hashTile(index, tileSize, tileBuffer);
+                dirtyTiles.clear(index);
+            }
+            if (tileHashes[index] != clientHashes[i]) {
+                tiles.add(raster.captureTile(index, tileSize));
+            }
+        }
+        return new SyncData(tiles.toArray(new CanvasTile[0]), RemoteServer.SERVER_SESSION_ID).withSequence(version);
+    }
+
+    /**
+     * Mark the tiles overlapping an area as needing a new hash
+     */
+    private void markDirty(Rectangle area) {
+        int columns = CanvasTile.columns(width, tileSize);
+        Rectangle clipped = area.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            return;
+        }
+        int firstColumn = clipped.x / tileSize;
+        int lastColumn = (clipped.x + clipped.width - 1) / tileSize;
+        int firstRow = clipped.y / tileSize;
+        int lastRow = (clipped.y + clipped.height - 1) / tileSize;
+        for (int row = firstRow; row <= lastRow; row++) {
+            dirtyTiles.set(row * columns + firstColumn, row * columns + lastColumn + 1);
+        }
+    }
+
+    /**
+     * Get the encoding of the current version, encoding only if the canvas changed since the last call.
+     * The canvas is copied under the lock, only copying the pixels of the tiles changed since they were
+     * last deflated, and the copy is deflated and written out outside it, so drawing is not held up by encoding.
+     *
+     * @return Snapshot of the canvas
+     * @throws IOException If encoding fails
+     */
+    CanvasSnapshot getSnapshot() throws IOException {
+        TiledRaster copy;
+        long copyVersion;
+        synchronized (this) {
+            if (encodedVersion == version) {
+                return new CanvasSnapshot(version, encoded);
+            }
+            copy = raster.copy();
+            copyVersion = version;
+        }
+
+        byte[] bytes = CanvasImageCodec.encode(copy);
+
+        synchronized (this) {
+            if (copyVersion > encodedVersion) {
+                encoded = bytes;
+                encodedVersion = copyVersion;
+            }
+        }
+        return new CanvasSnapshot(copyVersion, bytes);
+    }
+
+    /**
+     * Thumbnail as of one version, copied under the canvas lock and written out by {@link #encodePreview}
+     */
+    static final class PreviewCopy {
+        final long version;
+        // PNG already cached for the version, or else the copied thumbnail
+        final byte[] encoded;
+        final BufferedImage image;
+
+        PreviewCopy(long version, byte[] encoded, BufferedImage image) {
+            this.version = version;
+            this.encoded = encoded;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Copy the thumbnail of the current version for a joining client to show first. The thumbnail is
+     * kept current as operations are applied, so this costs the same whatever the canvas size.
+     * Called under the publish lock, so the copy's version is the last operation sequenced.
+     *
+     * @return Copy to encode outside the lock
+     */
+    synchronized PreviewCopy copyPreview() {
+        if (previewVersion == version) {
+            return new PreviewCopy(version, preview, null);
+        }
+        return new PreviewCopy(version, null,
+                new BufferedImage(thumbnail.getColorModel(), thumbnail.copyData(null), false, null));
+    }
+
+    /**
+     * Write a copied thumbnail out as PNG, cached per version
+     *
+     * @return Snapshot holding the thumbnail as PNG, at the version it was copied
+     * @throws IOException If encoding fails
+     */
+    CanvasSnapshot encodePreview(PreviewCopy copy) throws IOException {
+        if (copy.encoded != null) {
+            return new CanvasSnapshot(copy.version, copy.encoded);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(copy.image, "png", bytes);
+
+        synchronized (this) {
+            if (copy.version > previewVersion) {
+                preview = bytes.toByteArray();
+                previewVersion = copy.version;
+            }
+        }
+        return new CanvasSnapshot(copy.version, bytes.toByteArray());
+    }
+
+    /**
+     * @return Sequence number of the last applied operation
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,295 @@
+package impl;
+
+import inter.BatchReceipt;
+import inter.IRemoteServer;
+import inter.ISyncData;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Outbound queue from a client to the server. Calls are queued by the event thread, which returns
+ * immediately, and delivered in order by the channel's own sender thread. Drawing operations queued
+ * back to back are sent together in one call.
+ * <p>
+ * Calls that fail because the server could not be reached are retried, since they were never delivered
+ * and cannot be applied twice. Any other failure, including an answer that does not match the batch,
+ * is reported to the failure listener.
+ * <p>
+ * The queue is bounded. When the server falls that far behind, queueing waits for room rather than
+ * holding an ever longer backlog, and the wait is logged.
+ * <p>
+ * The channel also measures what the event thread is spared: every call queued from it would have
+ * blocked it for a whole round trip before.
+ */
+public class ServerChannel {
+    private static final Logger LOGGER = Logger.getLogger(ServerChannel.class.getName());
+
+    /**
+     * Remote call to run against the server
+     */
+    public interface ServerCall {
+        void invoke(IRemoteServer server) throws IOException;
+    }
+
+    /**
+     * Callback for a call that could not be delivered
+     */
+    public interface FailureListener {
+        void onSendFailure(String description, IOException e);
+    }
+
+    /**
+     * Told the sequence number the server gave a drawing operation, on the sender thread
+     */
+    public interface SequenceListener {
+        void onSequenced(ISyncData operation, long sequence, long lastQueued);
+    }
+
+    /**
+     * Queued call, either a drawing operation or any other call
+     */
+    private static final class Outbound {
+        final ISyncData operation;
+        final SequenceListener sequenceListener;
+        final ServerCall call;
+        final String description;
+        final boolean fromEventThread;
+
+        Outbound(ISyncData operation, SequenceListener sequenceListener, ServerCall call, String description) {
+            this.operation = operation;
+            this.sequenceListener = sequenceListener;
+            this.call = call;
+            this.description = description;
+            this.fromEventThread = SwingUtilities.isEventDispatchThread();
+        }
+    }
+
+    // Queued by close() behind the last call
+    private static final Outbound END = new Outbound(null, null, null, null);
+
+    private final IRemoteServer server;
+    private final int batchMaxOperations;
+    private final int retryAttempts;
+    private final long retryBackoffMillis;
+    private final FailureListener failureListener;
+    private final LinkedBlockingQueue<Outbound> queue;
+    private final Thread sender;
+    private volatile boolean closed;
+
+    // Round trips the event thread no longer waits for, only touched by the sender thread
+    private long eventThreadCalls;
+    private long eventThreadBlockedNanos;
+    private long eventThreadMaxBlockedNanos;
+    private long lastStatsLog = System.nanoTime();
+    private long loggedCalls;
+
+    /**
+     * Constructor
+     *
+     * @param server             Remote server
+     * @param batchMaxOperations Maximum number of drawing operations sent in one call
+     * @param retryAttempts      Number of times an undelivered call is retried
+     * @param retryBackoffMillis Wait before the first retry, doubled for each further one
+     * @param queueCapacity      Number of calls queued before queueing waits for the sender
+     * @param failureListener    Notified when a call fails for good
+     */
+    public ServerChannel(IRemoteServer server, int batchMaxOperations, int retryAttempts, long retryBackoffMillis,
+                         int queueCapacity, FailureListener failureListener) {
+        this.server = server;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.batchMaxOperations = batchMaxOperations;
+        this.retryAttempts = retryAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.failureListener = failureListener;
+        this.sender = new Thread(this::run, "server-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Queue a drawing operation for broadcast, returns immediately
+     *
+     * @param operation        Drawing operation
+     * @param sequenceListener Told the operation's sequence number once it is delivered
+     */
+    public void sendOperation(ISyncData operation, SequenceListener sequenceListener) {
+        enqueue(new Outbound(operation, sequenceListener, null, "Error broadcasting canvas"));
+    }
+
+    /**
+     * Queue a call, returns immediately
+     *
+     * @param call        Call to deliver
+     * @param description Description used when the call fails
+     */
+    public void send(ServerCall call, String description) {
+        enqueue(new Outbound(null, null, call, description));
+    }
+
+    private void enqueue(Outbound outbound) {
+        if (closed || queue.offer(outbound)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            queue.put(outbound);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warning("Interrupted waiting for room in the server queue, dropping: " + outbound.description);
+            return;
+        }
+        LOGGER.warning(String.format("Server queue full, waited %.1f ms to queue a call",
+                (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Stop accepting calls and wait for the queued ones to be delivered
+     *
+     * @param waitMillis Maximum time to wait
+     */
+    public void close(long waitMillis) {
+        closed = true;
+        try {
+            queue.offer(END, waitMillis, TimeUnit.MILLISECONDS);
+            sender.join(waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Outbound> batch = new ArrayList<>();
+        try {
+            while (true) {
+                Outbound next = queue.poll(1, TimeUnit.MINUTES);
+                if (next == null) {
+                    logStats();
+                    continue;
+                }
+                if (next == END) {
+                    logStats();
+                    return;
+                }
+
+                if (next.operation != null) {
+                    // Take the operations queued right behind it, stopping at the first other call to keep the order
+                    batch.add(next);
+                    while (batch.size() < batchMaxOperations && queue.peek() != null && queue.peek().operation != null) {
+                        batch.add(queue.poll());
+                    }
+                    ISyncData[] operations = new ISyncData[batch.size()];
+                    for (int i = 0; i < operations.length; i++) {
+                        operations[i] = batch.get(i).operation;
+                    }
+                    try {
+                        sendBatch(batch, operations);
+                    } catch (RuntimeException e) {
+                        fail(batch, new IOException("Unexpected error sending operations", e));
+                    }
+                    batch.clear();
+                } else {
+                    batch.add(next);
+                    try {
+                        deliver(batch, next.call);
+                    } catch (RuntimeException e) {
+                        fail(batch, new IOException("Unexpected error sending a call", e));
+                    }
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send a batch of drawing operations and tell each its sequence number
+     */
+    private void sendBatch(List<Outbound> batch, ISyncData[] operations) throws InterruptedException {
+        BatchReceipt[] receipt = new BatchReceipt[1];
+        if (!deliver(batch, s -> receipt[0] = s.broadcastCanvasBatch(operations))) {
+            return;
+        }
+        long[] sequences = receipt[0] != null ? receipt[0].getSequences() : null;
+        if (sequences == null || sequences.length != operations.length) {
+            fail(batch, new IOException("Server answered " + (sequences == null ? "no" : sequences.length)
+                    + " sequence numbers for " + operations.length + " operations"));
+            return;
+        }
+        for (int i = 0; i < operations.length; i++) {
+            Outbound sent = batch.get(i);
+            if (sent.sequenceListener != null) {
+                sent.sequenceListener.onSequenced(sent.operation, sequences[i], receipt[0].getLastQueued());
+            }
+        }
+    }
+
+    /**
+     * Run a call for some queued items, retrying while the server cannot be reached
+     *
+     * @return Whether the call was delivered
+     */
+    private boolean deliver(List<Outbound> items, ServerCall call) throws InterruptedException {
+        long backoff = retryBackoffMillis;
+        for (int attempt = 0; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                call.invoke(server);
+                record(items, System.nanoTime() - start);
+                return true;
+            } catch (ConnectException | ConnectIOException e) {
+                if (attempt >= retryAttempts) {
+                    fail(items, e);
+                    return false;
+                }
+                LOGGER.log(Level.WARNING, "Server unreachable, retrying in " + backoff + " ms", e);
+                Thread.sleep(backoff);
+                backoff *= 2;
+            } catch (IOException e) {
+                fail(items, e);
+                return false;
+            }
+        }
+    }
+
+    private void fail(List<Outbound> items, IOException e) {
+        String description = items.get(0).description;
+        LOGGER.log(Level.SEVERE, description, e);
+        failureListener.onSendFailure(description, e);
+    }
+
+    /**
+     * Count each item queued from the event thread as one round trip it would have waited for
+     */
+    private void record(List<Outbound> items, long roundTripNanos) {
+        for (Outbound item : items) {
+            if (item.fromEventThread) {
+                eventThreadCalls++;
+                eventThreadBlockedNanos += roundTripNanos;
+                eventThreadMaxBlockedNanos = Math.max(eventThreadMaxBlockedNanos, roundTripNanos);
+            }
+        }
+        if (System.nanoTime() - lastStatsLog >= TimeUnit.MINUTES.toNanos(1)) {
+            logStats();
+        }
+    }
+
+    private void logStats() {
+        lastStatsLog = System.nanoTime();
+        if (eventThreadCalls == loggedCalls) {
+            return;
+        }
+        loggedCalls = eventThreadCalls;
+        LOGGER.info(String.format("Event thread spared %d remote calls, %.1f ms blocking in total, %.1f ms at most",
+                eventThreadCalls, eventThreadBlockedNanos / 1e6, eventThreadMaxBlockedNanos / 1e6));
+    }
+}
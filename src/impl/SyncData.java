@@ -1,73 +1,302 @@
 package impl;
 
+import inter.CanvasTile;
 import inter.ISyncData;
+import utils.Config;
 
 import java.awt.*;
-import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.util.Arrays;
+
+/**
+ * Immutable drawing operation, serialized with the RMI call instead of exported as a remote object.
+ * On the wire it is replaced by {@link SerialForm}, which uses {@link SyncDataCodec}.
+ */
+public final class SyncData implements ISyncData {
+    private static final long serialVersionUID = 2L;
 
-public class SyncData extends UnicastRemoteObject implements ISyncData {
     private final String drawType;
     private final Color color;
     private final Point startPos;
     private final Point endPos;
-    private final String username;
+    private final int sessionId;
     private final String text;
     private final int textSize;
     private final float eraserSize;
+    private final int[] xPoints;
+    private final int[] yPoints;
+    // Pixels of a patch, null for any other operation
+    private final CanvasTile[] tiles;
+    // Shapes removed by an object erase, null for any other operation
+    private final long[] objectIds;
+    // Position in the server's operation log, 0 until the server assigns it
+    private final long sequence;
+    // Sender's edit the operation belongs to, 0 if none
+    private final int editId;
 
     public SyncData(String drawType, Color color, Point startPos,
-                    Point endPos, String username, String text,
-                    int textSize, float eraserSize) throws RemoteException {
-        super();
+                    Point endPos, int sessionId, String text,
+                    int textSize, float eraserSize) {
         this.drawType = drawType;
         this.color = color;
-        this.startPos = startPos;
-        this.endPos = endPos;
-        this.username = username;
+        this.startPos = copyOf(startPos);
+        this.endPos = copyOf(endPos);
+        this.sessionId = sessionId;
         this.text = text;
         this.textSize = textSize;
         this.eraserSize = eraserSize;
+        this.xPoints = null;
+        this.yPoints = null;
+        this.tiles = null;
+        this.objectIds = null;
+        this.sequence = 0;
+        this.editId = 0;
+    }
+
+    /**
+     * Create a polyline chunk of a freehand or eraser stroke
+     *
+     * @param drawType   Tool type, {@link utils.Config#DRAW} or {@link utils.Config#ERASER}
+     * @param color      Stroke color
+     * @param xPoints    X coordinates, copied
+     * @param yPoints    Y coordinates, copied
+     * @param nPoints    Number of points to take from the arrays
+     * @param sessionId  Session id of the sender
+     * @param eraserSize Eraser size
+     */
+    public SyncData(String drawType, Color color, int[] xPoints, int[] yPoints,
+                    int nPoints, int sessionId, float eraserSize) {
+        this.drawType = drawType;
+        this.color = color;
+        this.xPoints = Arrays.copyOf(xPoints, nPoints);
+        this.yPoints = Arrays.copyOf(yPoints, nPoints);
+        this.startPos = new Point(xPoints[0], yPoints[0]);
+        this.endPos = new Point(xPoints[nPoints - 1], yPoints[nPoints - 1]);
+        this.sessionId = sessionId;
+        this.text = null;
+        this.textSize = 0;
+        this.eraserSize = eraserSize;
+        this.tiles = null;
+        this.objectIds = null;
+        this.sequence = 0;
+        this.editId = 0;
+    }
+
+    /**
+     * Create an operation without geometry: {@link Config#CLEAR}, {@link Config#LOAD}, {@link Config#UNDO}
+     * or {@link Config#REDO}
+     *
+     * @param drawType  Operation type
+     * @param sessionId Session id of the sender, 0 for the server
+     */
+    public SyncData(String drawType, int sessionId) {
+        this(drawType, null, null, null, sessionId, null, 0, 0);
+    }
+
+    /**
+     * Create a patch writing pixels back into the canvas, {@link Config#PATCH}
+     *
+     * @param tiles     Tiles to write, the array is copied
+     * @param sessionId Session id of the sender
+     */
+    public SyncData(CanvasTile[] tiles, int sessionId) {
+        this.drawType = Config.PATCH;
+        this.color = null;
+        this.startPos = null;
+        this.endPos = null;
+        this.sessionId = sessionId;
+        this.text = null;
+        this.textSize = 0;
+        this.eraserSize = 0;
+        this.xPoints = null;
+        this.yPoints = null;
+        this.tiles = tiles.clone();
+        this.objectIds = null;
+        this.sequence = 0;
+        this.editId = 0;
+    }
+
+    /**
+     * Create an object erase removing whole shapes, {@link Config#DELETE}
+     *
+     * @param objectIds Ids of the removed shapes, see {@link whiteBoard.drawing.SceneObject#idOf}, copied
+     * @param sessionId Session id of the sender
+     */
+    public SyncData(long[] objectIds, int sessionId) {
+        this.drawType = Config.DELETE;
+        this.color = null;
+        this.startPos = null;
+        this.endPos = null;
+        this.sessionId = sessionId;
+        this.text = null;
+        this.textSize = 0;
+        this.eraserSize = 0;
+        this.xPoints = null;
+        this.yPoints = null;
+        this.tiles = null;
+        this.objectIds = objectIds.clone();
+        this.sequence = 0;
+        this.editId = 0;
+    }
+
+    private SyncData(SyncData source, long sequence, int editId) {
+        this.drawType = source.drawType;
+        this.color = source.color;
+        this.startPos = source.startPos;
+        this.endPos = source.endPos;
+        this.sessionId = source.sessionId;
+        this.text = source.text;
+        this.textSize = source.textSize;
+        this.eraserSize = source.eraserSize;
+        this.xPoints = source.xPoints;
+        this.yPoints = source.yPoints;
+        this.tiles = source.tiles;
+        this.objectIds = source.objectIds;
+        this.sequence = sequence;
+        this.editId = editId;
+    }
+
+    /**
+     * Copy this operation with a position in the server's operation log
+     *
+     * @param sequence Sequence number
+     * @return Sequenced copy
+     */
+    public SyncData withSequence(long sequence) {
+        return new SyncData(this, sequence, editId);
+    }
+
+    /**
+     * Copy this operation as part of one of the sender's edits
+     *
+     * @param editId Edit id, unique per sender
+     * @return Tagged copy
+     */
+    public SyncData withEditId(int editId) {
+        return new SyncData(this, sequence, editId);
+    }
+
+    private static Point copyOf(Point point) {
+        return point != null ? new Point(point) : null;
     }
 
     @Override
-    public String getDrawingMode() throws RemoteException {
+    public String getDrawingMode() {
         return drawType;
     }
 
     @Override
-    public Color getColor() throws RemoteException {
+    public Color getColor() {
         return color;
     }
 
     @Override
-    public Point getStartPosition() throws RemoteException {
-        return startPos;
+    public Point getStartPosition() {
+        return copyOf(startPos);
     }
 
     @Override
-    public Point getEndPosition() throws RemoteException {
-        return endPos;
+    public Point getEndPosition() {
+        return copyOf(endPos);
     }
 
     @Override
-    public String getUsername() throws RemoteException {
-        return username;
+    public int getSessionId() {
+        return sessionId;
     }
 
     @Override
-    public float getEraserSize() throws RemoteException {
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public int getEditId() {
+        return editId;
+    }
+
+    @Override
+    public float getEraserSize() {
         return eraserSize;
     }
 
     @Override
-    public String getText() throws RemoteException {
+    public String getText() {
         return text;
     }
 
     @Override
-    public int getFontSize() throws RemoteException {
+    public int getFontSize() {
         return textSize;
     }
 
+    @Override
+    public int[] getXPoints() {
+        return xPoints != null ? xPoints.clone() : null;
+    }
+
+    @Override
+    public int[] getYPoints() {
+        return yPoints != null ? yPoints.clone() : null;
+    }
+
+    @Override
+    public <T> T readPoints(PointReader<T> reader) {
+        return xPoints != null && yPoints != null ? reader.read(xPoints, yPoints) : null;
+    }
+
+    @Override
+    public CanvasTile[] getTiles() {
+        return tiles != null ? tiles.clone() : null;
+    }
+
+    @Override
+    public long[] getObjectIds() {
+        return objectIds != null ? objectIds.clone() : null;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerialForm(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("SyncData is sent as SyncData.SerialForm");
+    }
+
+    /**
+     * Wire form of {@link SyncData}, written with {@link SyncDataCodec} instead of default serialization
+     */
+    public static final class SerialForm implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        private SyncData data;
+
+        public SerialForm() {
+        }
+
+        SerialForm(SyncData data) {
+            this.data = data;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            SyncDataCodec.write(data, out);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            data = SyncDataCodec.read(in);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return data;
+        }
+    }
+
 }
@@ -0,0 +1,434 @@
+package impl;
+
+import inter.CanvasTile;
+import inter.ISyncData;
+import utils.Config;
+
+import java.awt.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of drawing operations.
+ * <p>
+ * Layout: tool opcode (1 byte), flags (varint), sender session id (varint), sequence (varint),
+ * color as packed ARGB (4 bytes), then either a polyline (point count, first point, deltas)
+ * or a start and end point, all as zigzag varints.
+ * Color, positions, eraser size and text with its font size are only present when the flags say so.
+ * Text is its UTF-8 byte count as a varint followed by the bytes, so it has no length limit.
+ * A patch carries its tiles instead: tile count, then per tile its index, position, size and deflated pixels.
+ * An object erase carries the removed shape ids instead: id count, then per id the author's session id and
+ * edit id as varints, a few bytes per shape.
+ * The sender's edit id follows last, when the operation belongs to an edit.
+ * <p>
+ * Counts and lengths are read from untrusted input, so arrays are only allocated as far as the input
+ * turns out to hold their elements, and tiles larger than any tile of the canvas are rejected.
+ */
+public final class SyncDataCodec {
+    // Tool opcodes
+    private static final byte OP_LINE = 1;
+    private static final byte OP_CIRCLE = 2;
+    private static final byte OP_OVAL = 3;
+    private static final byte OP_RECTANGLE = 4;
+    private static final byte OP_DRAW = 5;
+    private static final byte OP_ERASER = 6;
+    private static final byte OP_TEXT = 7;
+    private static final byte OP_CLEAR = 8;
+    private static final byte OP_LOAD = 9;
+    private static final byte OP_PATCH = 10;
+    private static final byte OP_UNDO = 11;
+    private static final byte OP_REDO = 12;
+    private static final byte OP_DELETE = 13;
+
+    // Flags
+    private static final int FLAG_POLYLINE = 1;
+    private static final int FLAG_ERASER_SIZE = 1 << 1;
+    private static final int FLAG_TEXT = 1 << 2;
+    private static final int FLAG_COLOR = 1 << 3;
+    private static final int FLAG_POSITION = 1 << 4;
+    private static final int FLAG_TILES = 1 << 5;
+    private static final int FLAG_EDIT = 1 << 6;
+    private static final int FLAG_IDS = 1 << 7;
+
+    // Most elements or bytes allocated before the input shows it holds them, longer arrays grow as they are read
+    private static final int MAX_PREALLOCATED = 64 * 1024;
+    // Longest tile edge, that of the canvas tiles of a checkpoint
+    private static final int MAX_TILE_EDGE = Math.max(Config.TILE_SIZE, Config.CANVAS_TILE_SIZE);
+
+    private SyncDataCodec() {
+    }
+
+    /**
+     * Encode a drawing operation
+     *
+     * @param data Drawing operation
+     * @param out  Output
+     * @throws IOException If the tool type is unknown or writing fails
+     */
+    public static void write(ISyncData data, DataOutput out) throws IOException {
+        int[] xPoints = data.getXPoints();
+        int[] yPoints = data.getYPoints();
+        boolean polyline = xPoints != null && yPoints != null;
+        boolean hasEraserSize = Config.ERASER.equals(data.getDrawingMode());
+        boolean hasText = data.getText() != null;
+        Color color = data.getColor();
+        Point start = data.getStartPosition();
+        Point end = data.getEndPosition();
+        boolean hasPosition = !polyline && start != null && end != null;
+        CanvasTile[] tiles = data.getTiles();
+        long[] objectIds = data.getObjectIds();
+
+        int flags = (polyline ? FLAG_POLYLINE : 0)
+                | (hasPosition ? FLAG_POSITION : 0)
+                | (hasEraserSize ? FLAG_ERASER_SIZE : 0)
+                | (hasText ? FLAG_TEXT : 0)
+                | (color != null ? FLAG_COLOR : 0)
+                | (tiles != null ? FLAG_TILES : 0)
+                | (data.getEditId() != 0 ? FLAG_EDIT : 0)
+                | (objectIds != null ? FLAG_IDS : 0);
+
+        out.writeByte(toOpcode(data.getDrawingMode()));
+        writeVarInt(out, flags);
+        writeVarInt(out, data.getSessionId());
+        writeVarLong(out, data.getSequence());
+        if (color != null) {
+            out.writeInt(color.getRGB());
+        }
+
+        if (polyline) {
+            writeVarInt(out, xPoints.length);
+            int lastX = 0;
+            int lastY = 0;
+            for (int i = 0; i < xPoints.length; i++) {
+                writeSignedVarInt(out, xPoints[i] - lastX);
+                writeSignedVarInt(out, yPoints[i] - lastY);
+                lastX = xPoints[i];
+                lastY = yPoints[i];
+            }
+        } else if (hasPosition) {
+            writeSignedVarInt(out, start.x);
+            writeSignedVarInt(out, start.y);
+            writeSignedVarInt(out, end.x - start.x);
+            writeSignedVarInt(out, end.y - start.y);
+        }
+
+        if (hasEraserSize) {
+            out.writeFloat(data.getEraserSize());
+        }
+        if (hasText) {
+            byte[] text = data.getText().getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, text.length);
+            out.write(text);
+            writeVarInt(out, data.getFontSize());
+        }
+        if (tiles != null) {
+            writeTiles(out, tiles);
+        }
+        if (objectIds != null) {
+            writeVarInt(out, objectIds.length);
+            for (long objectId : objectIds) {
+                writeVarInt(out, (int) (objectId >>> 32));
+                writeVarInt(out, (int) objectId);
+            }
+        }
+        if (data.getEditId() != 0) {
+            writeVarInt(out, data.getEditId());
+        }
+    }
+
+    /**
+     * Decode a drawing operation written by {@link #write(ISyncData, DataOutput)}
+     *
+     * @param in Input
+     * @return Drawing operation
+     * @throws IOException If the data is malformed or reading fails
+     */
+    public static SyncData read(DataInput in) throws IOException {
+        String drawType = fromOpcode(in.readByte());
+        int flags = readVarInt(in);
+        int sessionId = readVarInt(in);
+        long sequence = readVarLong(in);
+        Color color = (flags & FLAG_COLOR) != 0 ? new Color(in.readInt(), true) : null;
+
+        int[] xPoints = null;
+        int[] yPoints = null;
+        Point start = null;
+        Point end = null;
+        if ((flags & FLAG_POLYLINE) != 0) {
+            int nPoints = readVarInt(in);
+            if (nPoints < 1) {
+                throw new StreamCorruptedException("Invalid polyline length: " + nPoints);
+            }
+            xPoints = new int[Math.min(nPoints, MAX_PREALLOCATED)];
+            yPoints = new int[xPoints.length];
+            int lastX = 0;
+            int lastY = 0;
+            for (int i = 0; i < nPoints; i++) {
+                if (i == xPoints.length) {
+                    xPoints = Arrays.copyOf(xPoints, grow(i, nPoints));
+                    yPoints = Arrays.copyOf(yPoints, xPoints.length);
+                }
+                lastX += readSignedVarInt(in);
+                lastY += readSignedVarInt(in);
+                xPoints[i] = lastX;
+                yPoints[i] = lastY;
+            }
+        } else if ((flags & FLAG_POSITION) != 0) {
+            int x = readSignedVarInt(in);
+            int y = readSignedVarInt(in);
+            start = new Point(x, y);
+            end = new Point(x + readSignedVarInt(in), y + readSignedVarInt(in));
+        }
+
+        float eraserSize = (flags & FLAG_ERASER_SIZE) != 0 ? in.readFloat() : 0;
+        String text = null;
+        int fontSize = 0;
+        if ((flags & FLAG_TEXT) != 0) {
+            text = new String(readBytes(in, readVarInt(in)), StandardCharsets.UTF_8);
+            fontSize = readVarInt(in);
+        }
+        CanvasTile[] tiles = (flags & FLAG_TILES) != 0 ? readTiles(in) : null;
+        long[] objectIds = (flags & FLAG_IDS) != 0 ? readObjectIds(in) : null;
+        int editId = (flags & FLAG_EDIT) != 0 ? readVarInt(in) : 0;
+
+        SyncData data;
+        if (tiles != null) {
+            data = new SyncData(tiles, sessionId);
+        } else if (objectIds != null) {
+            data = new SyncData(objectIds, sessionId);
+        } else if (xPoints != null) {
+            data = new SyncData(drawType, color, xPoints, yPoints, xPoints.length, sessionId, eraserSize);
+        } else {
+            data = new SyncData(drawType, color, start, end, sessionId, text, fontSize, eraserSize);
+        }
+        if (editId != 0) {
+            data = data.withEditId(editId);
+        }
+        return sequence != 0 ? data.withSequence(sequence) : data;
+    }
+
+    /**
+     * Write tiles as a count followed by each tile's index, position, size and deflated pixels
+     */
+    static void writeTiles(DataOutput out, CanvasTile[] tiles) throws IOException {
+        writeVarInt(out, tiles.length);
+        for (CanvasTile tile : tiles) {
+            writeVarInt(out, tile.getIndex());
+            writeVarInt(out, tile.getX());
+            writeVarInt(out, tile.getY());
+            writeVarInt(out, tile.getWidth());
+            writeVarInt(out, tile.getHeight());
+            byte[] pixels = tile.getPixels();
+            writeVarInt(out, pixels.length);
+            out.write(pixels);
+        }
+    }
+
+    static CanvasTile[] readTiles(DataInput in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid tile count: " + count);
+        }
+        List<CanvasTile> tiles = new ArrayList<>(Math.min(count, MAX_PREALLOCATED));
+        for (int i = 0; i < count; i++) {
+            int index = readVarInt(in);
+            int x = readVarInt(in);
+            int y = readVarInt(in);
+            int width = readVarInt(in);
+            int height = readVarInt(in);
+            int length = readVarInt(in);
+            if (width <= 0 || height <= 0 || width > MAX_TILE_EDGE || height > MAX_TILE_EDGE
+                    || length < 0 || length > maxDeflatedLength(width * height * Integer.BYTES)) {
+                throw new StreamCorruptedException("Invalid tile " + width + "x" + height + ", " + length + " bytes");
+            }
+            tiles.add(new CanvasTile(index, x, y, width, height, readBytes(in, length)));
+        }
+        return tiles.toArray(new CanvasTile[0]);
+    }
+
+    /**
+     * Longest deflated form of some bytes, allowing for the stored blocks incompressible data is written as
+     */
+    private static int maxDeflatedLength(int length) {
+        return length + (length >> 12) + (length >> 14) + 64;
+    }
+
+    private static long[] readObjectIds(DataInput in) throws IOException {
+        int count = readVarInt(in);
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid object id count: " + count);
+        }
+        long[] objectIds = new long[Math.min(count, MAX_PREALLOCATED)];
+        for (int i = 0; i < count; i++) {
+            if (i == objectIds.length) {
+                objectIds = Arrays.copyOf(objectIds, grow(i, count));
+            }
+            long sessionId = readVarInt(in) & 0xffffffffL;
+            objectIds[i] = sessionId << 32 | (readVarInt(in) & 0xffffffffL);
+        }
+        return objectIds;
+    }
+
+    /**
+     * Read bytes of a length taken from the input, allocating only as much as the input holds
+     *
+     * @throws IOException If the length is negative or the input ends first
+     */
+    private static byte[] readBytes(DataInput in, int length) throws IOException {
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid length: " + length);
+        }
+        byte[] bytes = new byte[Math.min(length, MAX_PREALLOCATED)];
+        for (int read = 0; read < length; read = bytes.length) {
+            if (read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, grow(read, length));
+            }
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return bytes;
+    }
+
+    /**
+     * Next size of an array being filled from the input, doubling up to the count the input claims
+     */
+    private static int grow(int size, int count) {
+        return (int) Math.min(count, 2L * size);
+    }
+
+    private static byte toOpcode(String drawType) throws IOException {
+        if (Config.LINE.equals(drawType)) {
+            return OP_LINE;
+        } else if (Config.CIRCLE.equals(drawType)) {
+            return OP_CIRCLE;
+        } else if (Config.OVAL.equals(drawType)) {
+            return OP_OVAL;
+        } else if (Config.RECTANGLE.equals(drawType)) {
+            return OP_RECTANGLE;
+        } else if (Config.DRAW.equals(drawType)) {
+            return OP_DRAW;
+        } else if (Config.ERASER.equals(drawType)) {
+            return OP_ERASER;
+        } else if (Config.TEXT.equals(drawType)) {
+            return OP_TEXT;
+        } else if (Config.CLEAR.equals(drawType)) {
+            return OP_CLEAR;
+        } else if (Config.LOAD.equals(drawType)) {
+            return OP_LOAD;
+        } else if (Config.PATCH.equals(drawType)) {
+            return OP_PATCH;
+        } else if (Config.UNDO.equals(drawType)) {
+            return OP_UNDO;
+        } else if (Config.REDO.equals(drawType)) {
+            return OP_REDO;
+        } else if (Config.DELETE.equals(drawType)) {
+            return OP_DELETE;
+        }
+        throw new StreamCorruptedException("Unknown drawing mode: " + drawType);
+    }
+
+    private static String fromOpcode(byte opcode) throws IOException {
+        switch (opcode) {
+            case OP_LINE:
+                return Config.LINE;
+            case OP_CIRCLE:
+                return Config.CIRCLE;
+            case OP_OVAL:
+                return Config.OVAL;
+            case OP_RECTANGLE:
+                return Config.RECTANGLE;
+            case OP_DRAW:
+                return Config.DRAW;
+            case OP_ERASER:
+                return Config.ERASER;
+            case OP_TEXT:
+                return Config.TEXT;
+            case OP_CLEAR:
+                return Config.CLEAR;
+            case OP_LOAD:
+                return Config.LOAD;
+            case OP_PATCH:
+                return Config.PATCH;
+            case OP_UNDO:
+                return Config.UNDO;
+            case OP_REDO:
+                return Config.REDO;
+            case OP_DELETE:
+                return Config.DELETE;
+            default:
+                throw new StreamCorruptedException("Unknown opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Write an unsigned LEB128 varint
+     */
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint
+     */
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint too long");
+    }
+
+    /**
+     * Write an unsigned LEB128 varint of up to 64 bits
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint of up to 64 bits
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint too long");
+    }
+
+    /**
+     * Write a signed value as a zigzag varint, so small negative deltas stay short
+     */
+    static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Read a zigzag varint
+     */
+    static int readSignedVarInt(DataInput in) throws IOException {
+        int raw = readVarInt(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -0,0 +1,31 @@
+package inter;
+
+import java.io.Serializable;
+
+/**
+ * Server's reply to a batch of drawing operations: the sequence numbers it gave them, and the sequence
+ * number of the last operation it had queued to the sender before them. Once the sender has applied that
+ * one, every patch it receives later was sequenced after the batch.
+ */
+public final class BatchReceipt implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] sequences;
+    private final long lastQueued;
+
+    public BatchReceipt(long[] sequences, long lastQueued) {
+        this.sequences = sequences;
+        this.lastQueued = lastQueued;
+    }
+
+    /**
+     * @return Sequence numbers of the operations, in the order sent, 0 for an object erase the server refused
+     */
+    public long[] getSequences() {
+        return sequences;
+    }
+
+    public long getLastQueued() {
+        return lastQueued;
+    }
+}
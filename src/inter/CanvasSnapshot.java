@@ -0,0 +1,26 @@
+package inter;
+
+import java.io.Serializable;
+
+/**
+ * Encoded canvas together with the sequence number of the last operation it includes
+ */
+public final class CanvasSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+    private final byte[] imageData;
+
+    public CanvasSnapshot(long sequence, byte[] imageData) {
+        this.sequence = sequence;
+        this.imageData = imageData;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte[] getImageData() {
+        return imageData;
+    }
+}
@@ -0,0 +1,223 @@
+package inter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Fixed-size square region of the canvas with its pixels deflated, used to re-sync only the parts
+ * of a canvas that differ, to undo an edit by writing back the pixels it covered, and to keep the parts
+ * of a large canvas that are not in use small.
+ * Tiles are numbered row by row, the last column and row may be smaller.
+ */
+public final class CanvasTile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Hash of an all-white tile by pixel count
+    private static final Map<Integer, Long> BLANK_HASHES = new ConcurrentHashMap<>();
+
+    private final int index;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+
+    /**
+     * Constructor
+     *
+     * @param index  Tile index
+     * @param x      Canvas x of the left edge
+     * @param y      Canvas y of the top edge
+     * @param width  Tile width
+     * @param height Tile height
+     * @param pixels Deflated ARGB pixels, row by row
+     */
+    public CanvasTile(int index, int x, int y, int width, int height, byte[] pixels) {
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Number of tile columns needed to cover a width
+     */
+    public static int columns(int width, int tileSize) {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Number of tile rows needed to cover a height
+     */
+    public static int rows(int height, int tileSize) {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Hash the pixels of a tile
+     *
+     * @param argb  ARGB pixels, row by row
+     * @param count Number of pixels
+     * @return 64-bit FNV-1a hash of the pixels
+     */
+    public static long hash(int[] argb, int count) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < count; i++) {
+            hash ^= argb[i];
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Hash an all-white tile, the hash of a tile nothing was drawn on
+     *
+     * @param count Number of pixels
+     * @return Same as {@link #hash(int[], int)} of that many white pixels
+     */
+    public static long blankHash(int count) {
+        return BLANK_HASHES.computeIfAbsent(count, n -> {
+            int[] white = new int[n];
+            Arrays.fill(white, 0xFFFFFFFF);
+            return hash(white, n);
+        });
+    }
+
+    /**
+     * Deflate the pixels of one tile
+     *
+     * @param index  Tile index
+     * @param x      Canvas x of the left edge
+     * @param y      Canvas y of the top edge
+     * @param width  Tile width
+     * @param height Tile height
+     * @param argb   ARGB pixels, row by row
+     * @return Tile with deflated pixels
+     */
+    public static CanvasTile capture(int index, int x, int y, int width, int height, int[] argb) {
+        return new CanvasTile(index, x, y, width, height, deflate(argb));
+    }
+
+    /**
+     * Copy one tile of the canvas out of an image holding only part of it
+     *
+     * @param image        Image covering the tile
+     * @param imageX       Canvas x of the image's left edge
+     * @param imageY       Canvas y of the image's top edge
+     * @param canvasWidth  Canvas width
+     * @param canvasHeight Canvas height
+     * @param index        Tile index on the canvas
+     * @param tileSize     Tile edge length
+     * @return Tile with deflated pixels
+     */
+    public static CanvasTile capture(BufferedImage image, int imageX, int imageY, int canvasWidth, int canvasHeight,
+                                     int index, int tileSize) {
+        int columns = columns(canvasWidth, tileSize);
+        int x = (index % columns) * tileSize;
+        int y = (index / columns) * tileSize;
+        int width = Math.min(tileSize, canvasWidth - x);
+        int height = Math.min(tileSize, canvasHeight - y);
+        int[] argb = image.getRGB(x - imageX, y - imageY, width, height, null, 0, width);
+        return new CanvasTile(index, x, y, width, height, deflate(argb));
+    }
+
+    private static byte[] deflate(int[] argb) {
+        ByteBuffer raw = ByteBuffer.allocate(argb.length * Integer.BYTES);
+        raw.asIntBuffer().put(argb);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode this tile's pixels into an image of the tile's size
+     *
+     * @return Tile image, to be drawn at {@link #getX()}, {@link #getY()}
+     * @throws DataFormatException If the pixel data is corrupt
+     */
+    public BufferedImage toImage() throws DataFormatException {
+        BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        tile.setRGB(0, 0, width, height, toRGB(), 0, width);
+        return tile;
+    }
+
+    /**
+     * Decode this tile's pixels
+     *
+     * @return ARGB pixels, row by row, {@link #getWidth()} per row
+     * @throws DataFormatException If the pixel data is corrupt
+     */
+    public int[] toRGB() throws DataFormatException {
+        byte[] raw = new byte[width * height * Integer.BYTES];
+        Inflater inflater = new Inflater();
+        inflater.setInput(pixels);
+        int length = 0;
+        while (length < raw.length && !inflater.finished()) {
+            int n = inflater.inflate(raw, length, raw.length - length);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            length += n;
+        }
+        inflater.end();
+        if (length != raw.length) {
+            throw new DataFormatException("Tile " + index + " has " + length + " of " + raw.length + " bytes");
+        }
+
+        int[] argb = new int[width * height];
+        ByteBuffer.wrap(raw).asIntBuffer().get(argb);
+        return argb;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Size of the deflated pixels in bytes
+     */
+    public int getCompressedSize() {
+        return pixels.length;
+    }
+
+    /**
+     * @return Deflated ARGB pixels, row by row
+     */
+    public byte[] getPixels() {
+        return pixels;
+    }
+}
@@ -9,7 +9,7 @@ import java.rmi.RemoteException;
 public interface IRemoteClient extends Remote {
     String getUsername() throws RemoteException;
 
-    void syncCanvas(ISyncData data) throws IOException;
+    void syncCanvas(ISyncData data, long previousSequence) throws IOException;
 
     void syncMessage(String message) throws IOException;
 
@@ -17,15 +17,7 @@ public interface IRemoteClient extends Remote {
 
     void syncUserList(DefaultListModel<String> tempModel) throws RemoteException;
 
-    void triggerListRefresh() throws RemoteException;
-
-    void notifySystemJoin() throws IOException;
-
-    void clearCanvasRequest() throws RemoteException;
-
-    void loadCanvasImage(byte[] imageData) throws IOException;
+    void resyncCanvas() throws IOException;
 
     void requestCanvasClose() throws RemoteException;
-
-    boolean isRoomClosed() throws RemoteException;
 }
@@ -1,20 +1,22 @@
 package inter;
 
-import javax.swing.*;
+import java.awt.*;
 import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 public interface IRemoteServer extends Remote {
-    byte[] updateImage() throws IOException;
+    CanvasSnapshot updateImage() throws IOException;
 
     void receiveImage(byte[] imageData) throws IOException;
 
     void broadcastCanvas(ISyncData remoteCanvas) throws IOException;
 
-    void registerClient(IRemoteClient remoteClient) throws RemoteException;
+    BatchReceipt broadcastCanvasBatch(ISyncData[] operations) throws IOException;
 
-    void assignManagerName(String name) throws RemoteException;
+    ISyncData[] getOperationsSince(long sequence) throws RemoteException;
+
+    JoinResult join(String username, IRemoteClient client, boolean manager) throws IOException;
 
     void kickOutUser(String name) throws IOException;
 
@@ -22,18 +24,18 @@ public interface IRemoteServer extends Remote {
 
     void broadcastMessage(String message) throws IOException;
 
-    void refreshUserList() throws RemoteException;
+    void newCanvas() throws IOException;
 
-    JTextArea getChatArea() throws RemoteException;
+    ISyncData getChangedTiles(int width, int height, long[] tileHashes) throws IOException;
 
-    void newCanvas() throws IOException;
+    ISyncData getChangedTiles(int width, int height, int[] tileIndices, long[] tileHashes) throws IOException;
+
+    void updateViewport(int sessionId, Rectangle viewport) throws RemoteException;
 
     void refreshCanvas() throws IOException;
 
     void terminateCanvas() throws IOException;
 
-    boolean hasUser(String name) throws RemoteException;
-
     boolean isWhiteboardClosed() throws RemoteException;
 
     void removeClientByManager(String userToKick, String managerID) throws RemoteException;
@@ -1,23 +1,59 @@
 package inter;
 
 import java.awt.*;
-import java.rmi.Remote;
-import java.rmi.RemoteException;
+import java.io.Serializable;
 
-public interface ISyncData extends Remote {
-    String getDrawingMode() throws RemoteException;
+/**
+ * Drawing operation exchanged between clients through the server.
+ * Implementations are passed by value, so reading them never calls back to the sender.
+ */
+public interface ISyncData extends Serializable {
+    /**
+     * Reads the points of a polyline chunk where they are held
+     */
+    @FunctionalInterface
+    interface PointReader<T> {
+        T read(int[] xPoints, int[] yPoints);
+    }
 
-    Color getColor() throws RemoteException;
+    String getDrawingMode();
 
-    Point getStartPosition() throws RemoteException;
+    Color getColor();
 
-    Point getEndPosition() throws RemoteException;
+    Point getStartPosition();
 
-    String getUsername() throws RemoteException;
+    Point getEndPosition();
 
-    float getEraserSize() throws RemoteException;
+    // Session id the server assigned to the sender
+    int getSessionId();
 
-    String getText() throws RemoteException;
-    int getFontSize() throws RemoteException;
+    // Position in the server's operation log, 0 if not yet assigned
+    long getSequence();
+
+    // Sender's edit the operation belongs to, such as all chunks of one stroke, 0 if none
+    int getEditId();
+
+    float getEraserSize();
+
+    String getText();
+
+    int getFontSize();
+
+    // X coordinates of a polyline chunk, or null for a single segment or shape
+    int[] getXPoints();
+
+    // Y coordinates of a polyline chunk, or null for a single segment or shape
+    int[] getYPoints();
+
+    // Hand the points of a polyline chunk to a reader without copying them, for drawing each time the
+    // operation is rendered. The reader must neither modify nor keep the arrays. Returns what the reader
+    // returns, or null without calling it for a single segment or shape
+    <T> T readPoints(PointReader<T> reader);
+
+    // Pixels written back by an undo or redo patch, or null for any other operation
+    CanvasTile[] getTiles();
+
+    // Ids of the shapes an object erase removes, or null for any other operation
+    long[] getObjectIds();
 
 }
@@ -0,0 +1,83 @@
+package inter;
+
+import java.io.Serializable;
+
+/**
+ * Reply to joining a board, everything a new client needs to open its window in one round trip:
+ * the session id, a thumbnail of the canvas with the sequence number it reflects, the users and the
+ * recent chat. The full-resolution canvas is fetched afterwards, tile by tile.
+ */
+public final class JoinResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Outcome of a join
+     */
+    public enum Status {
+        JOINED,
+        // Another user or the manager already has the name
+        NAME_TAKEN,
+        // The manager closed the canvas and has not opened a new one
+        ROOM_CLOSED
+    }
+
+    private final Status status;
+    private final int sessionId;
+    private final CanvasSnapshot preview;
+    private final String[] users;
+    private final String[] recentChat;
+
+    private JoinResult(Status status, int sessionId, CanvasSnapshot preview, String[] users, String[] recentChat) {
+        this.status = status;
+        this.sessionId = sessionId;
+        this.preview = preview;
+        this.users = users;
+        this.recentChat = recentChat;
+    }
+
+    public static JoinResult joined(int sessionId, CanvasSnapshot preview, String[] users, String[] recentChat) {
+        return new JoinResult(Status.JOINED, sessionId, preview, users, recentChat);
+    }
+
+    public static JoinResult rejected(Status status) {
+        return new JoinResult(status, 0, null, new String[0], new String[0]);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isJoined() {
+        return status == Status.JOINED;
+    }
+
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return PNG thumbnail of the canvas, null unless joined. Its sequence number is the last operation
+     * it shows, and the first operation sent to the client after joining follows that one.
+     */
+    public CanvasSnapshot getPreview() {
+        return preview;
+    }
+
+    /**
+     * @return Sequence number of the last operation the thumbnail reflects
+     */
+    public long getSequence() {
+        return preview != null ? preview.getSequence() : 0;
+    }
+
+    public String[] getUsers() {
+        return users;
+    }
+
+    /**
+     * @return Chat messages sent before the client joined, oldest first
+     */
+    public String[] getRecentChat() {
+        return recentChat;
+    }
+}
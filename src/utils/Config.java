@@ -6,8 +6,77 @@ public class Config {
     public static final int GUI_WIDTH = 800;
     public static final int GUI_HEIGHT = 600;
 
+    // Part of the canvas visible in a new window
+    public static final int VIEW_WIDTH = GUI_WIDTH - 210;
+    public static final int VIEW_HEIGHT = GUI_HEIGHT - 135;
+
+    // Logical canvas, scrolled within the window and stored as tiles allocated when first drawn on
+    public static final int CANVAS_WIDTH = 8192;
+    public static final int CANVAS_HEIGHT = 8192;
+    public static final int CANVAS_TILE_SIZE = 256;
+    // Canvas tiles kept inflated, 256 KB each, the least recently used beyond this are deflated
+    public static final int CANVAS_RESIDENT_TILES = 128;
+    // View scales the canvas can be zoomed out to, the first is full size
+    public static final double[] ZOOM_LEVELS = {1, 0.5, 0.25, 0.1};
+    // Clients receive live operations for the part of the canvas they show plus this margin,
+    // and tell the server at most once per interval while scrolling
+    public static final int VIEWPORT_MARGIN = 256;
+    public static final int VIEWPORT_UPDATE_MS = 100;
+
+    // Edge length of the tiles used to re-sync only the changed parts of a canvas
+    public static final int TILE_SIZE = 64;
+    // A joining client first shows a thumbnail of this size, then fetches the full-resolution tiles
+    // in batches of this many, nearest the visible area first
+    public static final int JOIN_PREVIEW_SIZE = 256;
+    public static final int JOIN_TILE_BATCH = 256;
+
     public static final float DEFAULT_STROKE = 3.0f;
 
+    // Outbound queue per connected client on the server
+    public static final int CLIENT_QUEUE_CAPACITY = 1024;
+    public static final long CLIENT_CALL_TIMEOUT_MS = 5000;
+    // Chat messages replayed to a joining client, and the interval joins are gathered in before the
+    // clients receive the join announcements and the new user list
+    public static final int CHAT_HISTORY_SIZE = 100;
+    public static final int JOIN_UPDATE_MS = 100;
+
+    // Freehand and eraser strokes are sent as polyline chunks
+    public static final int STROKE_BATCH_MAX_POINTS = 32;
+    public static final int STROKE_BATCH_INTERVAL_MS = 16;
+
+    // Outbound queue from a client to the server
+    public static final int SEND_BATCH_MAX_OPERATIONS = 64;
+    public static final int SEND_RETRY_ATTEMPTS = 3;
+    public static final long SEND_RETRY_BACKOFF_MS = 100;
+    // Calls held while the server is slow, a few seconds of freehand drawing
+    public static final int SEND_QUEUE_CAPACITY = 4096;
+
+    // Minimum time between two repaints of the canvas, one display frame
+    public static final int RENDER_FRAME_MS = 16;
+    // Whether canvas paint times are measured, set with -Dwhiteboard.paintStats=true
+    public static final boolean PAINT_STATS = Boolean.getBoolean("whiteboard.paintStats");
+    // Time between two canvas paint time summaries
+    public static final long PAINT_STATS_INTERVAL_MS = 10_000;
+
+    // Operation journal, one directory per board under JOURNAL_DIRECTORY
+    public static final String JOURNAL_DIRECTORY = "journal";
+    public static final int JOURNAL_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long JOURNAL_SYNC_INTERVAL_MS = 50;
+
+    // A canvas checkpoint is taken and the log compacted after this many operations or logged bytes
+    public static final int SNAPSHOT_EVERY_OPERATIONS = 10_000;
+    public static final long SNAPSHOT_EVERY_BYTES = 4 * 1024 * 1024;
+
+    // Undo history per client, and the checkpoints the server keeps to rebuild regions from.
+    // Retained checkpoints besides the newest beyond the memory budget are kept in temporary files
+    public static final int UNDO_MAX_EDITS = 500;
+    public static final int UNDO_RETAINED_CHECKPOINTS = 4;
+    public static final long UNDO_MEMORY_BYTES = 8 * 1024 * 1024;
+    public static final int UNDO_REBUILD_THREADS = 2;
+
+    // Shapes a client retains before the oldest are drawn into the scene background
+    public static final int SCENE_MAX_OBJECTS = 50_000;
+
     public static final String LINE = "Line";
     public static final String CIRCLE = "Circle";
     public static final String OVAL = "Oval";
@@ -15,6 +84,19 @@ public class Config {
     public static final String DRAW = "Draw";
     public static final String ERASER = "Eraser";
     public static final String TEXT = "Text";
+    // Removes whole shapes under the eraser path instead of painting over them
+    public static final String OBJECT_ERASER = "Object Eraser";
+
+    // Canvas-wide operations in the operation log
+    public static final String CLEAR = "Clear";
+    public static final String LOAD = "Load";
+    // Pixels of a region rebuilt by the server after an undo or redo
+    public static final String PATCH = "Patch";
+    // Requests to take back or restore one of the sender's edits
+    public static final String UNDO = "Undo";
+    public static final String REDO = "Redo";
+    // Removal of whole shapes by id, sent once per object erase gesture
+    public static final String DELETE = "Delete";
 
     public static void PaneRMIError() {
         JOptionPane.showMessageDialog(null, "RMI Connect Fail", "Warning", JOptionPane.WARNING_MESSAGE);
@@ -1,43 +1,143 @@
 package whiteBoard.command;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
+/**
+ * Undo history of the local user's edits, by edit id. Undo and redo are carried out by the server,
+ * which drops or restores the edit's operations and rebuilds the tiles they touched, so only this
+ * user's edits are taken back whatever others drew since. Beyond the maximum number of edits the
+ * oldest are forgotten.
+ * <p>
+ * An edit being undone or redone is held aside until the server answers, and only then moves to the
+ * other history. If the server refuses, it goes back where it was. One undo or redo is asked at a time.
+ * <p>
+ * Edits are recorded on the event and render threads, answers arrive on the channel's sender thread,
+ * and the history is cleared on the render thread when the canvas is replaced.
+ */
 public class CommandManager {
-    private final Stack<DrawCommand> undoStack = new Stack<>();
-    private final Stack<DrawCommand> redoStack = new Stack<>();
+    private final Deque<Integer> undoStack = new ArrayDeque<>();
+    private final Deque<Integer> redoStack = new ArrayDeque<>();
+    private final int maxEdits;
+    // Edit the server has not answered for yet, 0 if none
+    private int pendingEditId;
+    private boolean pendingUndo;
+    // Edits recorded since the pending one was asked, the pending edit goes back below them
+    private int recordedSincePending;
 
-    public void executeCommand(DrawCommand command) {
-        command.execute();
-        undoStack.push(command);
+    /**
+     * Constructor
+     *
+     * @param maxEdits Number of edits that can be undone
+     */
+    public CommandManager(int maxEdits) {
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * Add a finished edit
+     *
+     * @param editId Edit id the edit's operations are tagged with
+     */
+    public synchronized void record(int editId) {
+        undoStack.push(editId);
         redoStack.clear();
+        if (pendingEditId != 0) {
+            recordedSincePending++;
+        }
+        trim();
+    }
+
+    /**
+     * Drop an edit the server refused, it was never drawn on other canvases
+     *
+     * @param editId Edit id
+     */
+    public synchronized void discard(int editId) {
+        undoStack.remove(editId);
+        redoStack.remove(editId);
+    }
+
+    public synchronized boolean canUndo() {
+        return pendingEditId == 0 && !undoStack.isEmpty();
     }
 
-    public boolean canUndo() {
-        return !undoStack.isEmpty();
+    public synchronized boolean canRedo() {
+        return pendingEditId == 0 && !redoStack.isEmpty();
     }
 
-    public boolean canRedo() {
-        return !redoStack.isEmpty();
+    /**
+     * Take the latest edit aside while the server undoes it
+     *
+     * @return Edit id of the latest edit, to ask the server to undo, or 0 if there is none or an answer
+     * is still awaited
+     */
+    public synchronized int undo() {
+        return takePending(undoStack, true);
     }
 
-    public void undo() {
-        if (canUndo()) {
-            DrawCommand command = undoStack.pop();
-            command.undo();
-            redoStack.push(command);
+    /**
+     * Take the latest undone edit aside while the server redoes it
+     *
+     * @return Edit id of the latest undone edit, to ask the server to redo, or 0 if there is none or an
+     * answer is still awaited
+     */
+    public synchronized int redo() {
+        return takePending(redoStack, false);
+    }
+
+    private int takePending(Deque<Integer> stack, boolean undo) {
+        if (pendingEditId != 0 || stack.isEmpty()) {
+            return 0;
         }
+        pendingEditId = stack.pop();
+        pendingUndo = undo;
+        recordedSincePending = 0;
+        return pendingEditId;
     }
 
-    public void redo() {
-        if (canRedo()) {
-            DrawCommand command = redoStack.pop();
-            command.execute();
-            undoStack.push(command);
+    /**
+     * Settle the pending undo or redo with the server's answer. An accepted undo can be redone and an
+     * accepted redo undone, a refused one goes back to be tried again.
+     *
+     * @param editId   Edit id the answer is for
+     * @param accepted Whether the server carried it out
+     */
+    public synchronized void answered(int editId, boolean accepted) {
+        if (editId == 0 || editId != pendingEditId) {
+            // Nothing was asked, or it was forgotten meanwhile by a clear
+            return;
+        }
+        pendingEditId = 0;
+        if (accepted != pendingUndo) {
+            // Back on the undo history, below any edit recorded since it was asked
+            Deque<Integer> newer = new ArrayDeque<>();
+            for (int i = 0; i < recordedSincePending && !undoStack.isEmpty(); i++) {
+                newer.push(undoStack.pop());
+            }
+            undoStack.push(editId);
+            while (!newer.isEmpty()) {
+                undoStack.push(newer.pop());
+            }
+            trim();
+        } else if (recordedSincePending == 0) {
+            // An edit recorded since drops what could be redone, this one as well
+            redoStack.push(editId);
         }
     }
 
-    public void clear() {
+    /**
+     * Forget all edits, when the whole canvas is replaced
+     */
+    public synchronized void clear() {
         undoStack.clear();
         redoStack.clear();
+        pendingEditId = 0;
+    }
+
+    private void trim() {
+        while (undoStack.size() > maxEdits) {
+            undoStack.removeLast();
+        }
     }
 }
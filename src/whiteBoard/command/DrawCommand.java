@@ -1,7 +1,10 @@
 package whiteBoard.command;
 
-public interface DrawCommand {
-    void execute();
+import java.awt.*;
 
-    void undo();
+public interface DrawCommand {
+    /**
+     * @return Area of the canvas that changed
+     */
+    Rectangle execute();
 }
@@ -1,10 +1,11 @@
 package whiteBoard.command;
 
+import whiteBoard.drawing.DrawingResources;
 import whiteBoard.drawing.DrawingTool;
+import whiteBoard.drawing.SyncDataRenderer;
 import whiteBoard.ui.IDrawPanelView;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 
 public class ShapeDrawCommand implements DrawCommand {
     private final IDrawPanelView drawPanel;
@@ -13,7 +14,6 @@ public class ShapeDrawCommand implements DrawCommand {
     private final Point endPoint;
     private final Color color;
     private final float strokeSize;
-    private final BufferedImage previousState;
 
     public ShapeDrawCommand(IDrawPanelView drawPanel, DrawingTool tool,
                             Point startPoint, Point endPoint,
@@ -24,17 +24,16 @@ public class ShapeDrawCommand implements DrawCommand {
         this.endPoint = endPoint;
         this.color = color;
         this.strokeSize = strokeSize;
-        this.previousState = drawPanel.getCanvasImage();
     }
 
     @Override
-    public void execute() {
-        tool.draw(drawPanel.getGraphics2D(), startPoint, endPoint, color, strokeSize);
-        drawPanel.repaint();
+    public Rectangle execute() {
+        Rectangle area = SyncDataRenderer.bounds(tool.getToolType(), startPoint, endPoint, strokeSize);
+        drawPanel.getCanvas().paint(area, g2d -> {
+            g2d.setStroke(DrawingResources.stroke(strokeSize));
+            tool.draw(g2d, startPoint, endPoint, color, strokeSize);
+        });
+        // Repainted by whoever runs the command, only where the shape landed
+        return area;
     }
-
-    @Override
-    public void undo() {
-//        drawPanel.restoreCanvas(previousState);
-    }
-}
\ No newline at end of file
+}
@@ -8,7 +8,7 @@ public class CircleTool implements DrawingTool {
     @Override
     public void draw(Graphics2D g2d, Point startPoint, Point endPoint, Color color, float strokeSize) {
         g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeSize));
+        g2d.setStroke(DrawingResources.stroke(strokeSize));
 
         int radius = (int) Math.sqrt(Math.pow(endPoint.x - startPoint.x, 2) + Math.pow(endPoint.y - startPoint.y, 2)) / 2;
         int centerX = (startPoint.x + endPoint.x) / 2;
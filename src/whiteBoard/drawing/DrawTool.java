@@ -8,10 +8,17 @@ public class DrawTool implements DrawingTool {
     @Override
     public void draw(Graphics2D g2d, Point startPoint, Point endPoint, Color color, float strokeSize) {
         g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeSize));
+        g2d.setStroke(DrawingResources.stroke(strokeSize));
         g2d.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
     }
 
+    @Override
+    public void drawPolyline(Graphics2D g2d, int[] xPoints, int[] yPoints, int nPoints, Color color, float strokeSize) {
+        g2d.setColor(color);
+        g2d.setStroke(DrawingResources.polylineStroke(strokeSize));
+        g2d.drawPolyline(xPoints, yPoints, nPoints);
+    }
+
     @Override
     public String getToolType() {
         return Config.DRAW;
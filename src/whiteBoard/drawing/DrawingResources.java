@@ -0,0 +1,76 @@
+package whiteBoard.drawing;
+
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Strokes and fonts shared by all tools, created once per size instead of on every draw.
+ * Both are immutable, so any thread may use them. Sizes that are not whole numbers, or are larger
+ * than the cache, are created on each call.
+ */
+public final class DrawingResources {
+    private static final int MAX_CACHED_SIZE = 512;
+    private static final String FONT_NAME = "Arial";
+
+    private static final AtomicReferenceArray<BasicStroke> STROKES = new AtomicReferenceArray<>(MAX_CACHED_SIZE + 1);
+    private static final AtomicReferenceArray<BasicStroke> POLYLINE_STROKES = new AtomicReferenceArray<>(MAX_CACHED_SIZE + 1);
+    private static final AtomicReferenceArray<Font> FONTS = new AtomicReferenceArray<>(MAX_CACHED_SIZE + 1);
+
+    private DrawingResources() {
+    }
+
+    /**
+     * @param width Line width
+     * @return Default stroke of that width
+     */
+    public static BasicStroke stroke(float width) {
+        int index = cacheIndex(width);
+        if (index < 0) {
+            return new BasicStroke(width);
+        }
+        BasicStroke stroke = STROKES.get(index);
+        if (stroke == null) {
+            stroke = new BasicStroke(width);
+            STROKES.set(index, stroke);
+        }
+        return stroke;
+    }
+
+    /**
+     * @param width Line width
+     * @return Stroke of that width for connected freehand points
+     */
+    public static BasicStroke polylineStroke(float width) {
+        int index = cacheIndex(width);
+        if (index < 0) {
+            return new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND);
+        }
+        BasicStroke stroke = POLYLINE_STROKES.get(index);
+        if (stroke == null) {
+            stroke = new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND);
+            POLYLINE_STROKES.set(index, stroke);
+        }
+        return stroke;
+    }
+
+    /**
+     * @param size Point size
+     * @return Text font of that size
+     */
+    public static Font font(int size) {
+        if (size < 0 || size > MAX_CACHED_SIZE) {
+            return new Font(FONT_NAME, Font.PLAIN, size);
+        }
+        Font font = FONTS.get(size);
+        if (font == null) {
+            font = new Font(FONT_NAME, Font.PLAIN, size);
+            FONTS.set(size, font);
+        }
+        return font;
+    }
+
+    private static int cacheIndex(float width) {
+        int index = (int) width;
+        return index == width && index >= 0 && index <= MAX_CACHED_SIZE ? index : -1;
+    }
+}
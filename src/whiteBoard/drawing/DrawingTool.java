@@ -5,5 +5,18 @@ import java.awt.*;
 public interface DrawingTool {
     void draw(Graphics2D g2d, Point startPoint, Point endPoint, Color color, float strokeSize);
 
+    /**
+     * Draw a connected run of points, by default as one segment per pair of points
+     */
+    default void drawPolyline(Graphics2D g2d, int[] xPoints, int[] yPoints, int nPoints, Color color, float strokeSize) {
+        Point start = new Point();
+        Point end = new Point();
+        for (int i = 1; i < nPoints; i++) {
+            start.setLocation(xPoints[i - 1], yPoints[i - 1]);
+            end.setLocation(xPoints[i], yPoints[i]);
+            draw(g2d, start, end, color, strokeSize);
+        }
+    }
+
     String getToolType();
 }
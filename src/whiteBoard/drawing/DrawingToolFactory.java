@@ -7,8 +7,11 @@ import java.util.Map;
 import java.util.function.Supplier;
 
 
+/**
+ * Registry of drawing tools. Tools keep no state, so each is created once and shared by every caller.
+ */
 public class DrawingToolFactory {
-    private static final Map<String, Supplier<DrawingTool>> toolSuppliers = new HashMap<>();
+    private static final Map<String, DrawingTool> tools = new HashMap<>();
 
     static {
         registerTool(Config.LINE, LineTool::new);
@@ -21,21 +24,10 @@ public class DrawingToolFactory {
     }
 
     public static void registerTool(String toolType, Supplier<DrawingTool> supplier) {
-        toolSuppliers.put(toolType, supplier);
+        tools.put(toolType, supplier.get());
     }
 
     public static DrawingTool getTool(String toolType) {
-        Supplier<DrawingTool> supplier = toolSuppliers.get(toolType);
-        return supplier != null ? supplier.get() : null;
-    }
-
-
-    public static TextTool getTextTool(String text, int fontSize) {
-        TextTool textTool = (TextTool) getTool(Config.TEXT);
-        if (textTool != null) {
-            textTool.setText(text);
-            textTool.setFontSize(fontSize);
-        }
-        return textTool;
+        return tools.get(toolType);
     }
 }
\ No newline at end of file
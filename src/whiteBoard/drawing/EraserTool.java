@@ -11,12 +11,24 @@ public class EraserTool implements DrawingTool {
 
         g2d.setColor(Color.WHITE);
 
-        g2d.setStroke(new BasicStroke(strokeSize * 2));
+        g2d.setStroke(DrawingResources.stroke(strokeSize * 2));
         g2d.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
 
         g2d.setColor(originalColor);
     }
 
+    @Override
+    public void drawPolyline(Graphics2D g2d, int[] xPoints, int[] yPoints, int nPoints, Color color, float strokeSize) {
+        Color originalColor = g2d.getColor();
+
+        g2d.setColor(Color.WHITE);
+
+        g2d.setStroke(DrawingResources.polylineStroke(strokeSize * 2));
+        g2d.drawPolyline(xPoints, yPoints, nPoints);
+
+        g2d.setColor(originalColor);
+    }
+
     @Override
     public String getToolType() {
         return Config.ERASER;
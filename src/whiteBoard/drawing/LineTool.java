@@ -8,7 +8,7 @@ public class LineTool implements DrawingTool {
     @Override
     public void draw(Graphics2D g2d, Point startPoint, Point endPoint, Color color, float strokeSize) {
         g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(Config.DEFAULT_STROKE));
+        g2d.setStroke(DrawingResources.stroke(Config.DEFAULT_STROKE));
         g2d.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
     }
 
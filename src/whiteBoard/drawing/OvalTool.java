@@ -8,7 +8,7 @@ public class OvalTool implements DrawingTool {
     @Override
     public void draw(Graphics2D g2d, Point startPoint, Point endPoint, Color color, float strokeSize) {
         g2d.setColor(color);
-        g2d.setStroke(new BasicStroke(strokeSize));
+        g2d.setStroke(DrawingResources.stroke(strokeSize));
 
         int x = Math.min(startPoint.x, endPoint.x);
         int y = Math.min(startPoint.y, endPoint.y);
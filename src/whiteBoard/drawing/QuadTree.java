@@ -0,0 +1,169 @@
+package whiteBoard.drawing;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Quadtree over the bounding boxes of scene shapes, updated incrementally as shapes are added and removed.
+ * <p>
+ * A shape is kept in the smallest node that fully contains its bounds, so a shape straddling a split line
+ * stays in the parent. A node splits once it holds more than a few shapes, and its children are dropped
+ * again when they are all empty. Shapes outside the tree's area are kept in the root.
+ */
+class QuadTree {
+    private static final int MAX_ITEMS = 16;
+    private static final int MAX_DEPTH = 12;
+
+    private static final class Node {
+        final Rectangle area;
+        final int depth;
+        final List<SceneObject> items = new ArrayList<>();
+        Node[] children;
+
+        Node(Rectangle area, int depth) {
+            this.area = area;
+            this.depth = depth;
+        }
+
+        /**
+         * @return Child fully containing the bounds, or null if there is none
+         */
+        Node childFor(Rectangle bounds) {
+            if (children == null) {
+                return null;
+            }
+            for (Node child : children) {
+                if (child.area.contains(bounds)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void split() {
+            int halfWidth = area.width / 2;
+            int halfHeight = area.height / 2;
+            children = new Node[]{
+                    new Node(new Rectangle(area.x, area.y, halfWidth, halfHeight), depth + 1),
+                    new Node(new Rectangle(area.x + halfWidth, area.y, area.width - halfWidth, halfHeight), depth + 1),
+                    new Node(new Rectangle(area.x, area.y + halfHeight, halfWidth, area.height - halfHeight), depth + 1),
+                    new Node(new Rectangle(area.x + halfWidth, area.y + halfHeight,
+                            area.width - halfWidth, area.height - halfHeight), depth + 1)};
+            for (int i = items.size() - 1; i >= 0; i--) {
+                Node child = childFor(items.get(i).bounds());
+                if (child != null) {
+                    child.items.add(items.remove(i));
+                }
+            }
+        }
+
+        boolean isEmptyLeaf() {
+            return children == null && items.isEmpty();
+        }
+    }
+
+    private final Node root;
+    private int size;
+
+    /**
+     * Constructor
+     *
+     * @param area Area the tree divides, usually the canvas
+     */
+    QuadTree(Rectangle area) {
+        this.root = new Node(new Rectangle(area), 0);
+    }
+
+    void insert(SceneObject object) {
+        Rectangle bounds = object.bounds();
+        Node node = root;
+        Node child;
+        while ((child = node.childFor(bounds)) != null) {
+            node = child;
+        }
+        node.items.add(object);
+        size++;
+        if (node.children == null && node.items.size() > MAX_ITEMS && node.depth < MAX_DEPTH
+                && node.area.width > 1 && node.area.height > 1) {
+            node.split();
+        }
+    }
+
+    /**
+     * @return Whether the shape was in the tree
+     */
+    boolean remove(SceneObject object) {
+        if (!remove(root, object, object.bounds())) {
+            return false;
+        }
+        size--;
+        return true;
+    }
+
+    private static boolean remove(Node node, SceneObject object, Rectangle bounds) {
+        Node child = node.childFor(bounds);
+        if (child != null) {
+            if (!remove(child, object, bounds)) {
+                return false;
+            }
+            collapse(node);
+            return true;
+        }
+        for (int i = 0; i < node.items.size(); i++) {
+            if (node.items.get(i) == object) {
+                node.items.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop a node's children once none of them holds anything
+     */
+    private static void collapse(Node node) {
+        for (Node child : node.children) {
+            if (!child.isEmptyLeaf()) {
+                return;
+            }
+        }
+        node.children = null;
+    }
+
+    /**
+     * Visit every shape whose bounds intersect a region, in no particular order
+     *
+     * @param region  Area in canvas coordinates
+     * @param visitor Receives each shape found
+     */
+    void query(Rectangle region, Consumer<SceneObject> visitor) {
+        query(root, region, visitor);
+    }
+
+    private static void query(Node node, Rectangle region, Consumer<SceneObject> visitor) {
+        for (SceneObject object : node.items) {
+            if (object.bounds().intersects(region)) {
+                visitor.accept(object);
+            }
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                if (child.area.intersects(region)) {
+                    query(child, region, visitor);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        root.items.clear();
+        root.children = null;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
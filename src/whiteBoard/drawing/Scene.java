@@ -0,0 +1,223 @@
+package whiteBoard.drawing;
+
+import inter.ISyncData;
+import utils.Config;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Retained scene of the shapes on a canvas, in drawing order, over a background canvas.
+ * Shapes are indexed by id and by a quadtree over their bounds, so removing a shape and finding the
+ * shapes in a region do not scan the whole scene.
+ * <p>
+ * The canvas image is a cache of the scene: shapes are still drawn into it as they arrive, and when
+ * part of the scene changes only the region it covered is redrawn, from the background and the shapes
+ * overlapping the region. The background is whatever cannot be described by shapes, an opened image or a
+ * joined snapshot, and is blank until then.
+ * <p>
+ * Beyond the maximum number of shapes the oldest half is drawn into the background and forgotten.
+ * Not thread-safe, clients only touch it on the render thread.
+ */
+public class Scene {
+    private final int maxObjects;
+    private int width;
+    private int height;
+    // Null while blank
+    private TiledRaster background;
+    // Shapes by drawing order
+    private final TreeMap<Long, SceneObject> objects = new TreeMap<>();
+    private final Map<Long, List<SceneObject>> objectsById = new HashMap<>();
+    private final QuadTree index;
+    private long nextOrder;
+
+    /**
+     * Constructor, starts blank
+     *
+     * @param width      Canvas width
+     * @param height     Canvas height
+     * @param maxObjects Number of shapes kept before the oldest are drawn into the background
+     */
+    public Scene(int width, int height, int maxObjects) {
+        this.width = width;
+        this.height = height;
+        this.maxObjects = Math.max(2, maxObjects);
+        this.index = new QuadTree(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * Drop all shapes and start over from a canvas
+     *
+     * @param canvas New background, copied, or null for a blank canvas
+     */
+    public void reset(TiledRaster canvas) {
+        objects.clear();
+        objectsById.clear();
+        index.clear();
+        if (canvas == null) {
+            background = null;
+            return;
+        }
+        width = canvas.getWidth();
+        height = canvas.getHeight();
+        background = canvas.copy();
+    }
+
+    /**
+     * Add the shape an operation drew, on top of the others
+     *
+     * @param operation Operation already drawn into the canvas
+     * @return The new shape
+     */
+    public SceneObject add(ISyncData operation) {
+        SceneObject object = new SceneObject(operation, nextOrder++);
+        objects.put(object.getOrder(), object);
+        objectsById.computeIfAbsent(object.getId(), id -> new ArrayList<>(1)).add(object);
+        index.insert(object);
+        if (objects.size() > maxObjects) {
+            flattenOldest(objects.size() / 2);
+        }
+        return object;
+    }
+
+    /**
+     * Remove every shape with an id
+     *
+     * @param id Object id
+     * @return Area the removed shapes covered, to be redrawn, or null if there were none
+     */
+    public Rectangle remove(long id) {
+        List<SceneObject> removed = objectsById.remove(id);
+        if (removed == null) {
+            return null;
+        }
+        Rectangle area = null;
+        for (SceneObject object : removed) {
+            objects.remove(object.getOrder());
+            index.remove(object);
+            if (area == null) {
+                area = object.getBounds();
+            } else {
+                area.add(object.bounds());
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Move shapes above all others, keeping their order among themselves
+     *
+     * @param raised Shapes of this scene, in drawing order
+     */
+    public void raise(List<SceneObject> raised) {
+        for (SceneObject object : raised) {
+            if (objects.remove(object.getOrder()) == null) {
+                continue;
+            }
+            index.remove(object);
+            SceneObject moved = new SceneObject(object.getOperation(), nextOrder++);
+            objects.put(moved.getOrder(), moved);
+            index.insert(moved);
+            List<SceneObject> sameId = objectsById.get(object.getId());
+            sameId.set(sameId.indexOf(object), moved);
+        }
+    }
+
+    /**
+     * @param region Area in canvas coordinates
+     * @return Shapes overlapping the area, in drawing order
+     */
+    public List<SceneObject> query(Rectangle region) {
+        List<SceneObject> found = new ArrayList<>();
+        index.query(region, found::add);
+        found.sort(Comparator.comparingLong(SceneObject::getOrder));
+        return found;
+    }
+
+    /**
+     * Find the shapes an eraser path segment touches, for an object erase
+     *
+     * @param x1     Segment start x
+     * @param y1     Segment start y
+     * @param x2     Segment end x
+     * @param y2     Segment end y
+     * @param radius Eraser radius
+     * @return Erasable shapes whose drawn outline the segment touches
+     */
+    public List<SceneObject> hitTest(int x1, int y1, int x2, int y2, float radius) {
+        Rectangle swept = new Rectangle(x1, y1, 0, 0);
+        swept.add(x2, y2);
+        int reach = (int) Math.ceil(radius) + 1;
+        swept.grow(reach, reach);
+
+        List<SceneObject> hits = new ArrayList<>();
+        index.query(swept, object -> {
+            if (object.isErasable() && object.hits(x1, y1, x2, y2, radius)) {
+                hits.add(object);
+            }
+        });
+        return hits;
+    }
+
+    /**
+     * Redraw a region of the canvas from the scene. Only the shapes overlapping the region are drawn,
+     * so the cost follows the number of affected shapes rather than the canvas size.
+     *
+     * @param canvas Canvas to redraw
+     * @param region Area to redraw
+     */
+    public void render(TiledRaster canvas, Rectangle region) {
+        List<SceneObject> found = query(region);
+        canvas.paint(region, g2d -> {
+            Shape clip = g2d.getClip();
+            g2d.setClip(region);
+            try {
+                if (background != null) {
+                    background.drawTo(g2d, region);
+                } else {
+                    g2d.setPaint(Color.WHITE);
+                    g2d.fill(region);
+                }
+                for (SceneObject object : found) {
+                    object.render(g2d);
+                }
+            } finally {
+                g2d.setClip(clip);
+            }
+        });
+    }
+
+    /**
+     * @return Number of shapes in the scene
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * Draw the oldest shapes into the background and drop them
+     */
+    private void flattenOldest(int count) {
+        if (background == null) {
+            background = new TiledRaster(width, height, Config.CANVAS_TILE_SIZE, Config.CANVAS_RESIDENT_TILES);
+        }
+        Iterator<SceneObject> oldest = objects.values().iterator();
+        for (int i = 0; i < count && oldest.hasNext(); i++) {
+            SceneObject object = oldest.next();
+            background.paint(object.bounds(), object::render);
+            oldest.remove();
+            index.remove(object);
+            List<SceneObject> sameId = objectsById.get(object.getId());
+            sameId.remove(object);
+            if (sameId.isEmpty()) {
+                objectsById.remove(object.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package whiteBoard.drawing;
+
+import inter.ISyncData;
+import utils.Config;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * One shape of the retained scene: a line, rectangle, oval, circle, text, a polyline chunk of a freehand
+ * or eraser stroke, or a patch of pixels rebuilt by the server. The geometry is the operation that drew it.
+ * <p>
+ * The id is the same on every client: the author's session id and the edit id of the user action that
+ * drew the shape. All chunks of one stroke share their stroke's id.
+ */
+public final class SceneObject {
+    private final long id;
+    // Position in drawing order within its scene
+    private final long order;
+    private final ISyncData operation;
+    private final Rectangle bounds;
+
+    /**
+     * Constructor
+     *
+     * @param operation Operation that drew the shape, its session id and edit id make up the object id
+     * @param order     Position in drawing order
+     */
+    SceneObject(ISyncData operation, long order) {
+        this.id = idOf(operation.getSessionId(), operation.getEditId());
+        this.order = order;
+        this.operation = operation;
+        this.bounds = SyncDataRenderer.bounds(operation);
+    }
+
+    /**
+     * @param sessionId Session id of the author
+     * @param editId    Edit id the author tagged the operation with
+     * @return Object id
+     */
+    public static long idOf(int sessionId, int editId) {
+        return (long) sessionId << 32 | (editId & 0xffffffffL);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return Tool type of the shape
+     */
+    public String getKind() {
+        return operation.getDrawingMode();
+    }
+
+    long getOrder() {
+        return order;
+    }
+
+    public ISyncData getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return Area the shape can touch, a copy the caller may modify
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * @return Area the shape can touch, shared, for queries within the package
+     */
+    Rectangle bounds() {
+        return bounds;
+    }
+
+    /**
+     * @return Whether an object erase can remove the shape. Eraser strokes and patches are only pixels,
+     * and shapes without an edit id cannot be told apart
+     */
+    boolean isErasable() {
+        String kind = getKind();
+        return operation.getEditId() != 0 && !Config.ERASER.equals(kind) && !Config.PATCH.equals(kind);
+    }
+
+    /**
+     * Test whether the shape's drawn outline comes within a radius of a segment
+     *
+     * @param x1     Segment start x
+     * @param y1     Segment start y
+     * @param x2     Segment end x
+     * @param y2     Segment end y
+     * @param radius Distance counted as a hit
+     * @return Whether the segment touches the shape
+     */
+    boolean hits(int x1, int y1, int x2, int y2, float radius) {
+        Shape outline = outline();
+        if (outline == null) {
+            return false;
+        }
+        // Text is hit anywhere in its box, everything else only on its stroke
+        Shape drawn = Config.TEXT.equals(getKind()) ? outline
+                : DrawingResources.stroke(Config.DEFAULT_STROKE).createStrokedShape(outline);
+
+        // Walk the segment in steps no longer than the radius, testing a square around each step
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        int steps = Math.max(1, (int) Math.ceil(length / Math.max(1, radius)));
+        for (int i = 0; i <= steps; i++) {
+            double x = x1 + (x2 - x1) * (double) i / steps;
+            double y = y1 + (y2 - y1) * (double) i / steps;
+            if (drawn.intersects(x - radius, y - radius, radius * 2, radius * 2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Geometry the tools draw for the shape, or null if it has none
+     */
+    private Shape outline() {
+        String kind = getKind();
+        Path2D.Float polyline = operation.readPoints((xPoints, yPoints) -> {
+            Path2D.Float path = new Path2D.Float();
+            path.moveTo(xPoints[0], yPoints[0]);
+            for (int i = 1; i < xPoints.length; i++) {
+                path.lineTo(xPoints[i], yPoints[i]);
+            }
+            return path;
+        });
+        if (polyline != null) {
+            return polyline;
+        }
+        if (Config.TEXT.equals(kind)) {
+            return bounds;
+        }
+        Point start = operation.getStartPosition();
+        Point end = operation.getEndPosition();
+        if (start == null || end == null) {
+            return null;
+        }
+        int x = Math.min(start.x, end.x);
+        int y = Math.min(start.y, end.y);
+        int width = Math.abs(start.x - end.x);
+        int height = Math.abs(start.y - end.y);
+        if (Config.LINE.equals(kind)) {
+            return new Line2D.Float(start, end);
+        } else if (Config.RECTANGLE.equals(kind)) {
+            return new Rectangle2D.Float(x, y, width, height);
+        } else if (Config.OVAL.equals(kind)) {
+            return new Ellipse2D.Float(x, y, width, height);
+        } else if (Config.CIRCLE.equals(kind)) {
+            // Same geometry as CircleTool
+            int radius = (int) Math.sqrt(Math.pow(end.x - start.x, 2) + Math.pow(end.y - start.y, 2)) / 2;
+            return new Ellipse2D.Float((start.x + end.x) / 2 - radius, (start.y + end.y) / 2 - radius,
+                    radius * 2, radius * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Draw the shape
+     *
+     * @param g2d Canvas graphics
+     */
+    void render(Graphics2D g2d) {
+        SyncDataRenderer.render(g2d, operation);
+    }
+}
@@ -0,0 +1,179 @@
+package whiteBoard.drawing;
+
+import inter.CanvasTile;
+import inter.ISyncData;
+import utils.Config;
+
+import java.awt.*;
+import java.util.zip.DataFormatException;
+
+/**
+ * Renders a received drawing operation, shared by clients and the server's canvas copy
+ */
+public final class SyncDataRenderer {
+
+    private SyncDataRenderer() {
+    }
+
+    /**
+     * Draw an operation onto a tiled canvas, touching only the tiles within its bounds
+     *
+     * @param canvas Canvas
+     * @param data   Drawing operation
+     * @return Whether the operation was drawn, false if its tool is unknown or its pixel data is corrupt
+     */
+    public static boolean render(TiledRaster canvas, ISyncData data) {
+        String drawingMode = data.getDrawingMode();
+        if (Config.PATCH.equals(drawingMode)) {
+            // Pixels are written as they are rather than drawn once per canvas tile
+            try {
+                for (CanvasTile tile : data.getTiles()) {
+                    canvas.drawTile(tile);
+                }
+                return true;
+            } catch (DataFormatException e) {
+                return false;
+            }
+        }
+        if (DrawingToolFactory.getTool(drawingMode) == null) {
+            return false;
+        }
+        canvas.paint(bounds(data), g2d -> render(g2d, data));
+        return true;
+    }
+
+    /**
+     * Draw an operation onto a canvas
+     *
+     * @param g2d  Canvas graphics
+     * @param data Drawing operation
+     * @return Whether the operation was drawn, false if its tool is unknown
+     */
+    public static boolean render(Graphics2D g2d, ISyncData data) {
+        String drawingMode = data.getDrawingMode();
+        if (Config.PATCH.equals(drawingMode)) {
+            return renderPatch(g2d, data.getTiles());
+        }
+        DrawingTool tool = DrawingToolFactory.getTool(drawingMode);
+        if (tool == null) {
+            return false;
+        }
+
+        // Render a whole chunk in one pass, with the points as held since this runs once per tile
+        float strokeSize = Config.ERASER.equals(drawingMode) ? data.getEraserSize() : Config.DEFAULT_STROKE;
+        Boolean polyline = data.readPoints((xPoints, yPoints) -> {
+            tool.drawPolyline(g2d, xPoints, yPoints, xPoints.length, data.getColor(), strokeSize);
+            return Boolean.TRUE;
+        });
+        if (polyline != null) {
+            return true;
+        }
+        if (Config.ERASER.equals(drawingMode)) {
+            float eraserSize = data.getEraserSize();
+            g2d.setStroke(DrawingResources.stroke(eraserSize));
+            tool.draw(g2d, data.getStartPosition(), data.getEndPosition(), Color.WHITE, eraserSize);
+        } else if (Config.TEXT.equals(drawingMode)) {
+            ((TextTool) tool).drawText(g2d, data.getText(), data.getFontSize(), data.getStartPosition(), data.getColor());
+        } else {
+            g2d.setStroke(DrawingResources.stroke(Config.DEFAULT_STROKE));
+            tool.draw(g2d, data.getStartPosition(), data.getEndPosition(), data.getColor(), Config.DEFAULT_STROKE);
+        }
+        return true;
+    }
+
+    /**
+     * Write the pixels of a patch back into a canvas
+     *
+     * @return Whether the patch was drawn, false if its pixel data is corrupt
+     */
+    private static boolean renderPatch(Graphics2D g2d, CanvasTile[] tiles) {
+        try {
+            for (CanvasTile tile : tiles) {
+                g2d.drawImage(tile.toImage(), tile.getX(), tile.getY(), null);
+            }
+            return true;
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the area an operation can touch, including its stroke width
+     *
+     * @param data Drawing operation
+     * @return Bounding box in canvas coordinates
+     */
+    public static Rectangle bounds(ISyncData data) {
+        String drawingMode = data.getDrawingMode();
+        CanvasTile[] tiles = data.getTiles();
+        Rectangle polyline = data.readPoints((xPoints, yPoints) -> {
+            Rectangle bounds = new Rectangle(xPoints[0], yPoints[0], 0, 0);
+            for (int i = 1; i < xPoints.length; i++) {
+                bounds.add(xPoints[i], yPoints[i]);
+            }
+            return bounds;
+        });
+        if (tiles != null) {
+            // Negative size, so the first tile added replaces it
+            Rectangle bounds = new Rectangle(-1, -1);
+            for (CanvasTile tile : tiles) {
+                bounds.add(new Rectangle(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()));
+            }
+            return bounds;
+        } else if (polyline != null) {
+            return pad(polyline, drawingMode, data.getEraserSize());
+        } else if (Config.TEXT.equals(drawingMode)) {
+            // Text is anchored at its baseline, allow a full font size above it and half below
+            Point position = data.getStartPosition();
+            int fontSize = data.getFontSize();
+            int length = data.getText() != null ? data.getText().length() : 0;
+            return new Rectangle(position.x, position.y - fontSize, length * fontSize + 1, fontSize * 3 / 2 + 1);
+        }
+        return bounds(drawingMode, data.getStartPosition(), data.getEndPosition(), data.getEraserSize());
+    }
+
+    /**
+     * Get the area a shape or stroke segment between two points can touch, including its stroke width
+     *
+     * @param drawingMode Tool type, other than text
+     * @param start       Start point
+     * @param end         End point
+     * @param eraserSize  Eraser size, only used by the eraser
+     * @return Bounding box in canvas coordinates
+     */
+    public static Rectangle bounds(String drawingMode, Point start, Point end, float eraserSize) {
+        return bounds(drawingMode, start.x, start.y, end.x, end.y, eraserSize, new Rectangle());
+    }
+
+    /**
+     * Get the area a shape or stroke segment between two points can touch, into an existing rectangle
+     *
+     * @param drawingMode Tool type, other than text
+     * @param x1          Start x
+     * @param y1          Start y
+     * @param x2          End x
+     * @param y2          End y
+     * @param eraserSize  Eraser size, only used by the eraser
+     * @param bounds      Rectangle to store the bounding box in
+     * @return The given rectangle
+     */
+    public static Rectangle bounds(String drawingMode, int x1, int y1, int x2, int y2, float eraserSize, Rectangle bounds) {
+        if (Config.CIRCLE.equals(drawingMode)) {
+            int radius = (int) Math.sqrt(Math.pow(x2 - x1, 2) + Math.pow(y2 - y1, 2)) / 2;
+            bounds.setBounds((x1 + x2) / 2 - radius, (y1 + y2) / 2 - radius, radius * 2, radius * 2);
+        } else {
+            bounds.setBounds(x1, y1, 0, 0);
+            bounds.add(x2, y2);
+        }
+        return pad(bounds, drawingMode, eraserSize);
+    }
+
+    private static Rectangle pad(Rectangle bounds, String drawingMode, float eraserSize) {
+        // Eraser strokes are drawn at twice the eraser size. Square caps and mitred corners
+        // reach out up to width / sqrt(2) on a diagonal, not just half the width
+        float strokeSize = Config.ERASER.equals(drawingMode) ? eraserSize * 2 : Config.DEFAULT_STROKE;
+        int pad = (int) Math.ceil(strokeSize * 0.75f) + 2;
+        bounds.grow(pad, pad);
+        return bounds;
+    }
+}
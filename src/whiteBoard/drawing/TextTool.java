@@ -4,32 +4,36 @@ import utils.Config;
 
 import java.awt.*;
 
+/**
+ * Text tool. Like every tool it keeps no state, so one instance is shared by all threads,
+ * the text and font size are passed with each call.
+ */
 public class TextTool implements DrawingTool {
-    private String text;
-    private int fontSize;
-
-    public TextTool() {
-        this.text = "";
-        this.fontSize = 30;
-    }
-
-    public void setText(String text) {
-        this.text = text;
-    }
-
-    public void setFontSize(int fontSize) {
-        this.fontSize = fontSize;
-    }
 
+    /**
+     * Text needs its content to be drawn, see {@link #drawText}
+     */
     @Override
     public void draw(Graphics2D g2d, Point startPoint, Point endPoint, Color color, float strokeSize) {
+    }
+
+    /**
+     * Draw text with its baseline starting at a point
+     *
+     * @param g2d      Canvas graphics
+     * @param text     Text to draw
+     * @param fontSize Font size
+     * @param position Start of the baseline
+     * @param color    Text color
+     */
+    public void drawText(Graphics2D g2d, String text, int fontSize, Point position, Color color) {
         if (text == null || text.isEmpty()) {
             return;
         }
 
         g2d.setColor(color);
-        g2d.setFont(new Font("Arial", Font.PLAIN, fontSize));
-        g2d.drawString(text, startPoint.x, startPoint.y);
+        g2d.setFont(DrawingResources.font(fontSize));
+        g2d.drawString(text, position.x, position.y);
     }
 
     @Override
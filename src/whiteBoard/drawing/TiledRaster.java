@@ -0,0 +1,710 @@
+package whiteBoard.drawing;
+
+import inter.CanvasTile;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * Canvas many times larger than the window, stored as fixed-size square tiles that are only allocated the
+ * first time something is drawn on them. Untouched tiles take no memory and read as white, so memory
+ * follows the area actually drawn rather than the canvas size. A drawing whose area covers a blank tile
+ * without changing any of its pixels, such as a diagonal line across it, leaves the tile unallocated.
+ * <p>
+ * At most a fixed number of tiles are kept as images. Beyond that the least recently used tile is deflated,
+ * and inflated again the next time it is drawn on or painted. The deflated copy is kept while the tile is
+ * unchanged, so evicting or snapshotting an unchanged tile again costs nothing.
+ * <p>
+ * A pyramid of reduced copies at 1/2, 1/4, ... scale serves zoomed-out painting and thumbnails. Each level
+ * is a tiled raster of its own, and a level's pixels under a changed tile are only reduced again from the
+ * level above the next time that part of the level is read.
+ * <p>
+ * Thread-safe, every method locks the raster and painters run under the lock.
+ */
+public class TiledRaster {
+    // Smallest edge a tile is reduced to in the pyramid
+    private static final int MIN_REDUCED_TILE = 4;
+    private static final int MIN_RESIDENT_LEVEL_TILES = 4;
+    // Colour bits of a white pixel, the top byte of an RGB image's data elements is not defined
+    private static final int WHITE_RGB = 0xFFFFFF;
+
+    /**
+     * Draws onto the canvas, in canvas coordinates
+     */
+    @FunctionalInterface
+    public interface Painter {
+        void paint(Graphics2D g2d);
+    }
+
+    private static final class Tile {
+        final int index;
+        final Rectangle area;
+        // Null while the tile is only held deflated
+        BufferedImage image;
+        Graphics2D g2d;
+        // Deflated pixels, current unless the image was drawn on since
+        CanvasTile compressed;
+        boolean modified;
+
+        Tile(int index, Rectangle area) {
+            this.index = index;
+            this.area = area;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int maxResidentTiles;
+    // Allocated tiles by index
+    private final TreeMap<Integer, Tile> tiles = new TreeMap<>();
+    // Tiles held as images, least recently used first
+    private final LinkedHashMap<Integer, Tile> resident = new LinkedHashMap<>(16, 0.75f, true);
+    // Reduced copies, level k at 1 / 2^(k + 1) scale, and per level the indices of the tiles whose reduced
+    // pixels are out of date
+    private final TiledRaster[] levels;
+    private final BitSet[] staleLevels;
+    // White image blank tiles are drawn on first, becomes the tile if the drawing changed it
+    private BufferedImage scratch;
+    private Graphics2D scratchGraphics;
+    private int[] scratchPixels;
+
+    /**
+     * Constructor, starts blank
+     *
+     * @param width            Canvas width
+     * @param height           Canvas height
+     * @param tileSize         Tile edge length
+     * @param maxResidentTiles Number of tiles kept as images before the least recently used is deflated
+     */
+    public TiledRaster(int width, int height, int tileSize, int maxResidentTiles) {
+        this(width, height, tileSize, maxResidentTiles, true);
+    }
+
+    private TiledRaster(int width, int height, int tileSize, int maxResidentTiles, boolean pyramid) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = CanvasTile.columns(width, tileSize);
+        this.maxResidentTiles = Math.max(1, maxResidentTiles);
+
+        // Halve until the whole canvas fits one tile, or a tile would shrink below a few pixels
+        int count = 0;
+        while (pyramid && Math.max(width, height) >> count > tileSize && tileSize >> (count + 1) >= MIN_REDUCED_TILE) {
+            count++;
+        }
+        levels = new TiledRaster[count];
+        staleLevels = new BitSet[count];
+        for (int level = 0; level < count; level++) {
+            int shift = level + 1;
+            levels[level] = new TiledRaster(reduce(width, shift), reduce(height, shift), tileSize,
+                    Math.max(MIN_RESIDENT_LEVEL_TILES, this.maxResidentTiles / 4), false);
+            staleLevels[level] = new BitSet();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Drop every tile, back to a blank canvas
+     */
+    public synchronized void clear() {
+        for (Tile tile : resident.values()) {
+            tile.g2d.dispose();
+        }
+        resident.clear();
+        tiles.clear();
+        for (int level = 0; level < levels.length; level++) {
+            levels[level].clear();
+            staleLevels[level].clear();
+        }
+    }
+
+    /**
+     * Draw onto every tile overlapping an area, allocating the blank tiles the drawing changes.
+     * The painter runs once per tile, with graphics translated so it draws in canvas coordinates.
+     *
+     * @param area    Area the drawing can touch, not modified
+     * @param painter Drawing to run
+     */
+    public synchronized void paint(Rectangle area, Painter painter) {
+        Rectangle clipped = clip(area);
+        if (clipped.isEmpty()) {
+            return;
+        }
+        forEachIndex(clipped, index -> {
+            if (!tiles.containsKey(index)) {
+                paintBlank(index, painter);
+                return;
+            }
+            Tile tile = open(index);
+            markModified(tile);
+            painter.paint(tile.g2d);
+        });
+    }
+
+    /**
+     * Draw on a blank tile through the scratch image, allocating the tile only if some pixel changed
+     */
+    private void paintBlank(int index, Painter painter) {
+        Rectangle area = tileArea(index);
+        if (scratch == null) {
+            scratch = inflate(new Tile(index, new Rectangle(0, 0, tileSize, tileSize)));
+            scratchGraphics = scratch.createGraphics();
+            scratchGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (scratchPixels == null) {
+                scratchPixels = new int[tileSize * tileSize];
+            }
+        }
+        // Clipped to the tile, so a tile at the canvas edge is drawn as on an image of its own size
+        scratchGraphics.setTransform(new AffineTransform());
+        scratchGraphics.setClip(0, 0, area.width, area.height);
+        scratchGraphics.translate(-area.x, -area.y);
+        painter.paint(scratchGraphics);
+
+        // Reading the data elements rather than the colours is a plain copy, and keeps the image accelerated
+        int pixels = area.width * area.height;
+        scratch.getRaster().getDataElements(0, 0, area.width, area.height, scratchPixels);
+        for (int i = 0; i < pixels; i++) {
+            if ((scratchPixels[i] & WHITE_RGB) != WHITE_RGB) {
+                Tile tile = new Tile(index, area);
+                tiles.put(index, tile);
+                attach(tile, takeScratch(area));
+                markModified(open(index));
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Image of the tile drawn on the scratch image, the scratch image itself for a whole tile
+     */
+    private BufferedImage takeScratch(Rectangle area) {
+        if (area.width == tileSize && area.height == tileSize) {
+            BufferedImage image = scratch;
+            scratchGraphics.dispose();
+            scratch = null;
+            scratchGraphics = null;
+            return image;
+        }
+        BufferedImage image = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        image.getRaster().setDataElements(0, 0, area.width, area.height, scratchPixels);
+        scratchGraphics.setTransform(new AffineTransform());
+        scratchGraphics.setClip(null);
+        scratchGraphics.setPaint(Color.WHITE);
+        scratchGraphics.fillRect(0, 0, area.width, area.height);
+        return image;
+    }
+
+    /**
+     * Paint part of the canvas, blank tiles as white
+     *
+     * @param g    Graphics in canvas coordinates
+     * @param area Area to paint
+     */
+    public synchronized void drawTo(Graphics g, Rectangle area) {
+        Rectangle clipped = clip(area);
+        if (clipped.isEmpty()) {
+            return;
+        }
+        forEachIndex(clipped, index -> {
+            Tile tile = tiles.get(index);
+            if (tile == null) {
+                g.setColor(Color.WHITE);
+                Rectangle blank = tileArea(index);
+                g.fillRect(blank.x, blank.y, blank.width, blank.height);
+            } else {
+                g.drawImage(open(index).image, tile.area.x, tile.area.y, null);
+            }
+        });
+    }
+
+    /**
+     * Copy part of the canvas into a new image
+     *
+     * @param area Area to copy
+     * @return Image of the area
+     */
+    public BufferedImage toImage(Rectangle area) {
+        BufferedImage image = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setPaint(Color.WHITE);
+            g2d.fillRect(0, 0, area.width, area.height);
+            g2d.translate(-area.x, -area.y);
+            drawTo(g2d, area);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Read the pixels of an area, blank tiles as white
+     *
+     * @param x      Area x
+     * @param y      Area y
+     * @param w      Area width
+     * @param h      Area height
+     * @param buffer Buffer of at least w * h ints, or null for a new one
+     * @return ARGB pixels row by row
+     */
+    public synchronized int[] getRGB(int x, int y, int w, int h, int[] buffer) {
+        int[] argb = buffer != null ? buffer : new int[w * h];
+        Rectangle area = new Rectangle(x, y, w, h);
+        forEachIndex(clip(area), index -> {
+            Tile tile = tiles.get(index);
+            Rectangle part = tileArea(index).intersection(area);
+            int offset = (part.y - y) * w + (part.x - x);
+            if (tile == null) {
+                for (int row = 0; row < part.height; row++) {
+                    Arrays.fill(argb, offset + row * w, offset + row * w + part.width, 0xFFFFFFFF);
+                }
+            } else {
+                open(index).image.getRGB(part.x - tile.area.x, part.y - tile.area.y, part.width, part.height,
+                        argb, offset, w);
+            }
+        });
+        return argb;
+    }
+
+    /**
+     * Write pixels into an area, clipped to the canvas
+     *
+     * @param x        Area x
+     * @param y        Area y
+     * @param w        Area width
+     * @param h        Area height
+     * @param argb     ARGB pixels
+     * @param offset   Index of the area's first pixel
+     * @param scanSize Pixels per row in the array
+     */
+    public synchronized void setRGB(int x, int y, int w, int h, int[] argb, int offset, int scanSize) {
+        Rectangle area = new Rectangle(x, y, w, h);
+        forEachIndex(clip(area), index -> {
+            Tile tile = open(index);
+            Rectangle part = tile.area.intersection(area);
+            tile.image.setRGB(part.x - tile.area.x, part.y - tile.area.y, part.width, part.height,
+                    argb, offset + (part.y - y) * scanSize + (part.x - x), scanSize);
+            markModified(tile);
+        });
+    }
+
+    /**
+     * @return Whether nothing was drawn on any tile overlapping the area since the last clear
+     */
+    public synchronized boolean isBlank(int x, int y, int w, int h) {
+        boolean[] blank = {true};
+        forEachIndex(clip(new Rectangle(x, y, w, h)), index -> blank[0] &= !tiles.containsKey(index));
+        return blank[0];
+    }
+
+    /**
+     * @return Area covered by the allocated tiles, empty if the canvas is blank
+     */
+    public synchronized Rectangle getDrawnBounds() {
+        Rectangle bounds = new Rectangle();
+        for (Tile tile : tiles.values()) {
+            if (bounds.isEmpty()) {
+                bounds.setBounds(tile.area);
+            } else {
+                bounds.add(tile.area);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Get every allocated tile deflated, deflating the tiles changed since they were last deflated
+     *
+     * @return Tiles in index order
+     */
+    public synchronized List<CanvasTile> getTiles() {
+        List<CanvasTile> compressed = new ArrayList<>(tiles.size());
+        for (Tile tile : tiles.values()) {
+            compressed.add(compress(tile));
+        }
+        return compressed;
+    }
+
+    /**
+     * Write a deflated tile into the canvas. A tile on this raster's grid is kept deflated until it is used.
+     *
+     * @param tile Tile, from {@link #getTiles()} of a raster with the same tile size or any other source
+     * @throws DataFormatException If the tile is not on the grid and its pixels are corrupt
+     */
+    public synchronized void putTile(CanvasTile tile) throws DataFormatException {
+        int index = indexOf(tile.getX(), tile.getY());
+        Rectangle expected = tile.getX() >= 0 && tile.getY() >= 0
+                && tile.getX() % tileSize == 0 && tile.getY() % tileSize == 0
+                && tile.getX() < width && tile.getY() < height ? tileArea(index) : null;
+        if (expected != null && expected.width == tile.getWidth() && expected.height == tile.getHeight()) {
+            Tile old = resident.remove(index);
+            if (old != null) {
+                old.g2d.dispose();
+            }
+            Tile replacement = new Tile(index, expected);
+            replacement.compressed = tile;
+            tiles.put(index, replacement);
+            markStale(index);
+        } else {
+            drawTile(tile);
+        }
+    }
+
+    /**
+     * Write a deflated tile's pixels into the canvas, clipped to the canvas bounds
+     *
+     * @param tile Tile of any size and position
+     * @throws DataFormatException If the tile's pixels are corrupt
+     */
+    public synchronized void drawTile(CanvasTile tile) throws DataFormatException {
+        setRGB(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight(), tile.toRGB(), 0, tile.getWidth());
+    }
+
+    /**
+     * Copy one tile of a grid out of the canvas
+     *
+     * @param index    Tile index on the grid
+     * @param gridSize Tile edge length of the grid
+     * @return Tile with deflated pixels
+     */
+    public CanvasTile captureTile(int index, int gridSize) {
+        Rectangle area = gridArea(index, gridSize);
+        return CanvasTile.capture(index, area.x, area.y, area.width, area.height,
+                getRGB(area.x, area.y, area.width, area.height, null));
+    }
+
+    /**
+     * Hash every tile of a grid
+     *
+     * @param gridSize Tile edge length of the grid
+     * @return Tile hashes, row by row
+     */
+    public long[] hashTiles(int gridSize) {
+        long[] hashes = new long[CanvasTile.columns(width, gridSize) * CanvasTile.rows(height, gridSize)];
+        int[] buffer = new int[gridSize * gridSize];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hashTile(i, gridSize, buffer);
+        }
+        return hashes;
+    }
+
+    /**
+     * Hash one tile of a grid. Tiles nothing was drawn on are not read, so hashing a mostly empty
+     * canvas costs little however large it is.
+     *
+     * @param index    Tile index on the grid
+     * @param gridSize Tile edge length of the grid
+     * @param buffer   Scratch buffer of at least gridSize * gridSize ints
+     * @return Same as {@link CanvasTile#hash(int[], int)} of the tile's ARGB pixels
+     */
+    public synchronized long hashTile(int index, int gridSize, int[] buffer) {
+        Rectangle area = gridArea(index, gridSize);
+        if (isBlank(area.x, area.y, area.width, area.height)) {
+            return CanvasTile.blankHash(area.width * area.height);
+        }
+        return CanvasTile.hash(getRGB(area.x, area.y, area.width, area.height, buffer), area.width * area.height);
+    }
+
+    private Rectangle gridArea(int index, int gridSize) {
+        int columns = CanvasTile.columns(width, gridSize);
+        int x = (index % columns) * gridSize;
+        int y = (index / columns) * gridSize;
+        return new Rectangle(x, y, Math.min(gridSize, width - x), Math.min(gridSize, height - y));
+    }
+
+    /**
+     * Copy the canvas without deflating anything, so the lock is held only as long as copying pixels takes.
+     * Deflated tiles that are still current are shared, tiles drawn on since they were last deflated are
+     * copied as images and deflated when the copy's {@link #getTiles()} is called.
+     *
+     * @return Copy, holding as images only the tiles changed since they were last deflated
+     */
+    public synchronized TiledRaster copy() {
+        TiledRaster copy = new TiledRaster(width, height, tileSize, maxResidentTiles, levels.length > 0);
+        for (Tile tile : tiles.values()) {
+            Tile shared = new Tile(tile.index, tile.area);
+            if (tile.image != null && (tile.modified || tile.compressed == null)) {
+                attach(shared, new BufferedImage(tile.image.getColorModel(), tile.image.copyData(null), false, null));
+                shared.modified = true;
+                copy.resident.put(tile.index, shared);
+            } else {
+                shared.compressed = tile.compressed;
+            }
+            copy.tiles.put(tile.index, shared);
+            copy.markStale(tile.index);
+        }
+        return copy;
+    }
+
+    /**
+     * Paint part of the canvas reduced, from the pyramid level closest above the scale so no more than
+     * half of the pixels read are dropped
+     *
+     * @param g     Graphics in view coordinates, canvas coordinates times the scale
+     * @param area  Area to paint in canvas coordinates
+     * @param scale View scale, at most 1
+     */
+    public synchronized void drawScaled(Graphics2D g, Rectangle area, double scale) {
+        int level = 0;
+        while (level < levels.length && scale * (2 << level) <= 1 + 1e-9) {
+            level++;
+        }
+        Graphics2D scaled = (Graphics2D) g.create();
+        try {
+            scaled.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            scaled.scale(scale * (1 << level), scale * (1 << level));
+            if (level == 0) {
+                drawTo(scaled, area);
+            } else {
+                refresh(level, area);
+                levels[level - 1].drawTo(scaled, reduce(area, level));
+            }
+        } finally {
+            scaled.dispose();
+        }
+    }
+
+    /**
+     * Get the whole canvas reduced to fit a size, read from the pyramid
+     *
+     * @param maxSize Largest edge of the thumbnail
+     * @return Thumbnail
+     */
+    public synchronized BufferedImage getThumbnail(int maxSize) {
+        double scale = Math.min(1, (double) maxSize / Math.max(width, height));
+        BufferedImage thumbnail = new BufferedImage(Math.max(1, (int) Math.ceil(width * scale)),
+                Math.max(1, (int) Math.ceil(height * scale)), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = thumbnail.createGraphics();
+        try {
+            g2d.setPaint(Color.WHITE);
+            g2d.fillRect(0, 0, thumbnail.getWidth(), thumbnail.getHeight());
+            drawScaled(g2d, new Rectangle(0, 0, width, height), scale);
+        } finally {
+            g2d.dispose();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * @return Number of pyramid levels below full resolution
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    private void markModified(Tile tile) {
+        tile.modified = true;
+        markStale(tile.index);
+    }
+
+    private void markStale(int index) {
+        for (BitSet stale : staleLevels) {
+            stale.set(index);
+        }
+    }
+
+    /**
+     * Reduce again the pixels of a pyramid level under the changed tiles overlapping an area,
+     * refreshing the level above first
+     *
+     * @param level Level, 1 for half scale
+     * @param area  Area in canvas coordinates
+     */
+    private void refresh(int level, Rectangle area) {
+        BitSet stale = staleLevels[level - 1];
+        Rectangle clipped = clip(area);
+        if (stale.isEmpty() || clipped.isEmpty()) {
+            return;
+        }
+        if (level > 1) {
+            refresh(level - 1, clipped);
+        }
+        TiledRaster source = level == 1 ? this : levels[level - 2];
+        TiledRaster target = levels[level - 1];
+        forEachIndex(clipped, index -> {
+            if (!stale.get(index)) {
+                return;
+            }
+            stale.clear(index);
+            Rectangle from = reduce(tileArea(index), level - 1);
+            if (source.isBlank(from.x, from.y, from.width, from.height)) {
+                return;
+            }
+            Rectangle to = reduce(tileArea(index), level);
+            target.setRGB(to.x, to.y, to.width, to.height,
+                    halve(source.getRGB(from.x, from.y, from.width, from.height, null), from, to), 0, to.width);
+        });
+    }
+
+    /**
+     * Average each 2x2 block of pixels, the last row and column may cover fewer pixels
+     */
+    private static int[] halve(int[] argb, Rectangle from, Rectangle to) {
+        int[] reduced = new int[to.width * to.height];
+        for (int y = 0; y < to.height; y++) {
+            int y0 = (to.y + y) * 2 - from.y;
+            int y1 = Math.min(y0 + 1, from.height - 1);
+            for (int x = 0; x < to.width; x++) {
+                int x0 = (to.x + x) * 2 - from.x;
+                int x1 = Math.min(x0 + 1, from.width - 1);
+                int a = argb[y0 * from.width + x0];
+                int b = argb[y0 * from.width + x1];
+                int c = argb[y1 * from.width + x0];
+                int d = argb[y1 * from.width + x1];
+                int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+                int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+                int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                reduced[y * to.width + x] = 0xFF000000 | red << 16 | green << 8 | blue;
+            }
+        }
+        return reduced;
+    }
+
+    /**
+     * Divide a length by 2^shift, rounding up
+     */
+    private static int reduce(int length, int shift) {
+        return (length + (1 << shift) - 1) >> shift;
+    }
+
+    /**
+     * Smallest area of a level covering an area of the canvas
+     */
+    private static Rectangle reduce(Rectangle area, int shift) {
+        int x = area.x >> shift;
+        int y = area.y >> shift;
+        return new Rectangle(x, y, reduce(area.x + area.width, shift) - x, reduce(area.y + area.height, shift) - y);
+    }
+
+    /**
+     * @return Number of allocated tiles
+     */
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return Number of tiles held as images
+     */
+    public synchronized int getResidentTileCount() {
+        return resident.size();
+    }
+
+    /**
+     * Get a tile as an image, allocating a white one or inflating a deflated one, and deflate the least
+     * recently used tiles beyond the limit
+     */
+    private Tile open(int index) {
+        Tile tile = tiles.get(index);
+        if (tile == null) {
+            tile = new Tile(index, tileArea(index));
+            tiles.put(index, tile);
+        }
+        if (tile.image == null) {
+            attach(tile, inflate(tile));
+        }
+        resident.put(index, tile);
+
+        Iterator<Tile> eldest = resident.values().iterator();
+        while (resident.size() > maxResidentTiles) {
+            Tile evicted = eldest.next();
+            compress(evicted);
+            evicted.g2d.dispose();
+            evicted.g2d = null;
+            evicted.image = null;
+            eldest.remove();
+        }
+        return tile;
+    }
+
+    private static void attach(Tile tile, BufferedImage image) {
+        tile.image = image;
+        tile.g2d = image.createGraphics();
+        tile.g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        tile.g2d.translate(-tile.area.x, -tile.area.y);
+    }
+
+    private BufferedImage inflate(Tile tile) {
+        if (tile.compressed != null) {
+            try {
+                return tile.compressed.toImage();
+            } catch (DataFormatException e) {
+                // Only tiles read from a corrupt snapshot get here, start the tile over rather than fail every draw
+                tile.compressed = null;
+            }
+        }
+        BufferedImage image = new BufferedImage(tile.area.width, tile.area.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(Color.WHITE);
+        g2d.fillRect(0, 0, tile.area.width, tile.area.height);
+        g2d.dispose();
+        return image;
+    }
+
+    private CanvasTile compress(Tile tile) {
+        if (tile.image != null && (tile.modified || tile.compressed == null)) {
+            tile.compressed = CanvasTile.capture(tile.image, tile.area.x, tile.area.y, width, height,
+                    tile.index, tileSize);
+            tile.modified = false;
+        }
+        return tile.compressed;
+    }
+
+    private interface IndexVisitor {
+        void visit(int index);
+    }
+
+    /**
+     * Visit the index of every tile overlapping an area already clipped to the canvas
+     */
+    private void forEachIndex(Rectangle clipped, IndexVisitor visitor) {
+        if (clipped.isEmpty()) {
+            return;
+        }
+        int firstColumn = clipped.x / tileSize;
+        int lastColumn = (clipped.x + clipped.width - 1) / tileSize;
+        int firstRow = clipped.y / tileSize;
+        int lastRow = (clipped.y + clipped.height - 1) / tileSize;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                visitor.visit(row * columns + column);
+            }
+        }
+    }
+
+    private Rectangle clip(Rectangle area) {
+        return area.intersection(new Rectangle(0, 0, width, height));
+    }
+
+    private int indexOf(int x, int y) {
+        return (y / tileSize) * columns + x / tileSize;
+    }
+
+    private Rectangle tileArea(int index) {
+        int x = (index % columns) * tileSize;
+        int y = (index / columns) * tileSize;
+        return new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+    }
+}
@@ -0,0 +1,136 @@
+package whiteBoard.ui;
+
+import inter.CanvasTile;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+/**
+ * Low-resolution picture of the server's canvas a joining client shows while it fetches the
+ * full-resolution tiles. Tiles not fetched yet are painted from the picture, scaled up, and the
+ * tiles are handed out for fetching nearest a point first.
+ * Fetched on the render thread and painted on the event thread, so access is synchronized.
+ */
+class CanvasPreview {
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    // Tiles still painted from the picture
+    private final BitSet pending = new BitSet();
+
+    /**
+     * Constructor, every tile starts pending
+     *
+     * @param image    Picture of the whole canvas
+     * @param width    Canvas width
+     * @param height   Canvas height
+     * @param tileSize Edge length of the tiles fetched, see {@link CanvasTile}
+     */
+    CanvasPreview(BufferedImage image, int width, int height, int tileSize) {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = CanvasTile.columns(width, tileSize);
+        pending.set(0, columns * CanvasTile.rows(height, tileSize));
+    }
+
+    /**
+     * Pick the pending tiles to fetch next
+     *
+     * @param centre Point in canvas coordinates the nearest tiles are picked around
+     * @param count  Largest number of tiles to pick
+     * @return Indices of the nearest pending tiles, nearest first, empty once all are fetched
+     */
+    synchronized int[] nextBatch(Point centre, int count) {
+        int found = Math.min(count, pending.cardinality());
+        int[] indices = new int[found];
+        long[] distances = new long[found];
+        int size = 0;
+        for (int index = pending.nextSetBit(0); index >= 0; index = pending.nextSetBit(index + 1)) {
+            long dx = (long) (index % columns) * tileSize + tileSize / 2 - centre.x;
+            long dy = (long) (index / columns) * tileSize + tileSize / 2 - centre.y;
+            long distance = dx * dx + dy * dy;
+            if (size == found && distance >= distances[size - 1]) {
+                continue;
+            }
+            // Insert in order, dropping the farthest once full
+            int i = size == found ? size - 1 : size++;
+            while (i > 0 && distances[i - 1] > distance) {
+                distances[i] = distances[i - 1];
+                indices[i] = indices[i - 1];
+                i--;
+            }
+            distances[i] = distance;
+            indices[i] = index;
+        }
+        return indices;
+    }
+
+    /**
+     * Stop painting tiles from the picture once their full-resolution pixels are on the canvas
+     *
+     * @param indices Indices of the fetched tiles
+     */
+    synchronized void loaded(int[] indices) {
+        for (int index : indices) {
+            pending.clear(index);
+        }
+    }
+
+    /**
+     * @return Whether every tile was fetched
+     */
+    synchronized boolean isDone() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @param index Tile index
+     * @return Area of the tile in canvas coordinates
+     */
+    Rectangle tileBounds(int index) {
+        int x = (index % columns) * tileSize;
+        int y = (index / columns) * tileSize;
+        return new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+    }
+
+    /**
+     * Paint the pending tiles within an area from the picture
+     *
+     * @param g2d  Graphics in canvas coordinates
+     * @param area Area to paint, in canvas coordinates
+     */
+    synchronized void paint(Graphics2D g2d, Rectangle area) {
+        Rectangle clipped = area.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty() || pending.isEmpty()) {
+            return;
+        }
+        double scaleX = (double) image.getWidth() / width;
+        double scaleY = (double) image.getHeight() / height;
+        Object interpolation = g2d.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        try {
+            for (int row = clipped.y / tileSize; row * tileSize < clipped.y + clipped.height; row++) {
+                for (int column = clipped.x / tileSize; column * tileSize < clipped.x + clipped.width; column++) {
+                    int index = row * columns + column;
+                    if (!pending.get(index)) {
+                        continue;
+                    }
+                    Rectangle tile = tileBounds(index);
+                    g2d.drawImage(image, tile.x, tile.y, tile.x + tile.width, tile.y + tile.height,
+                            (int) (tile.x * scaleX), (int) (tile.y * scaleY),
+                            (int) Math.ceil((tile.x + tile.width) * scaleX),
+                            (int) Math.ceil((tile.y + tile.height) * scaleY), null);
+                }
+            }
+        } finally {
+            if (interpolation != null) {
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            }
+        }
+    }
+}
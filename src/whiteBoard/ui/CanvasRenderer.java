@@ -0,0 +1,108 @@
+package whiteBoard.ui;
+
+import java.awt.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer of the canvas. Remote operations and local edits are queued from any thread and run
+ * in order on the render thread, the only thread that draws into or replaces the frame.
+ * The areas they change are collected and repainted at most once per display frame.
+ */
+class CanvasRenderer {
+
+    /**
+     * Change to the canvas, run on the render thread
+     */
+    interface CanvasTask {
+        /**
+         * @return Area of the canvas that changed, or null if nothing needs repainting
+         */
+        Rectangle run();
+    }
+
+    private final ConcurrentLinkedQueue<CanvasTask> tasks = new ConcurrentLinkedQueue<>();
+    private final IDrawPanelView view;
+    private final long frameNanos;
+    private final Thread thread;
+
+    // Union of the areas changed since the last repaint, only touched by the render thread
+    private final Rectangle dirty = new Rectangle();
+    private boolean hasDirty;
+    private long lastRepaint;
+
+    /**
+     * Constructor
+     *
+     * @param view        View to repaint
+     * @param frameMillis Minimum time between two repaints
+     */
+    CanvasRenderer(IDrawPanelView view, int frameMillis) {
+        this.view = view;
+        this.frameNanos = TimeUnit.MILLISECONDS.toNanos(frameMillis);
+        this.thread = new Thread(this::run, "canvas-renderer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Queue a change to the canvas, returns immediately
+     *
+     * @param task Change to run on the render thread
+     */
+    void submit(CanvasTask task) {
+        tasks.offer(task);
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (true) {
+            CanvasTask task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    markDirty(task.run());
+                } catch (RuntimeException e) {
+                    System.err.println("Error rendering canvas: " + e);
+                }
+                // Keep the display moving during a long burst
+                if (hasDirty && System.nanoTime() - lastRepaint >= frameNanos) {
+                    flush();
+                }
+            }
+
+            if (!hasDirty) {
+                LockSupport.park(this);
+            } else {
+                long wait = lastRepaint + frameNanos - System.nanoTime();
+                if (wait <= 0) {
+                    flush();
+                } else {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+    }
+
+    private void markDirty(Rectangle area) {
+        if (area == null || area.isEmpty()) {
+            return;
+        }
+        if (hasDirty) {
+            dirty.add(area);
+        } else {
+            dirty.setBounds(area);
+            hasDirty = true;
+        }
+    }
+
+    private void flush() {
+        // Swing copies the area, so the rectangle can be reused
+        view.repaintCanvas(dirty);
+        hasDirty = false;
+        lastRepaint = System.nanoTime();
+    }
+}
@@ -1,34 +1,53 @@
 package whiteBoard.ui;
 
+import impl.CanvasImageCodec;
+import impl.ServerChannel;
 import impl.SyncData;
 import inter.IRemoteServer;
+import inter.ISyncData;
 import utils.Config;
 import whiteBoard.command.CommandManager;
+import whiteBoard.drawing.Scene;
+import whiteBoard.drawing.TiledRaster;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.function.Consumer;
 
 /**
  * Drawing panel model, responsible for managing the drawing state and interactions.
  */
 public class DrawPanelModel {
     private final IRemoteServer remoteServer;
+    // Queue for calls the event thread must not wait for
+    private final ServerChannel outbound;
     private final boolean isManager;
     private final String name;
-    private final CommandManager commandManager = new CommandManager();
+    // Edit ids of this user's edits that can be undone
+    private final CommandManager commandManager = new CommandManager(Config.UNDO_MAX_EDITS);
+    // Edit id of the edit being drawn and the last one handed out, only used on the event thread
+    private int currentEditId;
+    private int lastEditId;
+    private volatile int sessionId;
+    // Sequence number of the last server operation reflected in the canvas
+    private volatile long lastSequence;
+    // Own operations the canvas may not reflect the sequencing of yet
+    private final OwnOperations ownOperations = new OwnOperations();
 
     private int x1, y1, x2, y2;
     private Color color;
     private String toolType;
-    private Graphics2D g2d;
-    private BufferedImage frame;
-    private BufferedImage savedFrame;
+    // Replaced on the render thread, painted by the event thread
+    private volatile TiledRaster canvas;
+    // Shapes the canvas is drawn from, only used on the render thread
+    private final Scene scene = new Scene(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.SCENE_MAX_OBJECTS);
+    // Shape being dragged, painted over the canvas until it is drawn in on release
+    private final ShapePreview preview = new ShapePreview();
+    // Thumbnail painted over the tiles a joining client has not fetched yet, null once all are fetched
+    private volatile CanvasPreview joinPreview;
     private Point startPoint;
     private Point endPoint;
 
@@ -39,8 +58,9 @@ public class DrawPanelModel {
     private boolean isMotion = false;
 
 
-    public DrawPanelModel(IRemoteServer remoteServer, boolean isManager, String name) {
+    public DrawPanelModel(IRemoteServer remoteServer, ServerChannel outbound, boolean isManager, String name) {
         this.remoteServer = remoteServer;
+        this.outbound = outbound;
         this.isManager = isManager;
         this.name = name;
 
@@ -50,86 +70,143 @@ public class DrawPanelModel {
 
 
     public void init() {
-        frame = new BufferedImage( Config.GUI_WIDTH - 210, Config.GUI_HEIGHT - 135, BufferedImage.TYPE_INT_RGB);
-        g2d = (Graphics2D) frame.getGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setPaint(Color.WHITE);
-        g2d.setStroke(new BasicStroke(Config.DEFAULT_STROKE));
-        cleanCanvas();
+        canvas = new TiledRaster(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.CANVAS_TILE_SIZE,
+                Config.CANVAS_RESIDENT_TILES);
+        joinPreview = null;
+        scene.reset(null);
+        commandManager.clear();
     }
 
 
-    public void cleanCanvas() {
-        g2d.setPaint(Color.white);
-        g2d.fillRect(0, 0, Config.GUI_WIDTH, Config.GUI_HEIGHT);
-        g2d.setPaint(color);
+    public void newCanvas() {
+        init();
     }
 
 
-    public void saveCanvas() {
-        ColorModel colorModel = frame.getColorModel();
-        WritableRaster raster = frame.copyData(null);
-        savedFrame = new BufferedImage(colorModel, raster, false, null);
+    public void byteArrayToImage(byte[] imageData) throws IOException {
+        CanvasImageCodec.decode(imageData, canvas);
+        joinPreview = null;
+        scene.reset(canvas);
     }
 
 
-    public void newCanvas() {
-        init();
+    /**
+     * Start a new edit, the operations broadcast until the next one are undone together
+     *
+     * @return Edit id of the new edit
+     */
+    public int beginEdit() {
+        lastEditId = lastEditId == Integer.MAX_VALUE ? 1 : lastEditId + 1;
+        currentEditId = lastEditId;
+        return currentEditId;
     }
 
+    /**
+     * Add the current edit to the undo history once all of its operations are queued
+     */
+    public void endEdit() {
+        commandManager.record(currentEditId);
+    }
 
-    public byte[] imageToByteArray() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(frame, "png", baos);
-        return baos.toByteArray();
+    /**
+     * Make a single operation an edit of its own and add it to the undo history
+     *
+     * @param operation Operation to broadcast
+     * @return The operation tagged with its edit id
+     */
+    public SyncData recordEdit(SyncData operation) {
+        beginEdit();
+        endEdit();
+        return operation.withEditId(currentEditId);
     }
 
 
-    public void byteArrayToImage(byte[] imageData) throws IOException {
-        frame = ImageIO.read(new ByteArrayInputStream(imageData));
-        g2d = (Graphics2D) frame.getGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    /**
+     * Broadcast a polyline chunk of the current freehand or eraser stroke
+     *
+     * @return The chunk as sent
+     */
+    public SyncData broadcastStrokeChunk(int[] xPoints, int[] yPoints, int nPoints, float eraserSize) {
+        SyncData chunk = new SyncData(toolType, color, xPoints, yPoints, nPoints, sessionId, eraserSize)
+                .withEditId(currentEditId);
+        broadcastOperation(chunk);
+        return chunk;
     }
 
+    /**
+     * Queue a drawing operation for broadcast, returns without waiting for the server
+     */
+    public void broadcastOperation(SyncData syncData) {
+        ownOperations.sent(syncData);
+        outbound.sendOperation(syncData, ownOperations::sequenced);
+    }
 
-    public void broadcastDrawingState(float eraserSize) throws IOException {
-        SyncData syncData = new SyncData(toolType, color, startPoint, endPoint,
-                name, null, 0, eraserSize);
-        remoteServer.broadcastCanvas(syncData);
+    /**
+     * Queue an object erase for broadcast, returns without waiting for the server
+     *
+     * @param erase     Object erase
+     * @param onRefused Run on the sender thread if the server refuses the erase, the shapes are then
+     *                  still on every other canvas
+     */
+    public void broadcastErase(SyncData erase, Runnable onRefused) {
+        ownOperations.sent(erase);
+        outbound.sendOperation(erase, (operation, sequence, lastQueued) -> {
+            ownOperations.sequenced(operation, sequence, lastQueued);
+            if (sequence == 0) {
+                onRefused.run();
+            }
+        });
+    }
+
+    /**
+     * Queue an undo or redo marker for broadcast, returns without waiting for the server
+     *
+     * @param marker   Undo or redo marker
+     * @param onAnswer Told on the sender thread whether the server carried it out
+     */
+    public void broadcastEditMarker(SyncData marker, Consumer<Boolean> onAnswer) {
+        ownOperations.sent(marker);
+        outbound.sendOperation(marker, (operation, sequence, lastQueued) -> {
+            ownOperations.sequenced(operation, sequence, lastQueued);
+            onAnswer.accept(sequence != 0);
+        });
     }
 
     /**
-     * Send image to the server
+     * @param operation Operation of this client
+     * @param sequence  Sequence number of the last operation some pixels from the server reflect
+     * @return Whether the pixels lack the operation, which then has to be drawn over them again
      */
-    public void sendImage() throws IOException {
-        remoteServer.receiveImage(imageToByteArray());
+    boolean isNewerThan(ISyncData operation, long sequence) {
+        return ownOperations.isNewerThan(operation, sequence);
     }
 
     /**
-     * Send saved image to the server
+     * Send an opened image to the server, the only time a whole canvas is uploaded
      */
     public void sendSavedImage(BufferedImage image) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(image, "png", baos);
-        remoteServer.receiveImage(baos.toByteArray());
+        byte[] imageData = baos.toByteArray();
+        outbound.send(server -> server.receiveImage(imageData), "Error sending opened image");
     }
 
     // Getters and Setters
 
-    public BufferedImage getFrame() {
-        return frame;
+    public TiledRaster getCanvas() {
+        return canvas;
     }
 
-    public BufferedImage getSavedFrame() {
-        return savedFrame;
+    ShapePreview getPreview() {
+        return preview;
     }
 
-    public Graphics2D getG2d() {
-        return g2d;
+    CanvasPreview getJoinPreview() {
+        return joinPreview;
     }
 
-    public void setG2d(Graphics2D g2d) {
-        this.g2d = g2d;
+    void setJoinPreview(CanvasPreview joinPreview) {
+        this.joinPreview = joinPreview;
     }
 
     public int getX1() {
@@ -248,6 +325,34 @@ public class DrawPanelModel {
         return name;
     }
 
+    public int getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+        settleOwnOperations();
+    }
+
+    /**
+     * Forget the own operations no pixels fetched from now on can lack, only called on the render thread
+     */
+    void settleOwnOperations() {
+        ownOperations.settle(lastSequence);
+    }
+
+    Scene getScene() {
+        return scene;
+    }
+
     public CommandManager getCommandManager() {
         return commandManager;
     }
@@ -1,24 +1,50 @@
 package whiteBoard.ui;
 
 import impl.SyncData;
+import inter.CanvasSnapshot;
+import inter.CanvasTile;
 import inter.ISyncData;
 import utils.Config;
+import whiteBoard.command.CommandManager;
 import whiteBoard.command.ShapeDrawCommand;
 import whiteBoard.drawing.DrawingTool;
 import whiteBoard.drawing.DrawingToolFactory;
-import whiteBoard.drawing.TextTool;
+import whiteBoard.drawing.Scene;
+import whiteBoard.drawing.SceneObject;
+import whiteBoard.drawing.SyncDataRenderer;
+import whiteBoard.drawing.TiledRaster;
 
+import javax.imageio.ImageIO;
+import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
 
 /**
  * Drawing Panel Presenter, responsible for handling user interactions and updating the model.
+ * The canvas is only drawn into on the render thread, local edits and remote operations are both queued to it.
  */
 public class DrawPanelPresenter {
     private final DrawPanelModel model;
     private final IDrawPanelView view;
+    private final StrokeBatcher strokeBatcher;
+    private final CanvasRenderer renderer;
+    // Visible part of the canvas, sent to the server when the timer fires, set on the event thread
+    // and read by the render thread to fetch the tiles of a join nearest it first
+    private final Timer viewportTimer;
+    private volatile Rectangle visibleArea;
+    // Area the server sends live operations for, null while it sends everything, only used on the render thread
+    private Rectangle interestArea;
+    // Freehand or eraser stroke or object erase being drawn, and the area of the shape preview,
+    // only used on the event thread
+    private LocalStroke localStroke;
+    private ObjectEraser objectEraser;
+    private final Rectangle previewArea = new Rectangle();
 
     /**
      * Constructor
@@ -26,37 +52,113 @@ public class DrawPanelPresenter {
     public DrawPanelPresenter(DrawPanelModel model, IDrawPanelView view) {
         this.model = model;
         this.view = view;
+        this.strokeBatcher = new StrokeBatcher(Config.STROKE_BATCH_MAX_POINTS, Config.STROKE_BATCH_INTERVAL_MS,
+                this::broadcastStrokeChunk);
+        this.renderer = new CanvasRenderer(view, Config.RENDER_FRAME_MS);
+        this.viewportTimer = new Timer(Config.VIEWPORT_UPDATE_MS, e -> submitViewport());
+        viewportTimer.setRepeats(false);
+    }
 
-        if (model.getFrame() == null) {
-            initializeCanvas();
+    /**
+     * Initialize the drawing canvas from the thumbnail the server sent on joining, and start the render
+     * thread. Operations delivered while joining wait in the render queue and are applied after it.
+     *
+     * @param preview Thumbnail of the server's canvas with the sequence number it reflects
+     */
+    public void start(CanvasSnapshot preview) {
+        // Manager and guests alike start from the server's canvas, which is blank unless it was recovered.
+        // Until the render thread starts this thread is the only one touching the canvas.
+        model.init();
+        try {
+            loadPreview(preview);
+        } catch (IOException e) {
+            Config.PaneIOError();
+            System.err.println("IOException: " + e);
         }
+        renderer.start();
+        renderer.submit(this::fullCanvas);
     }
 
     /**
-     * Initialize the drawing canvas.
+     * Show a thumbnail of the server's canvas at once and fetch the full-resolution tiles behind it in
+     * batches, so the time to the first picture does not grow with the canvas.
+     * Operations newer than the thumbnail are drawn as they arrive, in between the batches.
      */
-    private void initializeCanvas() {
-        if (model.isManager()) {
-            // Manager creates a new canvas
-            model.init();
-            view.renderFrame(model.getFrame());
-            try {
-                model.sendImage();
-            } catch (IOException e) {
-                Config.PaneIOError();
-                System.err.println("IOException: " + e);
+    private void loadPreview(CanvasSnapshot snapshot) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(snapshot.getImageData()));
+        if (image == null) {
+            throw new IOException("Preview cannot be decoded");
+        }
+        TiledRaster canvas = model.getCanvas();
+        model.setJoinPreview(new CanvasPreview(image, canvas.getWidth(), canvas.getHeight(), Config.TILE_SIZE));
+        model.setLastSequence(snapshot.getSequence());
+        renderer.submit(this::streamTiles);
+    }
+
+    /**
+     * Fetch the next batch of tiles of a join, nearest the visible area, and queue the batch after it.
+     * The tiles are compared by hash, so those blank on both sides are not sent.
+     * Runs on the render thread.
+     *
+     * @return Area that changed, or null
+     */
+    private Rectangle streamTiles() {
+        CanvasPreview preview = model.getJoinPreview();
+        if (preview == null) {
+            // The canvas was cleared or replaced meanwhile
+            return null;
+        }
+        int[] batch = preview.nextBatch(streamCentre(), Config.JOIN_TILE_BATCH);
+        try {
+            TiledRaster canvas = model.getCanvas();
+            long[] tileHashes = new long[batch.length];
+            int[] buffer = new int[Config.TILE_SIZE * Config.TILE_SIZE];
+            for (int i = 0; i < batch.length; i++) {
+                tileHashes[i] = canvas.hashTile(batch[i], Config.TILE_SIZE, buffer);
             }
-        } else {
-            // Guest retrieves the canvas from the server
-            try {
-                byte[] imageData = model.getRemoteServer().updateImage();
-                model.byteArrayToImage(imageData);
-                view.renderFrame(model.getFrame());
-            } catch (IOException e) {
-                Config.PaneIOError();
-                System.err.println("IOException: " + e);
+            ISyncData tiles = model.getRemoteServer().getChangedTiles(canvas.getWidth(), canvas.getHeight(),
+                    batch, tileHashes);
+            if (tiles == null) {
+                loadSnapshot();
+                return fullCanvas();
             }
+            drawTiles(tiles);
+        } catch (IOException | DataFormatException e) {
+            Config.PaneIOError();
+            System.err.println("Exception: " + e);
+            return null;
+        }
+
+        preview.loaded(batch);
+        Rectangle area = null;
+        for (int index : batch) {
+            area = union(area, preview.tileBounds(index));
+        }
+        if (preview.isDone()) {
+            model.setJoinPreview(null);
+        } else {
+            renderer.submit(this::streamTiles);
+        }
+        return area;
+    }
+
+    /**
+     * Point the tiles of a join are fetched around, the middle of the visible area
+     */
+    private Point streamCentre() {
+        Rectangle visible = visibleArea;
+        if (visible == null) {
+            return new Point(Config.VIEW_WIDTH / 2, Config.VIEW_HEIGHT / 2);
         }
+        return new Point((int) visible.getCenterX(), (int) visible.getCenterY());
+    }
+
+    /**
+     * Area of the whole canvas
+     */
+    private Rectangle fullCanvas() {
+        TiledRaster canvas = model.getCanvas();
+        return new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
     }
 
     /**
@@ -83,10 +185,27 @@ public class DrawPanelPresenter {
         model.setColor(view.getToolBar().getColor());
         model.setToolType(view.getToolBar().getToolType());
 
-        // Save the current frame
-        model.saveCanvas();
         model.setMotion(true);
 
+        // An object erase removes whole shapes along its path, and is sent once it ends
+        if (Config.OBJECT_ERASER.equals(model.getToolType())) {
+            objectEraser = new ObjectEraser(renderer, model, view.getToolBar().getEraserSize(),
+                    model.getX1(), model.getY1(), Config.STROKE_BATCH_MAX_POINTS);
+            objectEraser.addPoint(model.getX1(), model.getY1());
+            return;
+        }
+
+        // Freehand and eraser strokes are drawn and sent in chunks while dragging
+        if (isFreehandTool(model.getToolType())) {
+            float strokeSize = Config.ERASER.equals(model.getToolType())
+                    ? view.getToolBar().getEraserSize() : Config.DEFAULT_STROKE;
+            localStroke = new LocalStroke(renderer, model, DrawingToolFactory.getTool(model.getToolType()),
+                    model.getToolType(), model.getColor(), strokeSize, model.getX1(), model.getY1(),
+                    Config.STROKE_BATCH_MAX_POINTS);
+            model.beginEdit();
+            strokeBatcher.begin(model.getX1(), model.getY1());
+        }
+
         // If the tool is text, show the text input dialog
         if (Config.TEXT.equals(model.getToolType())) {
             view.showTextInputDialog(model.getStartPoint());
@@ -95,45 +214,59 @@ public class DrawPanelPresenter {
     }
 
     /**
-     * Dragging mouse event handler
+     * Dragging mouse event handler. Runs for every mouse move, so it allocates nothing:
+     * tools are shared, and the preview and stroke buffers are updated in place.
      */
     public void handleMouseDragged(MouseEvent e) {
         model.setHasMouseDragged(true);
         model.setX2(e.getX());
         model.setY2(e.getY());
 
-        model.setStartPoint(new Point(model.getX1(), model.getY1()));
-        model.setEndPoint(new Point(model.getX2(), model.getY2()));
+        if (objectEraser != null) {
+            objectEraser.addPoint(model.getX2(), model.getY2());
+            return;
+        }
+        if (DrawingToolFactory.getTool(model.getToolType()) == null) {
+            return;
+        }
+        if (!isFreehandTool(model.getToolType())) {
+            updatePreview();
+            return;
+        }
 
-        DrawingTool tool = DrawingToolFactory.getTool(model.getToolType());
-        if (tool != null) {
-            // For non-drawing tools, render the saved frame
-            if (!Config.DRAW.equals(model.getToolType()) && !Config.ERASER.equals(model.getToolType())) {
-                view.renderFrame(model.getSavedFrame());
-            }
+        // Draw the point on the render thread and queue it for the next live broadcast chunk
+        if (localStroke != null) {
+            localStroke.addPoint(model.getX2(), model.getY2());
+        }
+        strokeBatcher.addPoint(model.getX2(), model.getY2());
+        model.setX1(model.getX2());
+        model.setY1(model.getY2());
+    }
 
-            // Set the stroke size for the drawing tool
-            if (Config.ERASER.equals(model.getToolType())) {
-                model.getG2d().setStroke(new BasicStroke(view.getToolBar().getEraserSize()));
-                tool.draw(model.getG2d(), model.getStartPoint(), model.getEndPoint(), Color.WHITE, view.getToolBar().getEraserSize());
-            } else {
-                model.getG2d().setStroke(new BasicStroke(Config.DEFAULT_STROKE));
-                tool.draw(model.getG2d(), model.getStartPoint(), model.getEndPoint(), model.getColor(), Config.DEFAULT_STROKE);
-            }
+    /**
+     * Move the shape preview and repaint the area the old and new previews cover.
+     * The canvas itself is untouched, so this costs the same whatever its size.
+     */
+    private void updatePreview() {
+        ShapePreview preview = model.getPreview();
+        if (preview.isVisible()) {
+            view.repaintCanvas(preview.bounds(previewArea));
+        }
+        preview.set(model.getToolType(), model.getColor(), model.getX1(), model.getY1(), model.getX2(), model.getY2());
+        view.repaintCanvas(preview.bounds(previewArea));
+    }
 
-            // Live broadcast drawing state
-            if (Config.DRAW.equals(model.getToolType()) || Config.ERASER.equals(model.getToolType())) {
-                try {
-                    model.broadcastDrawingState(view.getToolBar().getEraserSize());
-                } catch (IOException ex) {
-                    Config.PaneIOError();
-                    System.err.println("IOException: " + ex);
-                }
-                model.setX1(model.getX2());
-                model.setY1(model.getY2());
-            }
+    /**
+     * Remove the shape preview once its shape is on the canvas, unless another shape is being dragged by now
+     *
+     * @param generation Generation of the preview when its shape was released
+     */
+    private void clearPreview(int generation) {
+        ShapePreview preview = model.getPreview();
+        if (preview.isVisible() && preview.getGeneration() == generation) {
+            preview.clear();
+            view.repaintCanvas(preview.bounds(previewArea));
         }
-        view.repaint();
     }
 
     /**
@@ -141,7 +274,13 @@ public class DrawPanelPresenter {
      */
     public void handleMouseReleased(MouseEvent e) {
         model.setHasMouseReleased(true);
+        model.setStartPoint(new Point(model.getX1(), model.getY1()));
         model.setEndPoint(new Point(model.getX2(), model.getY2()));
+        strokeBatcher.end();
+        localStroke = null;
+        if (objectEraser != null) {
+            finishObjectErase();
+        }
 
         DrawingTool tool = DrawingToolFactory.getTool(model.getToolType());
         if (tool != null) {
@@ -149,25 +288,34 @@ public class DrawPanelPresenter {
                 view.showTextInputDialog(model.getStartPoint());
             } else {
                 if (model.isHasMouseReleased() && model.isHasMouseDragged() && model.isHasMousePressed()) {
-                    ShapeDrawCommand command = new ShapeDrawCommand(
-                            view, tool, model.getStartPoint(), model.getEndPoint(), model.getColor(), Config.DEFAULT_STROKE);
-                    model.getCommandManager().executeCommand(command);
+                    // Freehand strokes were already drawn while dragging
+                    if (!isFreehandTool(model.getToolType())) {
+                        ShapeDrawCommand command = new ShapeDrawCommand(
+                                view, tool, model.getStartPoint(), model.getEndPoint(), model.getColor(), Config.DEFAULT_STROKE);
+                        SyncData shape = model.recordEdit(new SyncData(model.getToolType(), model.getColor(),
+                                model.getStartPoint(), model.getEndPoint(), model.getSessionId(), null, 0,
+                                view.getToolBar().getEraserSize()));
+                        // The preview stays up until the shape is drawn in, so nothing flickers in between
+                        int generation = model.getPreview().getGeneration();
+                        renderer.submit(() -> {
+                            Rectangle area = command.execute();
+                            addOwn(shape);
+                            SwingUtilities.invokeLater(() -> clearPreview(generation));
+                            return area;
+                        });
+                        model.broadcastOperation(shape);
+                    }
                 }
             }
-            try {
-                if (model.isHasMouseReleased() && model.isHasMouseDragged() && model.isHasMousePressed()) {
-                    SyncData syncData = new SyncData(model.getToolType(), model.getColor(), model.getStartPoint(), model.getEndPoint(),
-                            model.getName(), null, 0, view.getToolBar().getEraserSize());
-                    model.getRemoteServer().broadcastCanvas(syncData);
-                    model.sendImage();
-                    model.resetMouseFlags();
+            if (model.isHasMouseReleased() && model.isHasMouseDragged() && model.isHasMousePressed()) {
+                // Freehand strokes were already sent chunk by chunk
+                if (isFreehandTool(model.getToolType())) {
+                    model.endEdit();
                 }
-            } catch (Exception ex) {
-                System.err.println("Exception: " + ex);
+                model.resetMouseFlags();
             }
         }
 
-        view.repaint();
         model.setMotion(false);
         model.resetCoordinates();
 
@@ -175,69 +323,483 @@ public class DrawPanelPresenter {
     }
 
 
+    /**
+     * End the object erase gesture: once the render thread has handled its last points, send the ids of
+     * every removed shape as one operation, which is a single edit that can be undone
+     */
+    private void finishObjectErase() {
+        ObjectEraser eraser = objectEraser;
+        objectEraser = null;
+        int editId = model.beginEdit();
+        renderer.submit(() -> {
+            Rectangle area = eraser.run();
+            long[] erasedIds = eraser.getErasedIds();
+            if (erasedIds.length > 0) {
+                // The server refuses an erase naming shapes too old to rebuild, they then come back and the
+                // erase leaves the history
+                Rectangle erasedArea = eraser.getErasedArea();
+                model.getCommandManager().record(editId);
+                model.broadcastErase(new SyncData(erasedIds, model.getSessionId()).withEditId(editId), () -> {
+                    model.getCommandManager().discard(editId);
+                    renderer.submit(() -> restoreErased(erasedArea));
+                });
+            }
+            return area;
+        });
+        model.resetMouseFlags();
+    }
+
+    /**
+     * Remove shapes another user erased and redraw where they were, on the render thread
+     *
+     * @param objectIds Ids of the erased shapes
+     * @return Area that changed, or null
+     */
+    private Rectangle eraseObjects(long[] objectIds) {
+        Scene scene = model.getScene();
+        Rectangle area = null;
+        for (long objectId : objectIds) {
+            area = union(area, scene.remove(objectId));
+        }
+        if (area != null) {
+            scene.render(model.getCanvas(), area);
+        }
+        return area;
+    }
+
+    /**
+     * Whether the tool draws continuously while dragging
+     */
+    private boolean isFreehandTool(String toolType) {
+        return Config.DRAW.equals(toolType) || Config.ERASER.equals(toolType);
+    }
+
+    /**
+     * Broadcast a chunk of the current freehand or eraser stroke, and add it to the scene once the
+     * render thread has drawn the points before it
+     */
+    private void broadcastStrokeChunk(int[] xPoints, int[] yPoints, int nPoints) {
+        SyncData chunk = model.broadcastStrokeChunk(xPoints, yPoints, nPoints, view.getToolBar().getEraserSize());
+        renderer.submit(() -> {
+            addOwn(chunk);
+            return null;
+        });
+    }
+
+    /**
+     * Add a shape this client drew to the scene, on the render thread, and forget the own operations
+     * the server has caught up with meanwhile
+     *
+     * @return The new shape
+     */
+    private SceneObject addOwn(ISyncData operation) {
+        model.settleOwnOperations();
+        return model.getScene().add(operation);
+    }
+
     /**
      * New canvas creation
      */
     public void newCanvas() {
-        model.newCanvas();
-        view.renderFrame(model.getFrame());
+        renderer.submit(() -> {
+            model.newCanvas();
+            return fullCanvas();
+        });
+    }
+
+    /**
+     * Replace the canvas with an image drawn at its top left corner
+     *
+     * @param image Image to draw
+     */
+    public void renderFrame(BufferedImage image) {
+        renderer.submit(() -> {
+            TiledRaster canvas = model.getCanvas();
+            canvas.clear();
+            canvas.paint(new Rectangle(0, 0, image.getWidth(), image.getHeight()),
+                    g2d -> g2d.drawImage(image, 0, 0, null));
+            model.getScene().reset(canvas);
+            model.getCommandManager().clear();
+            return fullCanvas();
+        });
+    }
+
+    /**
+     * Draw an operation made on this client, such as placed text
+     *
+     * @param operation Operation to draw
+     */
+    public void drawLocal(ISyncData operation) {
+        renderer.submit(() -> {
+            if (!SyncDataRenderer.render(model.getCanvas(), operation)) {
+                return null;
+            }
+            return addOwn(operation).getBounds();
+        });
+    }
+
+    /**
+     * Ask the server to undo this user's latest edit. Only the pixels of that edit are taken back,
+     * whatever others drew since, and every client including this one receives the rebuilt tiles.
+     */
+    public void undo() {
+        if (!model.isClosed()) {
+            sendEditMarker(Config.UNDO, model.getCommandManager().undo());
+        }
+    }
+
+    /**
+     * Ask the server to redo this user's latest undone edit
+     */
+    public void redo() {
+        if (!model.isClosed()) {
+            sendEditMarker(Config.REDO, model.getCommandManager().redo());
+        }
+    }
+
+    private void sendEditMarker(String drawingMode, int editId) {
+        if (editId == 0) {
+            return;
+        }
+        CommandManager history = model.getCommandManager();
+        model.broadcastEditMarker(new SyncData(drawingMode, model.getSessionId()).withEditId(editId), accepted -> {
+            history.answered(editId, accepted);
+            if (!accepted) {
+                String action = Config.UNDO.equals(drawingMode) ? "undo" : "redo";
+                SwingUtilities.invokeLater(() -> view.showWarningMessage("The server could not " + action
+                        + " this edit, it may be too old to rebuild.", "Warning"));
+            }
+        });
+    }
+
+    /**
+     * sync canvas with the server, first catching up on any operations missed since the last one applied.
+     * Returns immediately, the operation is applied on the render thread.
+     *
+     * @param remoteCanvas     Sequenced operation
+     * @param previousSequence Sequence number of the operation the server sent before this one
+     */
+    public void syncCanvas(ISyncData remoteCanvas, long previousSequence) {
+        renderer.submit(() -> {
+            Rectangle area = null;
+            if (previousSequence != model.getLastSequence()) {
+                area = catchUp();
+            }
+            return union(area, applyOperation(remoteCanvas, false));
+        });
+    }
+
+    /**
+     * Fetch and apply the operations missed since the last one applied, falling back to a full snapshot
+     * when the server no longer has them
+     *
+     * @return Area that changed
+     */
+    private Rectangle catchUp() {
+        Rectangle area = null;
         try {
-            model.sendImage();
+            ISyncData[] missed = model.getRemoteServer().getOperationsSince(model.getLastSequence());
+            if (missed == null) {
+                loadSnapshot();
+                return fullCanvas();
+            }
+            for (ISyncData operation : missed) {
+                area = union(area, applyOperation(operation, false));
+            }
         } catch (IOException e) {
             Config.PaneIOError();
             System.err.println("IOException: " + e);
         }
+        return area;
+    }
+
+    private static Rectangle union(Rectangle area, Rectangle other) {
+        if (area == null) {
+            return other;
+        }
+        if (other != null) {
+            area.add(other);
+        }
+        return area;
     }
 
     /**
-     * sync canvas with the server
+     * Apply a sequenced operation unless the canvas already reflects it.
+     * This client's own operations are normally already drawn locally and only advance the sequence.
+     *
+     * @param operation Sequenced operation
+     * @param drawOwn   Whether to draw this client's own operations too, after the canvas was replaced
+     * @return Area that changed, or null
      */
-    public void syncCanvas(ISyncData remoteCanvas) throws RemoteException {
-        DrawingTool tool = DrawingToolFactory.getTool(remoteCanvas.getDrawingMode());
+    private Rectangle applyOperation(ISyncData operation, boolean drawOwn) {
+        if (operation.getSequence() <= model.getLastSequence()) {
+            return null;
+        }
+        model.setLastSequence(operation.getSequence());
+        String drawingMode = operation.getDrawingMode();
+        if (Config.CLEAR.equals(drawingMode)) {
+            model.newCanvas();
+            return fullCanvas();
+        } else if (Config.LOAD.equals(drawingMode)) {
+            // The edits in the history no longer match the canvas
+            model.getCommandManager().clear();
+            Rectangle area = resyncTiles();
+            model.getScene().reset(model.getCanvas());
+            return area;
+        } else if (Config.DELETE.equals(drawingMode)) {
+            return drawOwn || operation.getSessionId() != model.getSessionId()
+                    ? eraseObjects(operation.getObjectIds()) : null;
+        } else if (Config.PATCH.equals(drawingMode)) {
+            if (!SyncDataRenderer.render(model.getCanvas(), operation)) {
+                return null;
+            }
+            Rectangle area = model.getScene().add(operation).getBounds();
+            redrawOwn(area, operation.getSequence());
+            return area;
+        } else if ((drawOwn || operation.getSessionId() != model.getSessionId())
+                && SyncDataRenderer.render(model.getCanvas(), operation)) {
+            return model.getScene().add(operation).getBounds();
+        }
+        return null;
+    }
 
-        if (tool != null) {
-            if (Config.ERASER.equals(remoteCanvas.getDrawingMode())) {
-                model.getG2d().setStroke(new BasicStroke(remoteCanvas.getEraserSize()));
-                tool.draw(model.getG2d(),
-                        remoteCanvas.getStartPosition(),
-                        remoteCanvas.getEndPosition(),
-                        Color.WHITE,
-                        remoteCanvas.getEraserSize());
-            } else if (Config.TEXT.equals(remoteCanvas.getDrawingMode())) {
-                TextTool textTool = new TextTool();
-                textTool.setText(remoteCanvas.getText());
-                textTool.setFontSize(remoteCanvas.getFontSize());
-
-                textTool.draw(model.getG2d(),
-                        remoteCanvas.getStartPosition(),
-                        remoteCanvas.getEndPosition(),
-                        remoteCanvas.getColor(),
-                        0f);
-            } else {
-                model.getG2d().setStroke(new BasicStroke(Config.DEFAULT_STROKE));
-                tool.draw(model.getG2d(),
-                        remoteCanvas.getStartPosition(),
-                        remoteCanvas.getEndPosition(),
-                        remoteCanvas.getColor(),
-                        Config.DEFAULT_STROKE);
+    /**
+     * Draw this client's shapes in an area again over pixels just written from the server, those the server
+     * had not sequenced by the time it took the pixels. They stay above the pixels in the scene as well, so
+     * a later redraw of the area keeps them.
+     *
+     * @param area     Area the pixels were written to
+     * @param sequence Sequence number of the last operation the pixels reflect
+     */
+    private void redrawOwn(Rectangle area, long sequence) {
+        Scene scene = model.getScene();
+        List<SceneObject> newer = new ArrayList<>();
+        for (SceneObject object : scene.query(area)) {
+            ISyncData operation = object.getOperation();
+            if (operation.getSessionId() == model.getSessionId() && model.isNewerThan(operation, sequence)) {
+                newer.add(object);
+            }
+        }
+        if (newer.isEmpty()) {
+            return;
+        }
+        scene.raise(newer);
+        TiledRaster canvas = model.getCanvas();
+        for (SceneObject object : newer) {
+            Rectangle clip = object.getBounds().intersection(area);
+            canvas.paint(clip, g2d -> {
+                Shape previous = g2d.getClip();
+                g2d.clip(clip);
+                try {
+                    SyncDataRenderer.render(g2d, object.getOperation());
+                } finally {
+                    g2d.setClip(previous);
+                }
+            });
+        }
+    }
+
+    /**
+     * Replace the canvas with the server's newest checkpoint and replay the operations logged after it
+     */
+    private void loadSnapshot() throws IOException {
+        CanvasSnapshot snapshot = model.getRemoteServer().updateImage();
+        if (snapshot == null) {
+            return;
+        }
+        model.byteArrayToImage(snapshot.getImageData());
+        model.setLastSequence(snapshot.getSequence());
+
+        // Null if a newer checkpoint compacted the tail meanwhile, the next delivery then finds the gap
+        ISyncData[] tail = model.getRemoteServer().getOperationsSince(snapshot.getSequence());
+        if (tail != null) {
+            for (ISyncData operation : tail) {
+                applyOperation(operation, true);
+            }
+        }
+    }
+
+
+    /**
+     * Note that the visible part of the canvas changed. The server is told at most once per update
+     * interval, with the area as it is by then.
+     *
+     * @param visible Visible area in canvas coordinates
+     */
+    public void viewportChanged(Rectangle visible) {
+        visibleArea = new Rectangle(visible);
+        if (!viewportTimer.isRunning()) {
+            viewportTimer.start();
+        }
+    }
+
+    private void submitViewport() {
+        Rectangle area = new Rectangle(visibleArea);
+        area.grow(Config.VIEWPORT_MARGIN, Config.VIEWPORT_MARGIN);
+        renderer.submit(() -> syncViewport(area));
+    }
+
+    /**
+     * Register the area to receive live operations for, and fetch the tiles within it that differ from the
+     * server's among those that were outside the previous area and may have missed operations.
+     * Runs on the render thread.
+     *
+     * @param area Visible area with margin
+     * @return Area that changed, or null
+     */
+    private Rectangle syncViewport(Rectangle area) {
+        TiledRaster canvas = model.getCanvas();
+        Rectangle interest = area.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+        if (interest.equals(interestArea)) {
+            return null;
+        }
+        Rectangle previous = interestArea;
+        interestArea = interest;
+        try {
+            model.getRemoteServer().updateViewport(model.getSessionId(), interest);
+            if (previous == null) {
+                // Every operation was received until now
+                return null;
             }
 
-            view.repaint();
+            int tileSize = Config.TILE_SIZE;
+            int columns = CanvasTile.columns(canvas.getWidth(), tileSize);
+            List<Integer> exposed = new ArrayList<>();
+            for (int row = interest.y / tileSize; row * tileSize < interest.y + interest.height; row++) {
+                for (int column = interest.x / tileSize; column * tileSize < interest.x + interest.width; column++) {
+                    Rectangle tile = new Rectangle(column * tileSize, row * tileSize, tileSize, tileSize)
+                            .intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+                    if (!previous.contains(tile)) {
+                        exposed.add(row * columns + column);
+                    }
+                }
+            }
+            if (exposed.isEmpty()) {
+                return null;
+            }
+            return fetchTiles(exposed.stream().mapToInt(Integer::intValue).toArray());
+        } catch (IOException | DataFormatException e) {
+            Config.PaneIOError();
+            System.err.println("Exception: " + e);
         }
+        return null;
     }
 
+    /**
+     * Fetch and draw those of some tiles that differ from the server's, on the render thread
+     *
+     * @param tileIndices Indices of the tiles
+     * @return Area that changed, or null
+     * @throws IOException         If the tiles cannot be fetched
+     * @throws DataFormatException If a tile's pixel data is corrupt
+     */
+    private Rectangle fetchTiles(int[] tileIndices) throws IOException, DataFormatException {
+        TiledRaster canvas = model.getCanvas();
+        long[] tileHashes = new long[tileIndices.length];
+        int[] buffer = new int[Config.TILE_SIZE * Config.TILE_SIZE];
+        for (int i = 0; i < tileIndices.length; i++) {
+            tileHashes[i] = canvas.hashTile(tileIndices[i], Config.TILE_SIZE, buffer);
+        }
+        ISyncData tiles = model.getRemoteServer().getChangedTiles(canvas.getWidth(), canvas.getHeight(),
+                tileIndices, tileHashes);
+        if (tiles == null) {
+            loadSnapshot();
+            return fullCanvas();
+        }
+        return drawTiles(tiles);
+    }
 
     /**
-     * Get canvas from server
+     * Put back the shapes of an object erase the server refused, by fetching the server's tiles where they
+     * were, on the render thread
+     *
+     * @param area Area the erased shapes covered
+     * @return Area that changed, or null
      */
-    public void getCanvasFromServer(byte[] imageData) {
+    private Rectangle restoreErased(Rectangle area) {
+        TiledRaster canvas = model.getCanvas();
+        Rectangle clipped = area.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+        if (clipped.isEmpty()) {
+            return null;
+        }
+        int tileSize = Config.TILE_SIZE;
+        int columns = CanvasTile.columns(canvas.getWidth(), tileSize);
+        List<Integer> covered = new ArrayList<>();
+        for (int row = clipped.y / tileSize; row * tileSize < clipped.y + clipped.height; row++) {
+            for (int column = clipped.x / tileSize; column * tileSize < clipped.x + clipped.width; column++) {
+                covered.add(row * columns + column);
+            }
+        }
         try {
-            model.byteArrayToImage(imageData);
-            view.renderFrame(model.getFrame());
-        } catch (IOException e) {
+            return fetchTiles(covered.stream().mapToInt(Integer::intValue).toArray());
+        } catch (IOException | DataFormatException e) {
             Config.PaneIOError();
-            System.err.println("IOException: " + e);
+            System.err.println("Exception: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Re-sync the canvas with the server, fetching only the tiles that differ
+     */
+    public void resyncCanvas() {
+        renderer.submit(this::resyncTiles);
+    }
+
+    /**
+     * Fetch and draw the tiles that differ from the server's canvas, on the render thread
+     *
+     * @return Area that changed, or null
+     */
+    private Rectangle resyncTiles() {
+        try {
+            TiledRaster canvas = model.getCanvas();
+            long[] tileHashes = canvas.hashTiles(Config.TILE_SIZE);
+            ISyncData tiles = model.getRemoteServer().getChangedTiles(canvas.getWidth(), canvas.getHeight(), tileHashes);
+
+            if (tiles == null) {
+                // Canvas sizes differ, take the whole image
+                loadSnapshot();
+                return fullCanvas();
+            }
+            Rectangle area = drawTiles(tiles);
+            if (model.getJoinPreview() != null) {
+                // Every tile is current now, including those a join had not fetched yet
+                model.setJoinPreview(null);
+                return fullCanvas();
+            }
+            return area;
+        } catch (IOException | DataFormatException e) {
+            Config.PaneIOError();
+            System.err.println("Exception: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Draw tiles fetched from the server over the canvas, then this client's shapes the server had not
+     * sequenced by the time it took them
+     *
+     * @param patch Fetched tiles with the sequence number of the last operation they reflect
+     * @return Area that changed, or null
+     * @throws DataFormatException If a tile's pixel data is corrupt
+     */
+    private Rectangle drawTiles(ISyncData patch) throws DataFormatException {
+        CanvasTile[] tiles = patch.getTiles();
+        if (tiles.length == 0) {
+            return null;
+        }
+        Rectangle area = null;
+        for (CanvasTile tile : tiles) {
+            model.getCanvas().drawTile(tile);
+            area = union(area, new Rectangle(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()));
+        }
+        // The server's pixels win over the shapes below them
+        model.getScene().add(patch);
+        for (CanvasTile tile : tiles) {
+            redrawOwn(new Rectangle(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()), patch.getSequence());
         }
+        return area;
     }
 
     /**
@@ -1,20 +1,25 @@
 package whiteBoard.ui;
 
+import impl.ServerChannel;
 import impl.SyncData;
-import inter.ISyncData;
+import inter.CanvasSnapshot;
 import inter.IRemoteServer;
-import whiteBoard.drawing.DrawingToolFactory;
-import whiteBoard.drawing.TextTool;
+import inter.ISyncData;
+import utils.Config;
+import whiteBoard.drawing.TiledRaster;
 
 import javax.swing.*;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionAdapter;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.rmi.RemoteException;
 
 /**
  * Class for the drawing panel view, which handles the drawing canvas and user interactions.
@@ -23,6 +28,13 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     private final ToolBar toolBar;
     private final DrawPanelPresenter presenter;
     private final DrawPanelModel model;
+    // Null unless paint times are measured
+    private final PaintMeter paintMeter = Config.PAINT_STATS ? new PaintMeter(Config.PAINT_STATS_INTERVAL_MS) : null;
+    // Index into Config.ZOOM_LEVELS, only used on the event thread
+    private int zoomLevel = 0;
+    private double zoom = 1;
+    // Reports scrolling and resizing of the scroll pane the canvas is shown in
+    private final ChangeListener viewportListener = e -> reportViewport();
 
     /**
      * Mouse motion listener
@@ -30,7 +42,7 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     private final MouseMotionAdapter motionLister = new MouseMotionAdapter() {
         @Override
         public void mouseDragged(MouseEvent e) {
-            presenter.handleMouseDragged(e);
+            presenter.handleMouseDragged(toCanvas(e));
         }
     };
 
@@ -40,7 +52,7 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     private final MouseListener startListener = new MouseAdapter() {
         @Override
         public void mousePressed(MouseEvent e) {
-            presenter.handleMousePressed(e);
+            presenter.handleMousePressed(toCanvas(e));
         }
     };
 
@@ -50,18 +62,19 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     private final MouseListener endListener = new MouseAdapter() {
         @Override
         public void mouseReleased(MouseEvent e) {
-            presenter.handleMouseReleased(e);
+            presenter.handleMouseReleased(toCanvas(e));
         }
     };
 
     /**
      * Constructor for the drawing panel view.
      */
-    public DrawPanelView(ToolBar toolBar, IRemoteServer remoteServer, boolean isManager, String name) {
+    public DrawPanelView(ToolBar toolBar, IRemoteServer remoteServer, ServerChannel outbound, boolean isManager,
+                         String name) {
         this.toolBar = toolBar;
 
         // create model and presenter
-        model = new DrawPanelModel(remoteServer, isManager, name);
+        model = new DrawPanelModel(remoteServer, outbound, isManager, name);
         presenter = new DrawPanelPresenter(model, this);
 
         initializePanel();
@@ -74,19 +87,195 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
         addMouseListener(startListener);
         addMouseMotionListener(motionLister);
         addMouseListener(endListener);
-        setDoubleBuffered(false);
+        // Swing paints into its back buffer and shows only the repainted area
+        setDoubleBuffered(true);
+        // The whole canvas, scrolled within the window
+        setPreferredSize(new Dimension(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT));
+
+        // Undo with Ctrl+Z, redo with Ctrl+Y or Ctrl+Shift+Z
+        InputMap inputs = getInputMap(WHEN_IN_FOCUSED_WINDOW);
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "redo");
+        getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                presenter.undo();
+            }
+        });
+        getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                presenter.redo();
+            }
+        });
+
+        // Zoom out with Ctrl+Minus, back in with Ctrl+Plus or Ctrl+Equals, to full size with Ctrl+0
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK), "zoomOut");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_PLUS, InputEvent.CTRL_DOWN_MASK), "zoomIn");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_0, InputEvent.CTRL_DOWN_MASK), "zoomReset");
+        getActionMap().put("zoomOut", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setZoomLevel(zoomLevel + 1);
+            }
+        });
+        getActionMap().put("zoomIn", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setZoomLevel(zoomLevel - 1);
+            }
+        });
+        getActionMap().put("zoomReset", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                setZoomLevel(0);
+            }
+        });
+    }
+
+    /**
+     * Change the zoom, keeping the centre of the visible area in place
+     *
+     * @param level Index into {@link Config#ZOOM_LEVELS}, clamped to the valid range
+     */
+    private void setZoomLevel(int level) {
+        int clamped = Math.max(0, Math.min(Config.ZOOM_LEVELS.length - 1, level));
+        if (clamped == zoomLevel) {
+            return;
+        }
+        Rectangle visible = getVisibleRect();
+        double centreX = visible.getCenterX() / zoom;
+        double centreY = visible.getCenterY() / zoom;
+
+        zoomLevel = clamped;
+        zoom = Config.ZOOM_LEVELS[clamped];
+        setPreferredSize(new Dimension((int) Math.ceil(Config.CANVAS_WIDTH * zoom),
+                (int) Math.ceil(Config.CANVAS_HEIGHT * zoom)));
+        revalidate();
+        if (getParent() instanceof JViewport) {
+            JViewport viewport = (JViewport) getParent();
+            viewport.doLayout();
+            Dimension extent = viewport.getExtentSize();
+            viewport.setViewPosition(new Point(
+                    (int) Math.max(0, Math.min(centreX * zoom - extent.width / 2.0, getPreferredSize().width - extent.width)),
+                    (int) Math.max(0, Math.min(centreY * zoom - extent.height / 2.0, getPreferredSize().height - extent.height))));
+        }
+        repaint();
+        reportViewport();
+    }
+
+    /**
+     * Map a mouse event from view to canvas coordinates
+     */
+    private MouseEvent toCanvas(MouseEvent e) {
+        if (zoom == 1) {
+            return e;
+        }
+        return new MouseEvent(e.getComponent(), e.getID(), e.getWhen(), e.getModifiersEx(),
+                (int) (e.getX() / zoom), (int) (e.getY() / zoom), e.getClickCount(), e.isPopupTrigger(), e.getButton());
     }
 
     /**
-     * Rewrite the paintComponent method to draw the current frame.
+     * Map an area from canvas to view coordinates, covering every view pixel the area touches
+     */
+    private Rectangle toView(Rectangle area) {
+        if (zoom == 1) {
+            return area;
+        }
+        int x = (int) Math.floor(area.x * zoom);
+        int y = (int) Math.floor(area.y * zoom);
+        return new Rectangle(x, y, (int) Math.ceil((area.x + area.width) * zoom) - x + 1,
+                (int) Math.ceil((area.y + area.height) * zoom) - y + 1);
+    }
+
+    /**
+     * Map an area from view to canvas coordinates, covering every canvas pixel the area shows
+     */
+    private Rectangle toCanvas(Rectangle area) {
+        if (zoom == 1) {
+            return area;
+        }
+        int x = (int) Math.floor(area.x / zoom);
+        int y = (int) Math.floor(area.y / zoom);
+        return new Rectangle(x, y, (int) Math.ceil((area.x + area.width) / zoom) - x + 1,
+                (int) Math.ceil((area.y + area.height) / zoom) - y + 1);
+    }
+
+    @Override
+    public void repaintCanvas(Rectangle area) {
+        repaint(toView(area));
+    }
+
+    /**
+     * Follow the visible part of the canvas once the panel is shown in a scroll pane
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).addChangeListener(viewportListener);
+            reportViewport();
+        }
+    }
+
+    private void reportViewport() {
+        presenter.viewportChanged(toCanvas(getVisibleRect()));
+    }
+
+    @Override
+    public void removeNotify() {
+        if (getParent() instanceof JViewport) {
+            ((JViewport) getParent()).removeChangeListener(viewportListener);
+        }
+        super.removeNotify();
+    }
+
+    /**
+     * Rewrite the paintComponent method to draw the canvas, only within the area being repainted.
      */
     @Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
 
-        // To current frame
-        if (model.getFrame() != null) {
-            g.drawImage(model.getFrame(), 0, 0, this);
+        // Only the canvas tiles within the area being repainted
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = getVisibleRect();
+        }
+        TiledRaster canvas = model.getCanvas();
+        if (canvas != null) {
+            if (zoom == 1) {
+                canvas.drawTo(g, clip);
+            } else {
+                // Zoomed out, read from the canvas's reduced copies
+                canvas.drawScaled((Graphics2D) g, toCanvas(clip), zoom);
+            }
+        }
+
+        // Tiles of a join not fetched yet, from the thumbnail
+        CanvasPreview joinPreview = model.getJoinPreview();
+        if (joinPreview != null) {
+            Graphics2D g2d = (Graphics2D) g.create();
+            g2d.scale(zoom, zoom);
+            joinPreview.paint(g2d, toCanvas(clip));
+            g2d.dispose();
+        }
+
+        // Shape being dragged, on top of the committed canvas
+        ShapePreview preview = model.getPreview();
+        if (preview.isVisible()) {
+            Graphics2D g2d = (Graphics2D) g.create();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.scale(zoom, zoom);
+            preview.paint(g2d);
+            g2d.dispose();
+        }
+
+        if (paintMeter != null) {
+            paintMeter.record(clip, System.nanoTime() - start);
         }
     }
 
@@ -102,22 +291,10 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
             int fontSize = dialog.getFontSize();
 
             if (text != null && !text.isEmpty()) {
-                TextTool textTool = (TextTool) DrawingToolFactory.getTool("text");
-                textTool.setText(text);
-                textTool.setFontSize(fontSize);
-
-                textTool.draw(model.getG2d(), position, position, model.getColor(), 0);
-
-                try {
-                    SyncData syncData = new SyncData("text", model.getColor(), position, position,
-                            model.getName(), text, fontSize, 0);
-                    model.getRemoteServer().broadcastCanvas(syncData);
-                    model.sendImage();
-                } catch (IOException e) {
-                    System.err.println("IOException: " + e);
-                }
-
-                repaint();
+                SyncData syncData = model.recordEdit(new SyncData(Config.TEXT, model.getColor(), position, position,
+                        model.getSessionId(), text, fontSize, 0));
+                presenter.drawLocal(syncData);
+                model.broadcastOperation(syncData);
             }
         }
     }
@@ -139,19 +316,28 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     }
 
     @Override
-    public Graphics2D getGraphics2D() {
-        return model.getG2d();
+    public TiledRaster getCanvas() {
+        return model.getCanvas();
     }
 
     @Override
     public void renderFrame(BufferedImage frame) {
-        model.getG2d().drawImage(frame, 0, 0, null);
-        repaint();
+        presenter.renderFrame(frame);
     }
 
+    /**
+     * Copy the canvas from its top left corner to the furthest tile drawn on, and at least the part
+     * a new window shows
+     */
     @Override
     public BufferedImage getCanvasImage() {
-        return model.getFrame();
+        TiledRaster canvas = model.getCanvas();
+        Rectangle area = new Rectangle(0, 0, Config.VIEW_WIDTH, Config.VIEW_HEIGHT);
+        Rectangle drawn = canvas.getDrawnBounds();
+        if (!drawn.isEmpty()) {
+            area.add(drawn);
+        }
+        return canvas.toImage(area);
     }
 
     @Override
@@ -165,26 +351,13 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     }
 
     @Override
-    public void syncCanvas(ISyncData remoteCanvas) {
-        try {
-            presenter.syncCanvas(remoteCanvas);
-        } catch (RemoteException e) {
-            throw new RuntimeException(e);
-        }
+    public void syncCanvas(ISyncData remoteCanvas, long previousSequence) {
+        presenter.syncCanvas(remoteCanvas, previousSequence);
     }
 
     @Override
-    public void getCanvasFromServer(byte[] imageData) {
-        presenter.getCanvasFromServer(imageData);
-    }
-
-    @Override
-    public void sendImage() {
-        try {
-            model.sendImage();
-        } catch (IOException e) {
-            System.err.println("IOException: " + e);
-        }
+    public void resyncCanvas() {
+        presenter.resyncCanvas();
     }
 
     @Override
@@ -210,4 +383,20 @@ public class DrawPanelView extends JPanel implements IDrawPanelView {
     public void newCanvas() {
         presenter.newCanvas();
     }
+
+    /**
+     * Start drawing from the thumbnail the server sent on joining
+     *
+     * @param preview Thumbnail of the server's canvas with the sequence number it reflects
+     */
+    public void start(CanvasSnapshot preview) {
+        presenter.start(preview);
+    }
+
+    /**
+     * Set the session id assigned by the server, used to tag outgoing operations
+     */
+    public void setSessionId(int sessionId) {
+        model.setSessionId(sessionId);
+    }
 }
\ No newline at end of file
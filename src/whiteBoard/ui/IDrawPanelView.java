@@ -1,6 +1,7 @@
 package whiteBoard.ui;
 
 import inter.ISyncData;
+import whiteBoard.drawing.TiledRaster;
 
 import java.awt.*;
 import java.awt.event.MouseEvent;
@@ -10,16 +11,16 @@ import java.awt.image.BufferedImage;
  * CanvasView - Interface for drawing panel view
  */
 public interface IDrawPanelView {
-    // Get the drawing tool factory
-    Graphics2D getGraphics2D();
+    // Get the canvas being drawn on
+    TiledRaster getCanvas();
 
-    // Get the drawing tool
+    // Replace the canvas with an image
     void renderFrame(BufferedImage frame);
 
-    // Re-paint the canvas
-    void repaint();
+    // Re-paint part of the canvas, in canvas coordinates
+    void repaintCanvas(Rectangle area);
 
-    // Get current drawing tool
+    // Get the drawn part of the canvas as an image
     BufferedImage getCanvasImage();
 
     // Display the text input dialog
@@ -37,12 +38,10 @@ public interface IDrawPanelView {
     void handleMouseReleased(MouseEvent e);
 
     // Synchronize the canvas with the server
-    void syncCanvas(ISyncData remoteCanvas);
+    void syncCanvas(ISyncData remoteCanvas, long previousSequence);
 
-    void getCanvasFromServer(byte[] imageData);
-
-    // Send the image to the server
-    void sendImage();
+    // Fetch the parts of the canvas that differ from the server's
+    void resyncCanvas();
 
     // Send the saved image to the server
     void sendSavedImage(BufferedImage image);
@@ -0,0 +1,59 @@
+package whiteBoard.ui;
+
+import utils.Config;
+import whiteBoard.drawing.DrawingTool;
+import whiteBoard.drawing.SyncDataRenderer;
+
+import java.awt.*;
+
+/**
+ * Points of the local freehand or eraser stroke still to be drawn onto the canvas.
+ * The render thread draws all points appended since its last turn as one polyline.
+ */
+class LocalStroke extends StrokeTask {
+    private final DrawPanelModel model;
+    private final DrawingTool tool;
+    private final String toolType;
+    private final Color color;
+    private final float strokeSize;
+    // Only touched by the render thread
+    private final Rectangle area = new Rectangle();
+
+    /**
+     * Constructor
+     *
+     * @param renderer   Renderer drawing the stroke
+     * @param model      Model holding the canvas
+     * @param tool       Freehand or eraser tool
+     * @param toolType   Tool type
+     * @param color      Stroke color
+     * @param strokeSize Stroke width, the eraser size for the eraser
+     * @param x          Start x
+     * @param y          Start y
+     * @param capacity   Number of points buffered before the buffers grow
+     */
+    LocalStroke(CanvasRenderer renderer, DrawPanelModel model, DrawingTool tool, String toolType, Color color,
+                float strokeSize, int x, int y, int capacity) {
+        super(renderer, x, y, capacity);
+        this.model = model;
+        this.tool = tool;
+        this.toolType = toolType;
+        this.color = color;
+        this.strokeSize = strokeSize;
+    }
+
+    @Override
+    protected Rectangle handle(int[] xPoints, int[] yPoints, int nPoints) {
+        int minX = xPoints[0], minY = yPoints[0], maxX = xPoints[0], maxY = yPoints[0];
+        for (int i = 1; i < nPoints; i++) {
+            minX = Math.min(minX, xPoints[i]);
+            minY = Math.min(minY, yPoints[i]);
+            maxX = Math.max(maxX, xPoints[i]);
+            maxY = Math.max(maxY, yPoints[i]);
+        }
+        SyncDataRenderer.bounds(toolType, minX, minY, maxX, maxY,
+                Config.ERASER.equals(toolType) ? strokeSize : 0, area);
+        model.getCanvas().paint(area, g2d -> tool.drawPolyline(g2d, xPoints, yPoints, nPoints, color, strokeSize));
+        return area;
+    }
+}
@@ -0,0 +1,83 @@
+package whiteBoard.ui;
+
+import whiteBoard.drawing.Scene;
+import whiteBoard.drawing.SceneObject;
+
+import java.awt.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Local object erase gesture. The render thread hit-tests the eraser path against the scene, removes
+ * every shape it touches and redraws only where those shapes were. The ids of the removed shapes are sent
+ * together once the gesture ends.
+ */
+class ObjectEraser extends StrokeTask {
+    private final DrawPanelModel model;
+    private final float radius;
+    // Only touched by the render thread
+    private final Set<Long> erasedIds = new LinkedHashSet<>();
+    private Rectangle erasedArea;
+
+    /**
+     * Constructor
+     *
+     * @param renderer Renderer running the hit tests
+     * @param model    Model holding the canvas and scene
+     * @param radius   Eraser radius
+     * @param x        Start x
+     * @param y        Start y
+     * @param capacity Number of points buffered before the buffers grow
+     */
+    ObjectEraser(CanvasRenderer renderer, DrawPanelModel model, float radius, int x, int y, int capacity) {
+        super(renderer, x, y, capacity);
+        this.model = model;
+        this.radius = radius;
+    }
+
+    @Override
+    protected Rectangle handle(int[] xPoints, int[] yPoints, int nPoints) {
+        Scene scene = model.getScene();
+        Rectangle area = null;
+        for (int i = 1; i < nPoints; i++) {
+            for (SceneObject hit : scene.hitTest(xPoints[i - 1], yPoints[i - 1], xPoints[i], yPoints[i], radius)) {
+                Rectangle removed = scene.remove(hit.getId());
+                if (removed == null) {
+                    // Another part of the same stroke, already removed with it
+                    continue;
+                }
+                erasedIds.add(hit.getId());
+                if (erasedArea == null) {
+                    erasedArea = new Rectangle(removed);
+                } else {
+                    erasedArea.add(removed);
+                }
+                if (area == null) {
+                    area = removed;
+                } else {
+                    area.add(removed);
+                }
+            }
+        }
+        if (area != null) {
+            scene.render(model.getCanvas(), area);
+        }
+        return area;
+    }
+
+    /**
+     * Ids of the shapes removed so far, on the render thread
+     */
+    long[] getErasedIds() {
+        return erasedIds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Area the removed shapes covered, on the render thread
+     *
+     * @return Area, or null if nothing was removed
+     */
+    Rectangle getErasedArea() {
+        return erasedArea != null ? new Rectangle(erasedArea) : null;
+    }
+}
@@ -0,0 +1,97 @@
+package whiteBoard.ui;
+
+import inter.ISyncData;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * This client's own drawing operations, from when they are queued for the server until no pixels fetched
+ * from it can predate them. The server never sends a client its own operations, so a patch or tiles taken
+ * before the server sequenced one lack it, and it is drawn again over them.
+ * <p>
+ * An operation is forgotten once the server acknowledged it and the client applied everything the server
+ * had queued to it before then: every patch still to come was sequenced after the operation, and tiles
+ * fetched from then on are taken after it. Forgetting only happens on the render thread, between fetches.
+ * Queued on the event and render threads and acknowledged on the sender thread, so access is synchronized.
+ */
+class OwnOperations {
+    // Sequence number of an operation the server has not acknowledged yet
+    private static final long UNSEQUENCED = Long.MAX_VALUE;
+
+    private static final class Pending {
+        final ISyncData operation;
+        final long index;
+        long sequence = UNSEQUENCED;
+        long lastQueued;
+
+        Pending(ISyncData operation, long index) {
+            this.operation = operation;
+            this.index = index;
+        }
+    }
+
+    // In the order sent, which is the order the server sequences them in
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final IdentityHashMap<ISyncData, Pending> byOperation = new IdentityHashMap<>();
+    private long sent;
+    // Index of the last operation acknowledged, those before it still unacknowledged were never delivered
+    private long acknowledged;
+
+    /**
+     * Note an operation queued for the server
+     *
+     * @param operation Operation as drawn locally
+     */
+    synchronized void sent(ISyncData operation) {
+        Pending entry = new Pending(operation, ++sent);
+        pending.add(entry);
+        byOperation.put(operation, entry);
+    }
+
+    /**
+     * Note the server's acknowledgement of an operation
+     *
+     * @param operation  Operation as sent
+     * @param sequence   Sequence number the server gave it
+     * @param lastQueued Sequence number of the last operation the server had queued to this client before it
+     */
+    synchronized void sequenced(ISyncData operation, long sequence, long lastQueued) {
+        Pending entry = byOperation.get(operation);
+        if (entry != null) {
+            entry.sequence = sequence;
+            entry.lastQueued = lastQueued;
+            acknowledged = entry.index;
+        }
+    }
+
+    /**
+     * Forget the operations no pixels fetched from now on can lack, on the render thread
+     *
+     * @param lastSequence Sequence number of the last server operation applied
+     */
+    synchronized void settle(long lastSequence) {
+        while (!pending.isEmpty()) {
+            Pending oldest = pending.peekFirst();
+            if (!isUndelivered(oldest) && (oldest.sequence == UNSEQUENCED || oldest.lastQueued > lastSequence)) {
+                return;
+            }
+            pending.pollFirst();
+            byOperation.remove(oldest.operation);
+        }
+    }
+
+    /**
+     * @param operation Operation of this client
+     * @param sequence  Sequence number of the last operation some pixels from the server reflect
+     * @return Whether the pixels lack the operation, because the server sequenced it later or has not yet
+     */
+    synchronized boolean isNewerThan(ISyncData operation, long sequence) {
+        Pending entry = byOperation.get(operation);
+        return entry != null && !isUndelivered(entry) && entry.sequence > sequence;
+    }
+
+    private boolean isUndelivered(Pending entry) {
+        return entry.sequence == UNSEQUENCED && entry.index < acknowledged;
+    }
+}
@@ -0,0 +1,63 @@
+package whiteBoard.ui;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long the canvas takes to paint and how much of it is painted each time.
+ * A summary is logged at FINE once per interval, so the effect of repainting only dirty areas can be
+ * checked with many clients drawing at once. Only used when {@link utils.Config#PAINT_STATS} is set.
+ */
+class PaintMeter {
+    private static final Logger LOGGER = Logger.getLogger(PaintMeter.class.getName());
+
+    private final long intervalNanos;
+
+    // Only touched by the event thread
+    private long paints;
+    private long paintNanos;
+    private long maxPaintNanos;
+    private long paintedPixels;
+    private long intervalStart = System.nanoTime();
+
+    /**
+     * Constructor
+     *
+     * @param intervalMillis Time between two summaries
+     */
+    PaintMeter(long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Record one paint
+     *
+     * @param area  Area painted
+     * @param nanos Time it took
+     */
+    void record(Rectangle area, long nanos) {
+        paints++;
+        paintNanos += nanos;
+        maxPaintNanos = Math.max(maxPaintNanos, nanos);
+        if (area != null) {
+            paintedPixels += (long) area.width * area.height;
+        }
+
+        long now = System.nanoTime();
+        if (now - intervalStart >= intervalNanos) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                double seconds = (now - intervalStart) / 1e9;
+                LOGGER.fine(String.format(
+                        "Canvas paints: %.1f/s, %.3f ms average, %.3f ms at most, %d pixels average",
+                        paints / seconds, paintNanos / 1e6 / paints, maxPaintNanos / 1e6, paintedPixels / paints));
+            }
+            paints = 0;
+            paintNanos = 0;
+            maxPaintNanos = 0;
+            paintedPixels = 0;
+            intervalStart = now;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package whiteBoard.ui;
+
+import utils.Config;
+import whiteBoard.drawing.DrawingTool;
+import whiteBoard.drawing.DrawingToolFactory;
+import whiteBoard.drawing.SyncDataRenderer;
+
+import java.awt.*;
+
+/**
+ * Shape being dragged, painted over the canvas until it is drawn in on release.
+ * Updated in place on every drag step, only used on the event dispatch thread.
+ */
+class ShapePreview {
+    private final Point start = new Point();
+    private final Point end = new Point();
+    private String toolType;
+    private Color color;
+    private boolean visible;
+    // Changes with every update, tells a shape apart from the one dragged after it
+    private int generation;
+
+    /**
+     * Show or move the preview
+     */
+    void set(String toolType, Color color, int x1, int y1, int x2, int y2) {
+        this.toolType = toolType;
+        this.color = color;
+        start.setLocation(x1, y1);
+        end.setLocation(x2, y2);
+        visible = true;
+        generation++;
+    }
+
+    void clear() {
+        visible = false;
+    }
+
+    boolean isVisible() {
+        return visible;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param bounds Rectangle to store the area in
+     * @return The given rectangle, holding the area the preview covers
+     */
+    Rectangle bounds(Rectangle bounds) {
+        return SyncDataRenderer.bounds(toolType, start.x, start.y, end.x, end.y, 0, bounds);
+    }
+
+    void paint(Graphics2D g2d) {
+        DrawingTool tool = DrawingToolFactory.getTool(toolType);
+        if (tool != null) {
+            tool.draw(g2d, start, end, color, Config.DEFAULT_STROKE);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package whiteBoard.ui;
+
+import javax.swing.*;
+
+/**
+ * Collects the points of a freehand or eraser drag into polyline chunks.
+ * A chunk is flushed when it is full or when the flush interval has passed since its first point,
+ * and each new chunk starts at the last point of the previous one so the stroke stays connected.
+ * All methods are expected to be called on the event dispatch thread.
+ */
+public class StrokeBatcher {
+
+    /**
+     * Receives a flushed chunk, the arrays are reused after the call returns
+     */
+    public interface FlushListener {
+        void onFlush(int[] xPoints, int[] yPoints, int nPoints);
+    }
+
+    private final int[] xPoints;
+    private final int[] yPoints;
+    private final FlushListener listener;
+    private final Timer flushTimer;
+
+    private int nPoints = 0;
+    private boolean active = false;
+
+    /**
+     * Constructor
+     *
+     * @param maxPoints       Maximum number of points in a chunk
+     * @param flushIntervalMs Maximum time a point waits before its chunk is flushed
+     * @param listener        Receiver of flushed chunks
+     */
+    public StrokeBatcher(int maxPoints, int flushIntervalMs, FlushListener listener) {
+        this.xPoints = new int[Math.max(2, maxPoints)];
+        this.yPoints = new int[Math.max(2, maxPoints)];
+        this.listener = listener;
+        this.flushTimer = new Timer(flushIntervalMs, e -> flush());
+        this.flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Start a new stroke
+     */
+    public void begin(int x, int y) {
+        end();
+        active = true;
+        xPoints[0] = x;
+        yPoints[0] = y;
+        nPoints = 1;
+    }
+
+    /**
+     * Append a point to the current stroke
+     */
+    public void addPoint(int x, int y) {
+        if (!active) {
+            return;
+        }
+
+        xPoints[nPoints] = x;
+        yPoints[nPoints] = y;
+        nPoints++;
+
+        if (nPoints == xPoints.length) {
+            flush();
+        } else if (!flushTimer.isRunning()) {
+            flushTimer.start();
+        }
+    }
+
+    /**
+     * Send the points collected so far
+     */
+    public void flush() {
+        flushTimer.stop();
+        if (nPoints < 2) {
+            return;
+        }
+
+        listener.onFlush(xPoints, yPoints, nPoints);
+
+        // Carry the last point over so the next chunk joins this one
+        xPoints[0] = xPoints[nPoints - 1];
+        yPoints[0] = yPoints[nPoints - 1];
+        nPoints = 1;
+    }
+
+    /**
+     * Flush and finish the current stroke
+     */
+    public void end() {
+        if (active) {
+            flush();
+        }
+        active = false;
+        nPoints = 0;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+}
@@ -0,0 +1,105 @@
+package whiteBoard.ui;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Points of a local drag still to be handled on the render thread.
+ * The event thread appends points, the render thread takes all points appended since its last turn at once,
+ * joined to the last one it took. Both sides reuse their buffers, and the task is queued to the renderer
+ * once per turn instead of once per point, so a steady drag allocates nothing.
+ */
+abstract class StrokeTask implements CanvasRenderer.CanvasTask {
+    private final CanvasRenderer renderer;
+
+    // Appended by the event thread, guarded by this
+    private int[] pendingX;
+    private int[] pendingY;
+    private int pendingCount;
+    private boolean queued;
+
+    // Only touched by the render thread
+    private int[] drawX;
+    private int[] drawY;
+    private int lastX;
+    private int lastY;
+
+    /**
+     * Constructor
+     *
+     * @param renderer Renderer running the task
+     * @param x        Start x
+     * @param y        Start y
+     * @param capacity Number of points buffered before the buffers grow
+     */
+    StrokeTask(CanvasRenderer renderer, int x, int y, int capacity) {
+        this.renderer = renderer;
+        this.pendingX = new int[capacity];
+        this.pendingY = new int[capacity];
+        this.drawX = new int[capacity + 1];
+        this.drawY = new int[capacity + 1];
+        this.lastX = x;
+        this.lastY = y;
+    }
+
+    /**
+     * Append a point, on the event thread
+     */
+    void addPoint(int x, int y) {
+        boolean submit;
+        synchronized (this) {
+            if (pendingCount == pendingX.length) {
+                // Only when the render thread falls far behind
+                pendingX = Arrays.copyOf(pendingX, pendingX.length * 2);
+                pendingY = Arrays.copyOf(pendingY, pendingY.length * 2);
+            }
+            pendingX[pendingCount] = x;
+            pendingY[pendingCount] = y;
+            pendingCount++;
+            submit = !queued;
+            queued = true;
+        }
+        if (submit) {
+            renderer.submit(this);
+        }
+    }
+
+    /**
+     * Handle the points appended so far, on the render thread
+     */
+    @Override
+    public final Rectangle run() {
+        int n;
+        synchronized (this) {
+            n = pendingCount;
+            if (drawX.length < n + 1) {
+                drawX = new int[pendingX.length + 1];
+                drawY = new int[pendingY.length + 1];
+            }
+            System.arraycopy(pendingX, 0, drawX, 1, n);
+            System.arraycopy(pendingY, 0, drawY, 1, n);
+            pendingCount = 0;
+            queued = false;
+        }
+        if (n == 0) {
+            return null;
+        }
+
+        drawX[0] = lastX;
+        drawY[0] = lastY;
+        Rectangle area = handle(drawX, drawY, n + 1);
+        lastX = drawX[n];
+        lastY = drawY[n];
+        return area;
+    }
+
+    /**
+     * Handle a run of points, on the render thread
+     *
+     * @param xPoints X coordinates, starting with the last point of the previous run
+     * @param yPoints Y coordinates, starting with the last point of the previous run
+     * @param nPoints Number of points to take from the arrays, at least 2
+     * @return Area of the canvas that changed, or null
+     */
+    protected abstract Rectangle handle(int[] xPoints, int[] yPoints, int nPoints);
+}
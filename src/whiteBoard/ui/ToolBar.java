@@ -42,6 +42,7 @@ public class ToolBar extends JPanel {
                 Config.RECTANGLE,
                 Config.DRAW,
                 Config.ERASER,
+                Config.OBJECT_ERASER,
                 Config.TEXT
         };
 
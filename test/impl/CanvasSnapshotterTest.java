@@ -0,0 +1,99 @@
+package impl;
+
+import inter.CanvasSnapshot;
+import utils.Config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Retained checkpoints in {@link CanvasSnapshotter}: bounded in number, the older ones moved out of memory
+ * past the budget and read back intact, and their temporary files deleted once dropped.
+ * Run as a program, see the README.
+ */
+public class CanvasSnapshotterTest {
+    private static final int CHECKPOINT_BYTES = 100;
+
+    public static void main(String[] args) throws IOException {
+        olderCheckpointsAreSpilledAndReadBack();
+        checkpointsWithinBudgetStayInMemory();
+        System.out.println("CanvasSnapshotterTest passed");
+    }
+
+    /**
+     * With a budget smaller than one checkpoint, every checkpoint but the newest is moved to a file
+     */
+    static void olderCheckpointsAreSpilledAndReadBack() throws IOException {
+        long filesBefore = spillFiles();
+        CanvasSnapshotter snapshotter = snapshotter(3, CHECKPOINT_BYTES / 2);
+        for (long sequence = 10; sequence <= 30; sequence += 10) {
+            snapshotter.onLoaded(checkpoint(sequence));
+        }
+        check(snapshotter.getSpilledCount() == 2, "The two older checkpoints are moved out of memory");
+        check(spillFiles() == filesBefore + 2, "Each one is written to a file of its own");
+        checkRetained(snapshotter.getRetainedBefore(31), 30, "The newest checkpoint");
+        checkRetained(snapshotter.getRetainedBefore(25), 20, "A spilled checkpoint");
+        checkRetained(snapshotter.getRetainedBefore(15), 10, "The oldest spilled checkpoint");
+        check(snapshotter.getRetainedBefore(10) == null, "No checkpoint is older than the first");
+
+        snapshotter.onLoaded(checkpoint(40));
+        check(snapshotter.getOldestRetainedSequence() == 20, "Only the three newest checkpoints are retained");
+        check(snapshotter.getRetainedBefore(20) == null, "The dropped checkpoint is gone");
+        check(spillFiles() == filesBefore + 2, "The dropped checkpoint's file is deleted");
+        checkRetained(snapshotter.getRetainedBefore(35), 30, "The checkpoint spilled last");
+
+        snapshotter.close();
+        check(spillFiles() == filesBefore, "Closing deletes the files");
+    }
+
+    /**
+     * Checkpoints that fit the budget are not written out
+     */
+    static void checkpointsWithinBudgetStayInMemory() throws IOException {
+        CanvasSnapshotter snapshotter = snapshotter(3, CHECKPOINT_BYTES * 2);
+        for (long sequence = 10; sequence <= 30; sequence += 10) {
+            snapshotter.onLoaded(checkpoint(sequence));
+        }
+        check(snapshotter.getSpilledCount() == 0, "Checkpoints within the budget stay in memory");
+        checkRetained(snapshotter.getRetainedBefore(15), 10, "A checkpoint held in memory");
+        snapshotter.close();
+    }
+
+    private static CanvasSnapshotter snapshotter(int retainedCheckpoints, long memoryBytes) {
+        ServerCanvas canvas = new ServerCanvas(Config.TILE_SIZE, Config.TILE_SIZE, Config.TILE_SIZE,
+                Config.CANVAS_TILE_SIZE, 1, Config.JOIN_PREVIEW_SIZE);
+        return new CanvasSnapshotter(canvas, new OperationLog(), null, null, Integer.MAX_VALUE, Long.MAX_VALUE,
+                retainedCheckpoints, memoryBytes);
+    }
+
+    /**
+     * A checkpoint whose bytes all hold its sequence number, the snapshotter does not decode them
+     */
+    private static CanvasSnapshot checkpoint(long sequence) {
+        byte[] imageData = new byte[CHECKPOINT_BYTES];
+        Arrays.fill(imageData, (byte) sequence);
+        return new CanvasSnapshot(sequence, imageData);
+    }
+
+    private static void checkRetained(CanvasSnapshot retained, long sequence, String message) {
+        check(retained != null && retained.getSequence() == sequence, message + " is found");
+        check(Arrays.equals(checkpoint(sequence).getImageData(), retained.getImageData()),
+                message + " has its bytes intact");
+    }
+
+    private static long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(path -> path.getFileName().toString().startsWith("whiteboard-checkpoint")).count();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
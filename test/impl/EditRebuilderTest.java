@@ -0,0 +1,269 @@
+package impl;
+
+import inter.IRemoteClient;
+import inter.ISyncData;
+import utils.Config;
+import whiteBoard.drawing.SceneObject;
+import whiteBoard.drawing.SyncDataRenderer;
+import whiteBoard.drawing.TiledRaster;
+
+import javax.swing.*;
+import java.awt.*;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo, redo and object erase of crossing edits by two authors through the server: the patch each one
+ * the tiles the edit touched. Markers the server cannot carry out are refused.
+ * the tiles the edit touched.
+ * Run as a program, see the README.
+ */
+public class EditRebuilderTest {
+    private static final int AUTHOR_A = 100;
+    private static final int AUTHOR_B = 101;
+    private static final int ERASER = 102;
+    private static final long PATCH_TIMEOUT_SECONDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        crossingEditsOfTwoAuthors();
+        objectEraseOfAnotherAuthorsShape();
+        distantStrokesOfOneEdit();
+        markersTheServerCannotCarryOut();
+        System.out.println("EditRebuilderTest passed");
+        // The server's threads keep the JVM alive otherwise
+        System.exit(0);
+    }
+
+    /**
+     * Each author undoes and redoes their own edit, the other author's strokes across it are kept
+     */
+    static void crossingEditsOfTwoAuthors() throws Exception {
+        RemoteServer server = new RemoteServer();
+        Viewer viewer = new Viewer();
+        server.join(viewer.getUsername(), viewer, false);
+        try {
+            // Both authors number their edits from 1, an edit is told apart by its author
+            List<SyncData> a1 = Arrays.asList(
+                    shape(Config.RECTANGLE, Color.RED, 40, 40, 300, 200, AUTHOR_A, 1),
+                    stroke(Color.BLUE, new int[]{20, 120, 220, 320}, new int[]{100, 60, 140, 90}, AUTHOR_A, 1));
+            List<SyncData> b1 = Arrays.asList(
+                    shape(Config.LINE, Color.GREEN, 10, 10, 400, 300, AUTHOR_B, 1),
+                    shape(Config.OVAL, Color.BLACK, 100, 80, 260, 240, AUTHOR_B, 1));
+            List<SyncData> a2 = Collections.singletonList(
+                    shape(Config.CIRCLE, Color.MAGENTA, 350, 250, 420, 320, AUTHOR_A, 2));
+            for (List<SyncData> edit : Arrays.asList(a1, b1, a2)) {
+                for (SyncData operation : edit) {
+                    server.broadcastCanvas(operation);
+                }
+            }
+
+            server.broadcastCanvas(new SyncData(Config.UNDO, AUTHOR_A).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(b1, a2), "Undoing A's first edit keeps B's strokes across it");
+
+            server.broadcastCanvas(new SyncData(Config.UNDO, AUTHOR_B).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(a2), "Undoing B's edit as well leaves only A's second edit");
+
+            server.broadcastCanvas(new SyncData(Config.REDO, AUTHOR_A).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(a1, a2), "Redoing A's first edit restores it without B's");
+
+            server.broadcastCanvas(new SyncData(Config.REDO, AUTHOR_B).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(a1, b1, a2), "Redoing B's edit restores the board as drawn");
+        } finally {
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    /**
+     * An object erase removes another author's shape until it is undone, and the author can still undo
+     * and redo the shape meanwhile
+     */
+    static void objectEraseOfAnotherAuthorsShape() throws Exception {
+        RemoteServer server = new RemoteServer();
+        Viewer viewer = new Viewer();
+        server.join(viewer.getUsername(), viewer, false);
+        try {
+            List<SyncData> a1 = Collections.singletonList(
+                    shape(Config.RECTANGLE, Color.RED, 40, 40, 300, 200, AUTHOR_A, 1));
+            List<SyncData> b1 = Collections.singletonList(
+                    stroke(Color.BLUE, new int[]{20, 120, 220, 320}, new int[]{100, 60, 140, 90}, AUTHOR_B, 1));
+            for (List<SyncData> edit : Arrays.asList(a1, b1)) {
+                for (SyncData operation : edit) {
+                    server.broadcastCanvas(operation);
+                }
+            }
+
+            long[] erased = {SceneObject.idOf(AUTHOR_A, 1)};
+            server.broadcastCanvas(new SyncData(erased, ERASER).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(b1), "The erased shape is gone and the stroke across it is kept");
+
+            server.broadcastCanvas(new SyncData(Config.UNDO, ERASER).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(a1, b1), "Undoing the erase brings the shape back");
+
+            server.broadcastCanvas(new SyncData(Config.UNDO, AUTHOR_A).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(b1), "The author undoes the shape");
+
+            server.broadcastCanvas(new SyncData(Config.REDO, AUTHOR_A).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(a1, b1), "The author redoes the shape");
+        } finally {
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    /**
+     * Undoing an edit made of two distant strokes rebuilds the tiles each stroke touched, not the area between
+     */
+    static void distantStrokesOfOneEdit() throws Exception {
+        RemoteServer server = new RemoteServer();
+        Viewer viewer = new Viewer();
+        server.join(viewer.getUsername(), viewer, false);
+        try {
+            List<SyncData> a1 = Arrays.asList(
+                    stroke(Color.BLUE, new int[]{100, 180, 260}, new int[]{100, 140, 100}, AUTHOR_A, 1),
+                    stroke(Color.RED, new int[]{5000, 5080, 5160}, new int[]{4000, 4040, 4000}, AUTHOR_A, 1));
+            int touched = 0;
+            for (SyncData operation : a1) {
+                server.broadcastCanvas(operation);
+                touched += tilesUnder(SyncDataRenderer.bounds(operation));
+            }
+
+            server.broadcastCanvas(new SyncData(Config.UNDO, AUTHOR_A).withEditId(1));
+            viewer.awaitPatch();
+            check(viewer.matches(), "Undoing the edit removes both strokes");
+            check(viewer.lastPatchTiles() == touched, "Only the tiles the strokes touched are rebuilt");
+        } finally {
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    /**
+     * Undo and redo markers the server cannot carry out are refused before they are sequenced
+     */
+    static void markersTheServerCannotCarryOut() throws Exception {
+        RemoteServer server = new RemoteServer();
+        try {
+            server.broadcastCanvas(stroke(Color.BLUE, new int[]{20, 120}, new int[]{100, 60}, AUTHOR_A, 1));
+            check(sequenceOf(server, new SyncData(Config.UNDO, AUTHOR_A).withEditId(2)) == 0,
+                    "An unknown edit is refused");
+            check(sequenceOf(server, new SyncData(Config.REDO, AUTHOR_A).withEditId(1)) == 0,
+                    "Redoing an edit that is not undone is refused");
+            check(sequenceOf(server, new SyncData(Config.UNDO, AUTHOR_B).withEditId(1)) == 0,
+                    "Another author's edit of the same number is refused");
+            check(sequenceOf(server, new SyncData(Config.UNDO, AUTHOR_A).withEditId(1)) != 0,
+                    "The author's undo is accepted");
+            check(sequenceOf(server, new SyncData(Config.UNDO, AUTHOR_A).withEditId(1)) == 0,
+                    "Undoing it twice is refused");
+        } finally {
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    private static long sequenceOf(RemoteServer server, SyncData operation) throws Exception {
+        return server.broadcastCanvasBatch(new ISyncData[]{operation}).getSequences()[0];
+    }
+
+    private static int tilesUnder(Rectangle bounds) {
+        int columns = (bounds.x + bounds.width - 1) / Config.TILE_SIZE - bounds.x / Config.TILE_SIZE + 1;
+        int rows = (bounds.y + bounds.height - 1) / Config.TILE_SIZE - bounds.y / Config.TILE_SIZE + 1;
+        return columns * rows;
+    }
+
+    private static SyncData shape(String tool, Color color, int x1, int y1, int x2, int y2, int author, int editId) {
+        return new SyncData(tool, color, new Point(x1, y1), new Point(x2, y2), author, null, 0, 0).withEditId(editId);
+    }
+
+    private static SyncData stroke(Color color, int[] x, int[] y, int author, int editId) {
+        return new SyncData(Config.DRAW, color, x, y, x.length, author, 0).withEditId(editId);
+    }
+
+    private static TiledRaster blankCanvas() {
+        return new TiledRaster(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.CANVAS_TILE_SIZE,
+                Config.CANVAS_RESIDENT_TILES);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Client that draws every operation it is sent into a canvas of its own, as a client's render thread does
+     */
+    private static final class Viewer implements IRemoteClient {
+        private final TiledRaster canvas = blankCanvas();
+        private final Semaphore patches = new Semaphore(0);
+        private int lastPatchTiles;
+
+        @Override
+        public String getUsername() {
+            return "viewer";
+        }
+
+        @Override
+        public synchronized void syncCanvas(ISyncData data, long previousSequence) {
+            SyncDataRenderer.render(canvas, data);
+            if (Config.PATCH.equals(data.getDrawingMode())) {
+                lastPatchTiles = data.getTiles().length;
+                patches.release();
+            }
+        }
+
+        void awaitPatch() throws InterruptedException {
+            check(patches.tryAcquire(PATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS), "No patch was published");
+        }
+
+        synchronized int lastPatchTiles() {
+            return lastPatchTiles;
+        }
+
+        /**
+         * @return Whether the canvas is what drawing the given edits on a blank canvas gives
+         */
+        @SafeVarargs
+        final synchronized boolean matches(List<SyncData>... edits) {
+            TiledRaster expected = blankCanvas();
+            for (List<SyncData> edit : edits) {
+                for (SyncData operation : edit) {
+                    SyncDataRenderer.render(expected, operation);
+                }
+            }
+            return Arrays.equals(expected.hashTiles(Config.TILE_SIZE), canvas.hashTiles(Config.TILE_SIZE));
+        }
+
+        @Override
+        public void syncMessage(String message) {
+        }
+
+        @Override
+        public void requestExit(String managerName) {
+        }
+
+        @Override
+        public void syncUserList(DefaultListModel<String> tempModel) {
+        }
+
+        @Override
+        public void resyncCanvas() {
+        }
+
+        @Override
+        public void requestCanvasClose() {
+        }
+    }
+}
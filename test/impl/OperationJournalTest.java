@@ -0,0 +1,234 @@
+package impl;
+
+import utils.Config;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Recovery of the operation journal after a crash: a torn or corrupt tail, and segments lost after a
+ * checkpoint. Run as a program, see the README.
+ */
+public class OperationJournalTest {
+    // A segment this small is sized to fit its first record, so every record gets a segment of its own
+    private static final int ONE_RECORD_SEGMENT_BYTES = 1;
+    private static final int LARGE_SEGMENT_BYTES = 64 * 1024;
+    // Only a closed journal is checked, so syncing is left to close
+    private static final long SYNC_INTERVAL_MS = 60_000;
+
+    public static void main(String[] args) throws IOException {
+        corruptTailKeepsIntactPrefix();
+        tornTailKeepsIntactPrefix();
+        missingSegmentAfterCheckpointIsDiscarded();
+        missingSegmentLaterIsDiscarded();
+        contiguousSegmentsAreRecovered();
+        System.out.println("OperationJournalTest passed");
+    }
+
+    /**
+     * A record whose checksum does not match is dropped with everything after it, and appending continues
+     * where the intact records end
+     */
+    static void corruptTailKeepsIntactPrefix() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            write(directory, LARGE_SEGMENT_BYTES, 10);
+            Path segment = segments(directory).get(0);
+            long lastRecord = recordOffset(segment, 9);
+            try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                // Flip a payload byte of the last record
+                file.seek(lastRecord + 8);
+                int value = file.read();
+                file.seek(lastRecord + 8);
+                file.write(value ^ 0xFF);
+            }
+
+            check(recover(directory, LARGE_SEGMENT_BYTES, 0, 9).equals(range(1, 9)),
+                    "Corrupt last record is dropped");
+            // The dropped record's space is reused and nothing stale is read back behind it
+            try (OperationJournal journal = open(directory, LARGE_SEGMENT_BYTES, 0)) {
+                journal.append(operation(10), null);
+            }
+            check(recover(directory, LARGE_SEGMENT_BYTES, 0, 10).equals(range(1, 10)),
+                    "Appending resumes after the intact records");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A record whose length runs past the end of the segment, as a crash mid-write can leave it, is dropped
+     * with everything after it
+     */
+    static void tornTailKeepsIntactPrefix() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            write(directory, LARGE_SEGMENT_BYTES, 10);
+            Path segment = segments(directory).get(0);
+            long torn = recordOffset(segment, 6);
+            try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                file.seek(torn);
+                file.writeInt(Integer.MAX_VALUE);
+            }
+
+            check(recover(directory, LARGE_SEGMENT_BYTES, 0, 6).equals(range(1, 6)), "Torn record is dropped");
+            check(recover(directory, LARGE_SEGMENT_BYTES, 0, 6).equals(range(1, 6)),
+                    "Records after a torn one stay discarded");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A segment lost right after the checkpoint, with the segments before it already deleted, leaves nothing
+     * to recover: later segments are not replayed onto a canvas that lacks the lost operations
+     */
+    static void missingSegmentAfterCheckpointIsDiscarded() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            write(directory, ONE_RECORD_SEGMENT_BYTES, 6);
+            List<Path> segments = segments(directory);
+            check(segments.size() == 6, "One segment per record");
+            // The checkpoint at 2 covers the first two segments and they were deleted, the next one is lost
+            for (Path segment : segments.subList(0, 3)) {
+                Files.delete(segment);
+            }
+
+            check(recover(directory, ONE_RECORD_SEGMENT_BYTES, 2, 2).isEmpty(),
+                    "Nothing after the gap is recovered");
+            // The board goes on from the checkpoint, and nothing from beyond the gap comes back later
+            try (OperationJournal journal = open(directory, ONE_RECORD_SEGMENT_BYTES, 2)) {
+                journal.append(operation(3), null);
+            }
+            check(recover(directory, ONE_RECORD_SEGMENT_BYTES, 2, 3).equals(range(3, 3)),
+                    "Operations after the gap are deleted");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A segment lost further on keeps the operations up to it
+     */
+    static void missingSegmentLaterIsDiscarded() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            write(directory, ONE_RECORD_SEGMENT_BYTES, 6);
+            Files.delete(segments(directory).get(4));
+
+            check(recover(directory, ONE_RECORD_SEGMENT_BYTES, 2, 4).equals(range(3, 4)),
+                    "Operations before the gap are recovered");
+            try (OperationJournal journal = open(directory, ONE_RECORD_SEGMENT_BYTES, 2)) {
+                journal.append(operation(5), null);
+            }
+            check(recover(directory, ONE_RECORD_SEGMENT_BYTES, 2, 5).equals(range(3, 5)),
+                    "Operations after the gap are deleted");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Segments a retained older checkpoint still needs are read past, and nothing is discarded
+     */
+    static void contiguousSegmentsAreRecovered() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try {
+            write(directory, ONE_RECORD_SEGMENT_BYTES, 6);
+            check(recover(directory, ONE_RECORD_SEGMENT_BYTES, 3, 6).equals(range(4, 6)),
+                    "Operations after the checkpoint are recovered");
+            check(segments(directory).size() == 6, "No segment is deleted");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void write(Path directory, int segmentBytes, int count) throws IOException {
+        try (OperationJournal journal = open(directory, segmentBytes, 0)) {
+            for (int sequence = 1; sequence <= count; sequence++) {
+                journal.append(operation(sequence), null);
+            }
+        }
+    }
+
+    /**
+     * Recover a journal
+     *
+     * @return Sequence numbers recovered, after checking the journal ends at the expected one
+     */
+    private static List<Long> recover(Path directory, int segmentBytes, long afterSequence, long lastSequence)
+            throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (OperationJournal journal = new OperationJournal(directory, segmentBytes, SYNC_INTERVAL_MS)) {
+            journal.recover(afterSequence, (operation, imageData) -> sequences.add(operation.getSequence()));
+        }
+        long last = sequences.isEmpty() ? afterSequence : sequences.get(sequences.size() - 1);
+        check(last == lastSequence, "Recovered through " + last + ", expected " + lastSequence);
+        return sequences;
+    }
+
+    private static OperationJournal open(Path directory, int segmentBytes, long afterSequence) throws IOException {
+        OperationJournal journal = new OperationJournal(directory, segmentBytes, SYNC_INTERVAL_MS);
+        journal.recover(afterSequence, (operation, imageData) -> {
+        });
+        return journal;
+    }
+
+    private static SyncData operation(long sequence) {
+        return new SyncData(Config.LINE, Color.BLACK, new Point(0, 0), new Point((int) sequence, 10), 1, null, 0, 0)
+                .withSequence(sequence);
+    }
+
+    /**
+     * Offset of a record in a segment, following the length of each record before it
+     */
+    private static long recordOffset(Path segment, int record) throws IOException {
+        long offset = 0;
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+            for (int i = 0; i < record; i++) {
+                file.seek(offset);
+                offset += 8 + file.readInt();
+            }
+        }
+        return offset;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static List<Long> range(long first, long last) {
+        List<Long> sequences = new ArrayList<>();
+        for (long sequence = first; sequence <= last; sequence++) {
+            sequences.add(sequence);
+        }
+        return sequences;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
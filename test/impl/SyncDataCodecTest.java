@@ -0,0 +1,284 @@
+package impl;
+
+import inter.CanvasTile;
+import utils.Config;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Round trips of every kind of drawing operation through {@link SyncDataCodec}, malformed input, and the
+ * encoded size against default serialization of the fields a stroke segment used to carry.
+ * Run as a program, see the README.
+ */
+public class SyncDataCodecTest {
+    private static final int SESSION_ID = 3;
+
+    public static void main(String[] args) throws IOException {
+        shapesRoundTrip();
+        strokesRoundTrip();
+        textRoundTrips();
+        geometryFreeOperationsRoundTrip();
+        patchesRoundTrip();
+        objectErasesRoundTrip();
+        oversizedCountsAreRejected();
+        segmentsAreSmallerThanSerialized();
+        System.out.println("SyncDataCodecTest passed");
+    }
+
+    static void shapesRoundTrip() throws IOException {
+        for (String tool : new String[]{Config.LINE, Config.CIRCLE, Config.OVAL, Config.RECTANGLE}) {
+            checkRoundTrip(new SyncData(tool, new Color(10, 20, 30, 40), new Point(5, 7), new Point(-3, 900),
+                    SESSION_ID, null, 0, 0));
+            checkRoundTrip(new SyncData(tool, null, new Point(5, 7), new Point(8, 9), Integer.MAX_VALUE, null, 0,
+                    0).withSequence(1L << 40).withEditId(Integer.MAX_VALUE));
+        }
+        // No color and no positions
+        checkRoundTrip(new SyncData(Config.LINE, null, null, null, SESSION_ID, null, 0, 0));
+    }
+
+    static void strokesRoundTrip() throws IOException {
+        int[] x = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 40};
+        int[] y = {100, 99, 98, 0, 0, -40};
+        checkRoundTrip(new SyncData(Config.DRAW, Color.BLUE, x, y, x.length, SESSION_ID, 0));
+        checkRoundTrip(new SyncData(Config.ERASER, Color.WHITE, x, y, 1, SESSION_ID, 12.5f).withSequence(7));
+        // Longer than is allocated ahead of reading
+        int[] long1 = new int[100_000];
+        int[] long2 = new int[long1.length];
+        for (int i = 0; i < long1.length; i++) {
+            long1[i] = i % 1000;
+            long2[i] = -i;
+        }
+        checkRoundTrip(new SyncData(Config.DRAW, Color.BLACK, long1, long2, long1.length, SESSION_ID, 0));
+    }
+
+    static void textRoundTrips() throws IOException {
+        checkRoundTrip(new SyncData(Config.TEXT, Color.GREEN, new Point(1, 2), new Point(1, 2), SESSION_ID,
+                "héllo 世界 😀", 24, 0));
+        checkRoundTrip(new SyncData(Config.TEXT, Color.GREEN, new Point(1, 2), new Point(1, 2), SESSION_ID,
+                "", 12, 0));
+        // Past the 64 KB writeUTF limit
+        char[] chars = new char[100_000];
+        Arrays.fill(chars, 'é');
+        checkRoundTrip(new SyncData(Config.TEXT, Color.GREEN, new Point(1, 2), new Point(1, 2), SESSION_ID,
+                new String(chars), 12, 0));
+    }
+
+    static void geometryFreeOperationsRoundTrip() throws IOException {
+        for (String type : new String[]{Config.CLEAR, Config.LOAD, Config.UNDO, Config.REDO}) {
+            checkRoundTrip(new SyncData(type, RemoteServer.SERVER_SESSION_ID));
+            checkRoundTrip(new SyncData(type, SESSION_ID).withEditId(4).withSequence(99));
+        }
+    }
+
+    static void patchesRoundTrip() throws IOException {
+        checkRoundTrip(new SyncData(new CanvasTile[0], RemoteServer.SERVER_SESSION_ID));
+        int[] argb = new int[Config.TILE_SIZE * Config.TILE_SIZE];
+        Arrays.fill(argb, 0xFF336699);
+        int[] noise = new int[Config.TILE_SIZE * 10];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = i * 0x9E3779B9;
+        }
+        CanvasTile[] tiles = {
+                CanvasTile.capture(0, 0, 0, Config.TILE_SIZE, Config.TILE_SIZE, argb),
+                CanvasTile.capture(129, 64, 128, Config.TILE_SIZE, 10, noise),
+        };
+        checkRoundTrip(new SyncData(tiles, RemoteServer.SERVER_SESSION_ID).withSequence(5));
+    }
+
+    static void objectErasesRoundTrip() throws IOException {
+        checkRoundTrip(new SyncData(new long[0], SESSION_ID).withEditId(2));
+        checkRoundTrip(new SyncData(new long[]{1L << 32 | 5, 0xFFFFFFFFL << 32 | 0xFFFFFFFFL, 7}, SESSION_ID)
+                .withEditId(9).withSequence(12));
+    }
+
+    /**
+     * Counts and lengths larger than the input holds fail on reaching its end, without allocating for them
+     */
+    static void oversizedCountsAreRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Freehand opcode with the polyline flag, session, sequence, then a point count and two points
+        out.writeByte(5);
+        SyncDataCodec.writeVarInt(out, 1);
+        SyncDataCodec.writeVarInt(out, SESSION_ID);
+        SyncDataCodec.writeVarLong(out, 0);
+        SyncDataCodec.writeVarInt(out, Integer.MAX_VALUE);
+        for (int i = 0; i < 4; i++) {
+            SyncDataCodec.writeSignedVarInt(out, i);
+        }
+        checkRejected(bytes.toByteArray(), "Point count past the input");
+
+        bytes.reset();
+        // Text opcode with the text flag, session, sequence, then a text length and three bytes
+        out.writeByte(7);
+        SyncDataCodec.writeVarInt(out, 1 << 2);
+        SyncDataCodec.writeVarInt(out, SESSION_ID);
+        SyncDataCodec.writeVarLong(out, 0);
+        SyncDataCodec.writeVarInt(out, Integer.MAX_VALUE);
+        out.writeBytes("abc");
+        checkRejected(bytes.toByteArray(), "Text length past the input");
+
+        bytes.reset();
+        // Object erase opcode with the ids flag, session, sequence, then an id count and one id
+        out.writeByte(13);
+        SyncDataCodec.writeVarInt(out, 1 << 7);
+        SyncDataCodec.writeVarInt(out, SESSION_ID);
+        SyncDataCodec.writeVarLong(out, 0);
+        SyncDataCodec.writeVarInt(out, Integer.MAX_VALUE);
+        SyncDataCodec.writeVarInt(out, SESSION_ID);
+        SyncDataCodec.writeVarInt(out, 1);
+        checkRejected(bytes.toByteArray(), "Object id count past the input");
+
+        bytes.reset();
+        SyncDataCodec.writeVarInt(out, 1);
+        for (int value : new int[]{0, 0, 0, 1 << 20, 1 << 20, 16}) {
+            SyncDataCodec.writeVarInt(out, value);
+        }
+        try {
+            SyncDataCodec.readTiles(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            throw new AssertionError("Oversized tile accepted");
+        } catch (StreamCorruptedException expected) {
+            // Rejected before inflating it
+        }
+
+        bytes.reset();
+        SyncDataCodec.writeVarInt(out, Integer.MAX_VALUE);
+        SyncDataCodec.writeVarInt(out, 0);
+        try {
+            SyncDataCodec.readTiles(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            throw new AssertionError("Tile count past the input accepted");
+        } catch (IOException expected) {
+            // Ran out of input
+        }
+    }
+
+    /**
+     * A stroke segment against the color, two points, tool name and user name it used to be serialized as
+     */
+    static void segmentsAreSmallerThanSerialized() throws IOException {
+        SyncData segment = new SyncData(Config.LINE, new Color(200, 30, 60), new Point(812, 433), new Point(815, 436),
+                SESSION_ID, null, 0, 0).withSequence(123_456);
+        int encoded = encode(segment).length;
+        int serialized = serializedSize(new LegacySegment(Config.LINE, segment.getColor(),
+                segment.getStartPosition(), segment.getEndPosition(), "guest-user-7"));
+        int wire = serializedSize(segment);
+
+        int[] x = new int[Config.STROKE_BATCH_MAX_POINTS];
+        int[] y = new int[x.length];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 500 + i * 2;
+            y[i] = 300 - i;
+        }
+        int chunk = encode(new SyncData(Config.DRAW, Color.BLACK, x, y, x.length, SESSION_ID, 0)).length;
+        System.out.printf("Bytes per segment: %d encoded, %d within a freehand chunk, %d in a stream of its own, "
+                        + "%d serialized as before%n",
+                encoded, (chunk + x.length - 2) / (x.length - 1), wire, serialized);
+        if (encoded * 4 > serialized || chunk >= serialized) {
+            throw new AssertionError("Encoded segment of " + encoded + " bytes is not much smaller than "
+                    + serialized);
+        }
+    }
+
+    /**
+     * Fields a stroke segment was serialized with before the codec
+     */
+    private static final class LegacySegment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String drawType;
+        private final Color color;
+        private final Point startPos;
+        private final Point endPos;
+        private final String username;
+
+        LegacySegment(String drawType, Color color, Point startPos, Point endPos, String username) {
+            this.drawType = drawType;
+            this.color = color;
+            this.startPos = startPos;
+            this.endPos = endPos;
+            this.username = username;
+        }
+    }
+
+    private static void checkRoundTrip(SyncData data) throws IOException {
+        byte[] encoded = encode(data);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        SyncData read = SyncDataCodec.read(in);
+        check(data, read, data.getDrawingMode());
+        if (in.available() != 0) {
+            throw new AssertionError(data.getDrawingMode() + " left " + in.available() + " bytes unread");
+        }
+    }
+
+    private static void checkRejected(byte[] encoded, String message) {
+        try {
+            SyncDataCodec.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+            throw new AssertionError(message + " accepted");
+        } catch (IOException expected) {
+            // Ran out of input before allocating for the claimed length
+        }
+    }
+
+    private static void check(SyncData expected, SyncData actual, String what) {
+        boolean same = Objects.equals(expected.getDrawingMode(), actual.getDrawingMode())
+                && Objects.equals(expected.getColor(), actual.getColor())
+                && Objects.equals(expected.getStartPosition(), actual.getStartPosition())
+                && Objects.equals(expected.getEndPosition(), actual.getEndPosition())
+                && expected.getSessionId() == actual.getSessionId()
+                && expected.getSequence() == actual.getSequence()
+                && expected.getEditId() == actual.getEditId()
+                && expected.getEraserSize() == actual.getEraserSize()
+                && Objects.equals(expected.getText(), actual.getText())
+                && expected.getFontSize() == actual.getFontSize()
+                && Arrays.equals(expected.getXPoints(), actual.getXPoints())
+                && Arrays.equals(expected.getYPoints(), actual.getYPoints())
+                && Arrays.equals(expected.getObjectIds(), actual.getObjectIds())
+                && sameTiles(expected.getTiles(), actual.getTiles());
+        if (!same) {
+            throw new AssertionError(what + " did not survive a round trip");
+        }
+    }
+
+    private static boolean sameTiles(CanvasTile[] expected, CanvasTile[] actual) {
+        if (expected == null || actual == null) {
+            return expected == actual;
+        }
+        if (expected.length != actual.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            CanvasTile a = expected[i];
+            CanvasTile b = actual[i];
+            if (a.getIndex() != b.getIndex() || a.getX() != b.getX() || a.getY() != b.getY()
+                    || a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()
+                    || !Arrays.equals(a.getPixels(), b.getPixels())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encode(SyncData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SyncDataCodec.write(data, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static int serializedSize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+}
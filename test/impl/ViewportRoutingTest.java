@@ -0,0 +1,205 @@
+package impl;
+
+import inter.CanvasTile;
+import inter.IRemoteClient;
+import inter.ISyncData;
+import utils.Config;
+import whiteBoard.drawing.SyncDataRenderer;
+import whiteBoard.drawing.TiledRaster;
+
+import javax.swing.*;
+import java.awt.*;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live operations reach only the clients whose viewport they touch, without looking like gaps to them,
+ * whole-board operations reach every client, and a client scrolling to an area fetches the tiles changed there.
+ * Run as a program, see the README.
+ */
+public class ViewportRoutingTest {
+    private static final Rectangle NEAR = new Rectangle(0, 0, 1000, 800);
+    private static final Rectangle FAR = new Rectangle(6000, 6000, 1000, 800);
+    private static final int SENDER = 1000;
+    private static final int STROKES = 20;
+    private static final long DELIVERY_TIMEOUT_SECONDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        RemoteServer server = new RemoteServer();
+        try {
+            Recorder[] near = {register(server, "near0", NEAR), register(server, "near1", NEAR)};
+            Recorder[] far = {register(server, "far0", FAR), register(server, "far1", FAR)};
+
+            operationsFollowViewports(server, near, far);
+            clearReachesEveryClient(server, near, far);
+            scrolledToTilesAreFetched(server);
+        } finally {
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+        System.out.println("ViewportRoutingTest passed");
+        // The server's threads keep the JVM alive otherwise
+        System.exit(0);
+    }
+
+    /**
+     * Strokes alternating between two distant areas reach only the clients viewing each area
+     */
+    static void operationsFollowViewports(RemoteServer server, Recorder[] near, Recorder[] far) throws Exception {
+        for (int i = 0; i < STROKES; i++) {
+            Rectangle area = i % 2 == 0 ? NEAR : FAR;
+            server.broadcastCanvas(stroke(area.x + 100 + i * 10, area.y + 100));
+        }
+        for (Recorder recorder : near) {
+            recorder.await(STROKES / 2);
+        }
+        for (Recorder recorder : far) {
+            recorder.await(STROKES / 2);
+        }
+        for (Recorder recorder : near) {
+            recorder.checkOnlyInside(NEAR);
+        }
+        for (Recorder recorder : far) {
+            recorder.checkOnlyInside(FAR);
+        }
+    }
+
+    /**
+     * A clear has no area and reaches every client
+     */
+    static void clearReachesEveryClient(RemoteServer server, Recorder[] near, Recorder[] far) throws Exception {
+        server.broadcastCanvas(new SyncData(Config.CLEAR, SENDER));
+        for (Recorder[] recorders : new Recorder[][]{near, far}) {
+            for (Recorder recorder : recorders) {
+                recorder.await(1);
+                recorder.checkNoGaps();
+                check(Config.CLEAR.equals(recorder.last().getDrawingMode()), recorder.name + " receives the clear");
+            }
+        }
+    }
+
+    /**
+     * Asking for the tiles of an area returns those that differ from a blank client canvas, and only those
+     */
+    static void scrolledToTilesAreFetched(RemoteServer server) throws Exception {
+        SyncData stroke = stroke(FAR.x + 100, FAR.y + 100);
+        server.broadcastCanvas(stroke);
+        Rectangle drawn = SyncDataRenderer.bounds(stroke);
+
+        TiledRaster blank = new TiledRaster(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.CANVAS_TILE_SIZE, 1);
+        int columns = CanvasTile.columns(Config.CANVAS_WIDTH, Config.TILE_SIZE);
+        List<Integer> indices = new ArrayList<>();
+        for (int y = FAR.y; y < FAR.y + FAR.height; y += Config.TILE_SIZE) {
+            for (int x = FAR.x; x < FAR.x + FAR.width; x += Config.TILE_SIZE) {
+                indices.add(y / Config.TILE_SIZE * columns + x / Config.TILE_SIZE);
+            }
+        }
+        int[] tileIndices = indices.stream().mapToInt(Integer::intValue).toArray();
+        long[] tileHashes = new long[tileIndices.length];
+        int[] buffer = new int[Config.TILE_SIZE * Config.TILE_SIZE];
+        for (int i = 0; i < tileIndices.length; i++) {
+            tileHashes[i] = blank.hashTile(tileIndices[i], Config.TILE_SIZE, buffer);
+        }
+
+        ISyncData patch = server.getChangedTiles(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, tileIndices, tileHashes);
+        check(patch != null && patch.getTiles().length > 0, "Tiles the stroke changed are returned");
+        for (CanvasTile tile : patch.getTiles()) {
+            check(drawn.intersects(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()),
+                    "Only tiles the stroke touches are returned");
+        }
+    }
+
+    private static Recorder register(RemoteServer server, String name, Rectangle viewport) throws Exception {
+        Recorder recorder = new Recorder(name);
+        int sessionId = server.join(name, recorder, false).getSessionId();
+        server.updateViewport(sessionId, viewport);
+        return recorder;
+    }
+
+    private static SyncData stroke(int x, int y) {
+        int[] xPoints = {x, x + 40, x + 80};
+        int[] yPoints = {y, y + 30, y};
+        return new SyncData(Config.DRAW, Color.BLUE, xPoints, yPoints, xPoints.length, SENDER, 0);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Client that records every operation it is sent along with the sequence number sent before it
+     */
+    private static final class Recorder implements IRemoteClient {
+        private final String name;
+        private final List<ISyncData> received = new ArrayList<>();
+        private final List<Long> previousSequences = new ArrayList<>();
+        private final Semaphore deliveries = new Semaphore(0);
+
+        Recorder(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getUsername() {
+            return name;
+        }
+
+        @Override
+        public synchronized void syncCanvas(ISyncData data, long previousSequence) {
+            received.add(data);
+            previousSequences.add(previousSequence);
+            deliveries.release();
+        }
+
+        void await(int count) throws InterruptedException {
+            check(deliveries.tryAcquire(count, DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS),
+                    name + " receives " + count + " operations");
+        }
+
+        synchronized ISyncData last() {
+            return received.get(received.size() - 1);
+        }
+
+        synchronized void checkOnlyInside(Rectangle viewport) {
+            for (ISyncData operation : received) {
+                check(viewport.intersects(SyncDataRenderer.bounds(operation)),
+                        name + " receives only operations inside its viewport");
+            }
+        }
+
+        /**
+         * Each delivery names the one before it as the previous sequence, so skipped operations are not gaps
+         */
+        synchronized void checkNoGaps() {
+            for (int i = 1; i < received.size(); i++) {
+                check(previousSequences.get(i) == received.get(i - 1).getSequence(),
+                        name + " sees no gap before delivery " + i);
+            }
+        }
+
+        @Override
+        public void syncMessage(String message) {
+        }
+
+        @Override
+        public void requestExit(String managerName) {
+        }
+
+        @Override
+        public void syncUserList(DefaultListModel<String> tempModel) {
+        }
+
+        @Override
+        public void resyncCanvas() {
+        }
+
+        @Override
+        public void requestCanvasClose() {
+        }
+    }
+}
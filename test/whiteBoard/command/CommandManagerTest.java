@@ -0,0 +1,139 @@
+package whiteBoard.command;
+
+/**
+ * Order and bounds of the undo history in {@link CommandManager}, and edits moving only once the server
+ * has answered.
+ * Run as a program, see the README.
+ */
+public class CommandManagerTest {
+    public static void main(String[] args) {
+        undoAndRedoWalkTheHistory();
+        historyKeepsTheLatestEdits();
+        newEditDropsUndoneEdits();
+        clearForgetsEverything();
+        refusedEditsGoBack();
+        editsRecordedWhileWaiting();
+        System.out.println("CommandManagerTest passed");
+    }
+
+    /**
+     * Edits are undone latest first and redone in the order they were undone
+     */
+    static void undoAndRedoWalkTheHistory() {
+        CommandManager history = new CommandManager(10);
+        for (int editId = 1; editId <= 3; editId++) {
+            history.record(editId);
+        }
+        check(undo(history) == 3 && undo(history) == 2, "The latest edits are undone first");
+        check(redo(history) == 2 && redo(history) == 3, "Undone edits are redone in reverse");
+        check(!history.canRedo() && history.redo() == 0, "Nothing is left to redo");
+        check(undo(history) == 3 && undo(history) == 2 && undo(history) == 1, "Every edit can be undone");
+        check(!history.canUndo() && history.undo() == 0, "Nothing is left to undo");
+    }
+
+    /**
+     * Past the maximum number of edits the oldest are forgotten
+     */
+    static void historyKeepsTheLatestEdits() {
+        CommandManager history = new CommandManager(5);
+        for (int editId = 1; editId <= 8; editId++) {
+            history.record(editId);
+        }
+        for (int editId = 8; editId >= 4; editId--) {
+            check(undo(history) == editId, "Edit " + editId + " of the latest five is undone");
+        }
+        check(history.undo() == 0, "Older edits are forgotten");
+    }
+
+    /**
+     * A new edit after an undo cannot be followed by a redo of the undone edit
+     */
+    static void newEditDropsUndoneEdits() {
+        CommandManager history = new CommandManager(10);
+        history.record(1);
+        history.record(2);
+        undo(history);
+        check(history.canRedo(), "The undone edit can be redone");
+        history.record(3);
+        check(!history.canRedo(), "A new edit drops the undone one");
+        check(undo(history) == 3 && undo(history) == 1 && undo(history) == 0,
+                "The new edit and the one before it are undone");
+    }
+
+    /**
+     * Replacing the whole canvas forgets the history
+     */
+    static void clearForgetsEverything() {
+        CommandManager history = new CommandManager(10);
+        history.record(1);
+        history.record(2);
+        undo(history);
+        int pending = history.undo();
+        history.clear();
+        check(!history.canUndo() && !history.canRedo(), "Nothing is left after a clear");
+        history.answered(pending, false);
+        check(!history.canUndo(), "An answer after a clear is ignored");
+    }
+
+    /**
+     * An edit waits for the server's answer, and goes back where it was if the server refuses
+     */
+    static void refusedEditsGoBack() {
+        CommandManager history = new CommandManager(10);
+        history.record(1);
+        history.record(2);
+        check(history.undo() == 2, "The latest edit is asked to be undone");
+        check(!history.canUndo() && history.undo() == 0 && !history.canRedo(), "Nothing else is asked meanwhile");
+        history.answered(2, false);
+        check(!history.canRedo() && undo(history) == 2, "A refused undo leaves the edit to be undone");
+        check(history.redo() == 2, "The undone edit is asked to be redone");
+        history.answered(2, false);
+        check(history.canRedo() && undo(history) == 1, "A refused redo leaves the edit undone");
+    }
+
+    /**
+     * Edits recorded while an answer is awaited stay the latest
+     */
+    static void editsRecordedWhileWaiting() {
+        CommandManager history = new CommandManager(10);
+        history.record(1);
+        history.record(2);
+        history.undo();
+        history.record(3);
+        history.answered(2, false);
+        check(undo(history) == 3 && undo(history) == 2, "A refused undo goes back below the newer edit");
+
+        history.redo();
+        history.record(4);
+        history.answered(2, true);
+        check(undo(history) == 4 && undo(history) == 2 && undo(history) == 1,
+                "A redo answered after a newer edit goes below it");
+
+        history.record(5);
+        history.undo();
+        history.record(6);
+        history.answered(5, true);
+        check(!history.canRedo(), "An undo answered after a newer edit cannot be redone");
+    }
+
+    /**
+     * Ask for an undo and have the server accept it
+     */
+    private static int undo(CommandManager history) {
+        int editId = history.undo();
+        history.answered(editId, true);
+        return editId;
+    }
+
+    private static int redo(CommandManager history) {
+        int editId = history.redo();
+        history.answered(editId, true);
+        return editId;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package whiteBoard.drawing;
+
+import impl.CanvasImageCodec;
+import impl.SyncData;
+import inter.CanvasTile;
+import utils.Config;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Drawing on a {@link TiledRaster} that keeps few tiles resident gives the same pixels as drawing on a
+ * single image, its half-scale level stays a 2x2 average of it, and it survives an encode and decode.
+ * Blank tiles a drawing leaves white stay unallocated.
+ * Run as a program, see the README.
+ */
+public class TiledRasterTest {
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1500;
+    private static final int RESIDENT_TILES = 4;
+    private static final int STROKES = 300;
+
+    public static void main(String[] args) throws Exception {
+        BufferedImage expected = blankImage(WIDTH, HEIGHT);
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT, Config.CANVAS_TILE_SIZE, RESIDENT_TILES);
+        strokesMatchASingleImage(raster, expected);
+        halfScaleFollowsStrokes(raster, expected);
+        encodedCanvasRoundTrips(raster, expected);
+        blankTilesADiagonalMissesStayBlank();
+        System.out.println("TiledRasterTest passed");
+    }
+
+    /**
+     * Strokes across many tiles, most of them evicted and deflated between strokes
+     */
+    static void strokesMatchASingleImage(TiledRaster raster, BufferedImage expected) {
+        Random random = new Random(1);
+        Graphics2D g2d = expected.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int i = 0; i < STROKES; i++) {
+            SyncData stroke = stroke(random);
+            check(SyncDataRenderer.render(raster, stroke), "Stroke " + i + " is drawn");
+            SyncDataRenderer.render(g2d, stroke);
+            check(raster.getResidentTileCount() <= RESIDENT_TILES, "At most " + RESIDENT_TILES + " tiles are resident");
+        }
+        g2d.dispose();
+        check(Arrays.equals(pixels(expected), raster.getRGB(0, 0, WIDTH, HEIGHT, null)),
+                "The raster matches the image pixel for pixel");
+        check(Arrays.equals(raster.hashTiles(Config.TILE_SIZE), hashes(expected)),
+                "Tile hashes match those of the image");
+    }
+
+    /**
+     * Painting at half scale reads the first pyramid level, which matches a 2x2 box filter of the canvas
+     * before and after a further stroke
+     */
+    static void halfScaleFollowsStrokes(TiledRaster raster, BufferedImage expected) {
+        check(Arrays.equals(halve(expected), pixels(halfScale(raster))), "The half-scale level matches a box filter");
+
+        SyncData stroke = stroke(new Random(2));
+        SyncDataRenderer.render(raster, stroke);
+        Graphics2D g2d = expected.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        SyncDataRenderer.render(g2d, stroke);
+        g2d.dispose();
+        check(Arrays.equals(halve(expected), pixels(halfScale(raster))),
+                "The half-scale level is reduced again where a stroke changed it");
+    }
+
+    /**
+     * An encoded canvas decodes to the same pixels, whole or by region
+     */
+    static void encodedCanvasRoundTrips(TiledRaster raster, BufferedImage expected) throws Exception {
+        byte[] encoded = CanvasImageCodec.encode(raster.copy());
+        TiledRaster decoded = new TiledRaster(WIDTH, HEIGHT, Config.CANVAS_TILE_SIZE, RESIDENT_TILES);
+        CanvasImageCodec.decode(encoded, decoded);
+        check(Arrays.equals(pixels(expected), decoded.getRGB(0, 0, WIDTH, HEIGHT, null)),
+                "The decoded canvas matches the image");
+
+        Rectangle region = new Rectangle(300, 700, 900, 500);
+        BufferedImage part = CanvasImageCodec.decodeRegion(encoded, region);
+        check(Arrays.equals(pixels(expected.getSubimage(region.x, region.y, region.width, region.height)),
+                pixels(part)), "The decoded region matches the image");
+    }
+
+    /**
+     * A diagonal across the canvas covers every tile with its bounds, but allocates only the tiles it crosses
+     */
+    static void blankTilesADiagonalMissesStayBlank() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT, Config.CANVAS_TILE_SIZE, RESIDENT_TILES);
+        int[] x = {10, WIDTH - 10};
+        int[] y = {10, HEIGHT - 10};
+        SyncData diagonal = new SyncData(Config.DRAW, Color.BLACK, x, y, x.length, 1, 0);
+        SyncDataRenderer.render(raster, diagonal);
+
+        BufferedImage expected = blankImage(WIDTH, HEIGHT);
+        Graphics2D g2d = expected.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        SyncDataRenderer.render(g2d, diagonal);
+        g2d.dispose();
+        int covered = CanvasTile.columns(WIDTH, Config.CANVAS_TILE_SIZE) * CanvasTile.rows(HEIGHT, Config.CANVAS_TILE_SIZE);
+        check(raster.getTileCount() < covered / 2, "Only the tiles the diagonal crosses are allocated");
+        check(Arrays.equals(pixels(expected), raster.getRGB(0, 0, WIDTH, HEIGHT, null)),
+                "The diagonal matches the image pixel for pixel");
+    }
+
+    private static SyncData stroke(Random random) {
+        int points = 2 + random.nextInt(20);
+        int[] x = new int[points];
+        int[] y = new int[points];
+        x[0] = random.nextInt(WIDTH);
+        y[0] = random.nextInt(HEIGHT);
+        for (int i = 1; i < points; i++) {
+            x[i] = x[i - 1] + random.nextInt(161) - 80;
+            y[i] = y[i - 1] + random.nextInt(161) - 80;
+        }
+        return new SyncData(Config.DRAW, new Color(random.nextInt(0xFFFFFF)), x, y, points, 1, 0);
+    }
+
+    private static BufferedImage halfScale(TiledRaster raster) {
+        BufferedImage image = blankImage(WIDTH / 2, HEIGHT / 2);
+        Graphics2D g2d = image.createGraphics();
+        raster.drawScaled(g2d, new Rectangle(0, 0, WIDTH, HEIGHT), 0.5);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Average each 2x2 block of an image with even edges, rounding half up
+     */
+    private static int[] halve(BufferedImage image) {
+        int[] argb = pixels(image);
+        int width = image.getWidth() / 2;
+        int[] reduced = new int[width * (image.getHeight() / 2)];
+        for (int i = 0; i < reduced.length; i++) {
+            int top = (i / width) * 2 * image.getWidth() + (i % width) * 2;
+            int[] block = {argb[top], argb[top + 1], argb[top + image.getWidth()], argb[top + image.getWidth() + 1]};
+            int pixel = 0xFF000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int sum = 2;
+                for (int value : block) {
+                    sum += (value >> shift) & 0xFF;
+                }
+                pixel |= (sum >> 2) << shift;
+            }
+            reduced[i] = pixel;
+        }
+        return reduced;
+    }
+
+    private static long[] hashes(BufferedImage image) {
+        TiledRaster copy = new TiledRaster(image.getWidth(), image.getHeight(), Config.CANVAS_TILE_SIZE,
+                RESIDENT_TILES);
+        copy.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels(image), 0, image.getWidth());
+        return copy.hashTiles(Config.TILE_SIZE);
+    }
+
+    private static BufferedImage blankImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setPaint(Color.WHITE);
+        g2d.fillRect(0, 0, width, height);
+        g2d.dispose();
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package whiteBoard.ui;
+
+import impl.RemoteServer;
+import impl.SyncData;
+import inter.CanvasSnapshot;
+import inter.CanvasTile;
+import inter.IRemoteClient;
+import inter.ISyncData;
+import inter.JoinResult;
+import utils.Config;
+import whiteBoard.drawing.SyncDataRenderer;
+import whiteBoard.drawing.TiledRaster;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A join replies with the server's thumbnail, then streams the full-resolution tiles in batches nearest the
+ * visible area first, with live operations drawn in between, and ends with the server's canvas.
+ * The batches are fetched the way {@link DrawPanelPresenter} fetches them, without the view.
+ * Run as a program, see the README.
+ */
+public class JoinStreamingTest {
+    private static final int SENDER = 1000;
+    private static final int OPERATIONS = 2000;
+    private static final int LIVE_OPERATIONS_PER_BATCH = 5;
+
+    public static void main(String[] args) throws Exception {
+        RemoteServer server = new RemoteServer();
+        try {
+            Random random = new Random(1);
+            List<SyncData> drawn = new ArrayList<>();
+            for (int i = 0; i < OPERATIONS; i++) {
+                drawn.add(publish(server, random));
+            }
+
+            JoinResult joined = server.join("joiner", new IdleClient(), false);
+            check(joined.isJoined(), "The joiner is admitted");
+            CanvasSnapshot snapshot = joined.getPreview();
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(snapshot.getImageData()));
+            check(image != null, "The preview is a readable image");
+            check(Math.max(image.getWidth(), image.getHeight()) <= Config.JOIN_PREVIEW_SIZE,
+                    "The preview fits the preview size");
+            check(snapshot.getSequence() == OPERATIONS, "The preview reflects every operation published");
+
+            TiledRaster canvas = new TiledRaster(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT, Config.CANVAS_TILE_SIZE,
+                    Config.CANVAS_RESIDENT_TILES);
+            CanvasPreview preview = new CanvasPreview(image, canvas.getWidth(), canvas.getHeight(), Config.TILE_SIZE);
+            Point centre = new Point(3000, 5000);
+            int[] buffer = new int[Config.TILE_SIZE * Config.TILE_SIZE];
+            boolean first = true;
+            while (!preview.isDone()) {
+                int[] batch = preview.nextBatch(centre, Config.JOIN_TILE_BATCH);
+                if (first) {
+                    Rectangle nearest = preview.tileBounds(batch[0]);
+                    check(nearest.contains(centre), "The tile under the visible area is fetched first");
+                    first = false;
+                }
+                long[] tileHashes = new long[batch.length];
+                for (int i = 0; i < batch.length; i++) {
+                    tileHashes[i] = canvas.hashTile(batch[i], Config.TILE_SIZE, buffer);
+                }
+                ISyncData patch = server.getChangedTiles(canvas.getWidth(), canvas.getHeight(), batch, tileHashes);
+                check(patch != null, "The client's canvas has the server's size");
+                for (CanvasTile tile : patch.getTiles()) {
+                    canvas.drawTile(tile);
+                }
+                preview.loaded(batch);
+
+                // Live operations arrive between batches and are drawn as they come
+                for (int i = 0; i < LIVE_OPERATIONS_PER_BATCH; i++) {
+                    SyncData operation = publish(server, random);
+                    drawn.add(operation);
+                    SyncDataRenderer.render(canvas, operation);
+                }
+            }
+
+            TiledRaster expected = new TiledRaster(Config.CANVAS_WIDTH, Config.CANVAS_HEIGHT,
+                    Config.CANVAS_TILE_SIZE, Config.CANVAS_RESIDENT_TILES);
+            for (SyncData operation : drawn) {
+                SyncDataRenderer.render(expected, operation);
+            }
+            check(Arrays.equals(expected.hashTiles(Config.TILE_SIZE),
+                    canvas.hashTiles(Config.TILE_SIZE)), "The streamed canvas matches the server's");
+        } finally {
+            server.handleManagerExit();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+        System.out.println("JoinStreamingTest passed");
+        // The server's threads keep the JVM alive otherwise
+        System.exit(0);
+    }
+
+    /**
+     * Publish a short stroke somewhere on the board
+     *
+     * @return Operation published
+     */
+    private static SyncData publish(RemoteServer server, Random random) throws Exception {
+        int x = random.nextInt(Config.CANVAS_WIDTH);
+        int y = random.nextInt(Config.CANVAS_HEIGHT);
+        int[] xPoints = {x, x + 30, x + 60};
+        int[] yPoints = {y, y + random.nextInt(41) - 20, y};
+        SyncData operation = new SyncData(Config.DRAW, new Color(random.nextInt(0xFFFFFF)), xPoints, yPoints,
+                xPoints.length, SENDER, 0);
+        server.broadcastCanvas(operation);
+        return operation;
+    }
+
+    /**
+     * Joining client that ignores what it is sent, the test draws the live operations itself
+     */
+    private static final class IdleClient implements IRemoteClient {
+        @Override
+        public String getUsername() {
+            return "joiner";
+        }
+
+        @Override
+        public void syncCanvas(ISyncData data, long previousSequence) {
+        }
+
+        @Override
+        public void syncMessage(String message) {
+        }
+
+        @Override
+        public void requestExit(String managerName) {
+        }
+
+        @Override
+        public void syncUserList(DefaultListModel<String> tempModel) {
+        }
+
+        @Override
+        public void resyncCanvas() {
+        }
+
+        @Override
+        public void requestCanvasClose() {
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}